@@ -0,0 +1,333 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import picocli.CommandLine;
+
+/**
+ * generates I5 corpora of any size, for benchmarks
+ * <p>
+ * corpus header and document are taken from the GOE sample; the document is
+ * repeated with new sigles until the corpus has the requested size. Every
+ * n-th document can be made invalid by a misplaced {@code <p/>}. The corpus
+ * refers to a local copy of the I5 DTD or XSD, if given, or else to
+ * {@code i5-sample.dtd} or {@code i5-sample.xsd}, stand-ins for the I5
+ * grammar that are copied next to it. The output is compressed according
+ * to its file name; xz output has a block every {@value #XZ_BLOCK} bytes, so
+ * that it can be decompressed in parallel.
+ */
+@CommandLine.Command(mixinStandardHelpOptions = true,
+        name = "i5generator", description = "generate I5 corpora for "
+        + "benchmarks")
+public class I5CorpusGenerator implements Callable<Integer> {
+
+    static final String SAMPLE = "/goe.dtdvalid.i5.xml";
+    private static final int XZ_BLOCK = 4 << 20;
+
+    /**
+     * the grammar the corpus refers to
+     */
+    public enum Grammar {
+        dtd, xsd;
+
+        /**
+         * @return the file name of the stand-in grammar
+         */
+        String fileName() {
+            return "i5-sample." + name();
+        }
+    }
+
+    @CommandLine.Option(names = { "-s",
+            "--size" }, defaultValue = "10M", description = "size of the "
+                    + "uncompressed corpus, e.g. 500K, 10M, 2G (default: "
+                    + "${DEFAULT-VALUE})")
+    private String size;
+    @CommandLine.Option(names = { "-g",
+            "--grammar" }, defaultValue = "dtd", description = "grammar: "
+                    + "${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})")
+    private Grammar grammar;
+    @CommandLine.Option(names = { "-e",
+            "--error-every" }, defaultValue = "0", description = "make every "
+                    + "n-th document invalid, 0 for none (default: "
+                    + "${DEFAULT-VALUE})")
+    private int errorEvery;
+    @CommandLine.Option(names = {
+            "--dtd" }, description = "local copy of the I5 DTD to refer to "
+                    + "instead of the stand-in (with -g dtd)")
+    private File dtd;
+    @CommandLine.Option(names = {
+            "--xsd" }, description = "local copy of the I5 XSD to refer to "
+                    + "instead of the stand-in (with -g xsd)")
+    private File xsd;
+    @CommandLine.Parameters(arity = "1", description = "output file, "
+            + "compressed if it ends in .gz, .bz2 or .xz")
+    private File output;
+
+    @CommandLine.Spec
+    private CommandLine.Model.CommandSpec spec;
+
+    private final String head;
+    private final String document;
+    private final String tail;
+
+    I5CorpusGenerator() {
+        String sample;
+        try (InputStream in = I5CorpusGenerator.class
+                .getResourceAsStream(SAMPLE)) {
+            if (in == null)
+                throw new IllegalStateException(SAMPLE + " not found");
+            sample = new String(in.readAllBytes(),
+                    StandardCharsets.ISO_8859_1);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        int start = sample.indexOf("  <idsDoc ");
+        int end = sample.indexOf("</idsDoc>") + "</idsDoc>\n".length();
+        head = sample.substring(0, start);
+        document = sample.substring(start, end);
+        tail = sample.substring(end);
+    }
+
+    /**
+     * @param size
+     *     a size like {@code 200}, {@code 500K}, {@code 10M} or {@code 2G}
+     * @return the size in bytes
+     */
+    static long parseSize(String size) {
+        String number = size.trim().toUpperCase(Locale.ROOT);
+        long factor = 1;
+        switch (number.charAt(number.length() - 1)) {
+        case 'K':
+            factor = 1L << 10;
+            break;
+        case 'M':
+            factor = 1L << 20;
+            break;
+        case 'G':
+            factor = 1L << 30;
+            break;
+        default:
+            return Long.parseLong(number);
+        }
+        return Long.parseLong(number.substring(0, number.length() - 1))
+                * factor;
+    }
+
+    /**
+     * @param number
+     *     the number of a document
+     * @return a sigle for it, three or more letters
+     */
+    private static String sigle(long number) {
+        StringBuilder sigle = new StringBuilder();
+        do {
+            sigle.append((char) ('A' + number % 26));
+            number /= 26;
+        } while (number > 0 || sigle.length() < 3);
+        return sigle.reverse().toString();
+    }
+
+    /**
+     * write a corpus
+     *
+     * @param out
+     *     where to write it to
+     * @param size
+     *     approximate size in bytes; at least one document is written
+     * @param grammar
+     *     which grammar to refer to
+     * @param grammarLocation
+     *     URI of the grammar
+     * @param errorEvery
+     *     make every n-th document invalid, 0 for none
+     * @return the number of documents written
+     * @throws IOException
+     *     if the corpus cannot be written
+     */
+    long write(OutputStream out, long size, Grammar grammar,
+            String grammarLocation, int errorEvery) throws IOException {
+        String corpusHead;
+        String doc = document;
+        if (grammar == Grammar.dtd) {
+            corpusHead = head.replaceFirst("<!DOCTYPE [^>]*>",
+                    "<!DOCTYPE idsCorpus PUBLIC \"-//IDS//DTD IDS-I5 1.0//EN\" \""
+                            + grammarLocation + "\">");
+        } else {
+            corpusHead = head.replaceFirst("<!DOCTYPE [^>]*>\n", "")
+                    .replaceFirst("<idsCorpus ", "<idsCorpus xmlns:xsi="
+                            + "\"http://www.w3.org/2001/XMLSchema-instance\" "
+                            + "xsi:noNamespaceSchemaLocation=\""
+                            + grammarLocation + "\" ")
+                    .replace("&bull;", "&#x2022;");
+            doc = doc.replace("&bull;", "&#x2022;");
+        }
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.ISO_8859_1),
+                1 << 16);
+        writer.write(corpusHead);
+        long written = corpusHead.length() + tail.length();
+        long count = 0;
+        do {
+            String sigled = doc.replace("GOE/AGA", "GOE/" + sigle(count));
+            count++;
+            if (errorEvery > 0 && count % errorEvery == 0)
+                sigled = sigled.replace("<quote>", "<quote><p/>");
+            writer.write(sigled);
+            written += sigled.length();
+        } while (written < size);
+        writer.write(tail);
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * @param file
+     *     the file
+     * @return a stream writing to the file, compressed according to its name
+     * @throws IOException
+     *     if the file cannot be created
+     */
+    static OutputStream create(File file) throws IOException {
+        return create(file,
+                Compression.fromFileName(file.getName(), Compression.none));
+    }
+
+    /**
+     * @param file
+     *     the file
+     * @param compression
+     *     the compression
+     * @return a stream writing to the file
+     * @throws IOException
+     *     if the file cannot be created
+     */
+    static OutputStream create(File file, Compression compression)
+            throws IOException {
+        OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16);
+        switch (compression) {
+        case gzip:
+            return new GZIPOutputStream(out, 1 << 16);
+        case bzip2:
+            return new BZip2CompressorOutputStream(out);
+        case xz:
+            return new XZOutputStream(out, new LZMA2Options()) {
+                private int inBlock = 0;
+
+                @Override
+                public void write(byte[] buf, int off, int len)
+                        throws IOException {
+                    while (len > 0) {
+                        int n = Math.min(len, XZ_BLOCK - inBlock);
+                        super.write(buf, off, n);
+                        off += n;
+                        len -= n;
+                        inBlock += n;
+                        if (inBlock == XZ_BLOCK) {
+                            endBlock();
+                            inBlock = 0;
+                        }
+                    }
+                }
+            };
+        case none:
+        default:
+            return out;
+        }
+    }
+
+    /**
+     * copy the stand-in grammar into a directory
+     *
+     * @param grammar
+     *     the grammar
+     * @param directory
+     *     the directory
+     * @return the copy
+     * @throws IOException
+     *     if it cannot be written
+     */
+    static File copyGrammar(Grammar grammar, File directory)
+            throws IOException {
+        File file = new File(directory, grammar.fileName());
+        try (InputStream in = I5CorpusGenerator.class
+                .getResourceAsStream("/" + grammar.fileName())) {
+            Files.copy(in, file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    /**
+     * the grammar a corpus refers to
+     *
+     * @param grammar
+     *     the grammar
+     * @param local
+     *     a local copy of the I5 grammar, or {@code null} for the stand-in
+     * @param directory
+     *     the directory of the corpus, where the stand-in is copied to
+     * @return the local copy, or the copy of the stand-in
+     * @throws IOException
+     *     if the local copy does not exist or the stand-in cannot be
+     *     written
+     */
+    static File grammarFile(Grammar grammar, File local, File directory)
+            throws IOException {
+        if (local == null)
+            return copyGrammar(grammar, directory);
+        if (!local.isFile())
+            throw new FileNotFoundException(local.toString());
+        return local.getAbsoluteFile();
+    }
+
+    @Override
+    public Integer call() throws IOException {
+        if (grammar != Grammar.dtd && dtd != null
+                || grammar != Grammar.xsd && xsd != null)
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "--dtd goes with -g dtd, --xsd with -g xsd");
+        File directory = output.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create " + directory);
+        File grammarFile = grammarFile(grammar,
+                grammar == Grammar.dtd ? dtd : xsd, directory);
+        long count;
+        try (OutputStream out = create(output)) {
+            count = write(out, parseSize(size), grammar,
+                    grammarFile.toURI().toString(), errorEvery);
+        }
+        System.out.printf("%s: %d documents, %d bytes%n", output, count,
+                output.length());
+        return 0;
+    }
+
+    /**
+     * run CLI
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new I5CorpusGenerator()).execute(args));
+    }
+}
@@ -0,0 +1,91 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * time to validate one small file from the command line, as a new process:
+ * the plain jar, the jar with the class data sharing archive of profile
+ * {@code appcds}, and the executable of profile {@code native}
+ * <p>
+ * build what is to be compared first, e.g.
+ * {@code mvn -Pappcds,native package}, then run
+ * {@code mvn -Pbenchmark test-compile exec:exec@benchmark
+ * -Dbenchmark.args="Startup -p variant=jar,appcds"}; a variant whose
+ * artifact is missing from {@code target} fails.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+public class StartupBenchmark {
+
+    @Param({ "jar", "appcds", "native" })
+    public String variant;
+
+    private List<String> command;
+
+    @Setup
+    public void setUp() throws IOException {
+        File target = new File("target");
+        File jar = null;
+        File[] jars = target.listFiles((dir, name) -> name
+                .matches("i5validator-[0-9.]+(-SNAPSHOT)?\\.jar"));
+        if (jars != null && jars.length > 0)
+            jar = jars[0];
+        String java = System.getProperty("java.home") + "/bin/java";
+        command = new ArrayList<>();
+        switch (variant) {
+        case "jar":
+            command.addAll(List.of(java, "-jar", require(jar).getPath()));
+            break;
+        case "appcds":
+            command.addAll(List.of(java, "-XX:SharedArchiveFile="
+                    + require(new File(target, "i5validator.jsa")).getPath(),
+                    "-jar", require(jar).getPath()));
+            break;
+        case "native":
+            command.add(
+                    require(new File(target, "i5validator")).getPath());
+            break;
+        default:
+            throw new IllegalArgumentException(variant);
+        }
+        command.add("src/appcds/valid.i5.xml");
+    }
+
+    private static File require(File file) throws IOException {
+        if (file == null || !file.exists())
+            throw new IOException("missing " + file + ", build it first");
+        return file;
+    }
+
+    @Benchmark
+    public int validate() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0)
+            throw new IllegalStateException(
+                    String.join(" ", command) + ": exit code " + exitCode);
+        return exitCode;
+    }
+}
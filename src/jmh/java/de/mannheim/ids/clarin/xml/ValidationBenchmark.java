@@ -0,0 +1,146 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * validation throughput of generated corpora (see
+ * {@link I5CorpusGenerator}): SAX against DOM, DTD against XSD, every
+ * compression, one thread against several
+ * <p>
+ * one operation validates {@link #files} files of {@link #size} bytes each,
+ * so operations per minute times both is the throughput. With one thread,
+ * files are validated on the benchmark thread itself, so that
+ * {@code -prof gc} sees their allocations (set {@link #decompressionThreads}
+ * to 0 to include decompression). {@link #mapFiles},
+ * {@link #inputBufferSize} and {@link #fastDecoding} tune the reading of
+ * uncompressed files as the options {@code --mmap},
+ * {@code --input-buffer-size} and {@code --parser-decoding} do. The corpora are kept in
+ * {@code target/benchmark-corpus} (system property
+ * {@code benchmark.corpus}) and reused. They refer to stand-ins for the I5
+ * grammar, unless {@link #dtd} or {@link #xsd} name a local copy of the
+ * real one, e.g. {@code -p dtd=/path/to/i5.dtd}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Fork(1)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class ValidationBenchmark {
+
+    @Param({ "SAX", "DOM" })
+    public String parser;
+    @Param({ "dtd", "xsd" })
+    public I5CorpusGenerator.Grammar grammar;
+    @Param({ "none", "gzip", "bzip2", "xz" })
+    public Compression compression;
+    @Param({ "1", "4" })
+    public int threads;
+    @Param({ "4" })
+    public int files;
+    @Param({ "8M" })
+    public String size;
+    @Param({ "0" })
+    public int errorEvery;
+    @Param({ "1" })
+    public int decompressionThreads;
+    @Param({ "false" })
+    public boolean mapFiles;
+    @Param({ "65536" })
+    public int inputBufferSize;
+    @Param({ "true" })
+    public boolean fastDecoding;
+    @Param({ "" })
+    public String dtd;
+    @Param({ "" })
+    public String xsd;
+
+    private List<ValidationTask> tasks;
+    private I5Validator validator;
+    private Decompressor decompressor;
+    private ValidationScheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File directory = new File(System.getProperty("benchmark.corpus",
+                "target/benchmark-corpus"));
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create " + directory);
+        String local = grammar == I5CorpusGenerator.Grammar.dtd ? dtd : xsd;
+        String grammarLocation = I5CorpusGenerator.grammarFile(grammar,
+                local.isEmpty() ? null : new File(local), directory).toURI()
+                .toString();
+        // corpora for another grammar file are generated anew
+        String variant = local.isEmpty() ? "" : String.format("-%08x",
+                grammarLocation.hashCode());
+        I5CorpusGenerator generator = new I5CorpusGenerator();
+        String extension = compression == Compression.none ? ""
+                : compression == Compression.gzip ? ".gz" : "." + compression;
+        tasks = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            File file = new File(directory, String.format(
+                    "goe-%s-%s%s-e%d-%d.i5.xml%s", size, grammar, variant,
+                    errorEvery, i, extension));
+            if (!file.exists()) {
+                File partial = new File(directory, file.getName() + ".part");
+                try (OutputStream out = I5CorpusGenerator.create(partial,
+                        compression)) {
+                    generator.write(out, I5CorpusGenerator.parseSize(size),
+                            grammar, grammarLocation, errorEvery);
+                }
+                if (!partial.renameTo(file))
+                    throw new IOException("cannot create " + file);
+            }
+            boolean dom = "DOM".equals(parser);
+            tasks.add(new ValidationTask(file, Compression.none, dom,
+                    grammar == I5CorpusGenerator.Grammar.xsd));
+        }
+        validator = new I5Validator(false);
+        validator.setInputBufferSize(inputBufferSize);
+        validator.setFastDecoding(fastDecoding);
+        decompressor = new Decompressor(decompressionThreads, mapFiles);
+        scheduler = new ValidationScheduler(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        decompressor.close();
+    }
+
+    @Benchmark
+    public int validate() {
+        AtomicInteger invalid = new AtomicInteger();
+        Consumer<ValidationTask> action = task -> {
+            if (!I5ValidatorRunner.validate(validator, decompressor, task))
+                invalid.incrementAndGet();
+        };
+        if (threads == 1)
+            tasks.forEach(action);
+        else
+            scheduler.run(tasks.iterator(), action);
+        if (errorEvery == 0 && invalid.get() > 0)
+            throw new IllegalStateException(invalid + " files invalid");
+        return invalid.get();
+    }
+}
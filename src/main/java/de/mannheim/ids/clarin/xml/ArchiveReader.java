@@ -0,0 +1,271 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * reads the members of a tar or zip archive as validation tasks, named
+ * {@code archive!/member}, without extracting them to disk
+ * <p>
+ * the archive is read as a stream, one member after the other. Small members
+ * are read into memory, so that several threads can validate them at the
+ * same time; a larger one is validated straight from the archive, and the
+ * next member is only read once it is done. Compressed members are
+ * decompressed according to their names.
+ */
+class ArchiveReader implements Iterator<ValidationTask> {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(ArchiveReader.class.getSimpleName());
+
+    /**
+     * members up to this size are read into memory when validating in
+     * parallel
+     */
+    static final int MAX_BUFFERED = 64 << 20;
+
+    private final ValidationTask archive;
+    private final ArchiveInputStream in;
+    private final int maxBuffered;
+    private ValidationTask next = null;
+    /**
+     * counted down when the member read from the archive has been closed
+     */
+    private CountDownLatch streaming = null;
+    private boolean ended = false;
+    private int members = 0;
+
+    /**
+     * @param archive
+     *     the archive
+     * @param in
+     *     its (decompressed) data
+     * @param maxBuffered
+     *     members up to this size are read into memory; 0 to validate all
+     *     members straight from the archive
+     * @throws IOException
+     *     if the data is not a tar or zip archive
+     */
+    ArchiveReader(ValidationTask archive, InputStream in, int maxBuffered)
+            throws IOException {
+        this.archive = archive;
+        this.maxBuffered = maxBuffered;
+        try {
+            this.in = openArchive(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param name
+     *     a file name
+     * @return whether it is that of a (possibly compressed) tar or zip
+     *     archive
+     */
+    static boolean isArchive(String name) {
+        switch (FilenameUtils.getExtension(name).toLowerCase(Locale.ROOT)) {
+        case "tar":
+        case "zip":
+        case "tgz":
+        case "tbz":
+        case "tbz2":
+        case "txz":
+            return true;
+        default:
+            return Compression.fromFileName(name,
+                    Compression.none) != Compression.none
+                    && isArchive(FilenameUtils.removeExtension(name));
+        }
+    }
+
+    /**
+     * @param in
+     *     data that supports {@link InputStream#mark(int)}
+     * @return whether the data starts like a tar or zip archive
+     */
+    static boolean isArchive(InputStream in) {
+        return format(in) != null;
+    }
+
+    private static String format(InputStream in) {
+        try {
+            String format = ArchiveStreamFactory.detect(in);
+            if (ArchiveStreamFactory.TAR.equals(format)
+                    || ArchiveStreamFactory.ZIP.equals(format))
+                return format;
+        } catch (ArchiveException e) {
+            // neither
+        }
+        return null;
+    }
+
+    private static ArchiveInputStream openArchive(InputStream in)
+            throws IOException {
+        InputStream buffered = in.markSupported() ? in
+                : new BufferedInputStream(in);
+        String format = format(buffered);
+        if (ArchiveStreamFactory.ZIP.equals(format))
+            return new ZipArchiveInputStream(buffered, "UTF-8", true, true);
+        if (ArchiveStreamFactory.TAR.equals(format))
+            return new TarArchiveInputStream(buffered);
+        throw new IOException("neither a tar nor a zip archive");
+    }
+
+    /**
+     * @param tasks
+     *     validation tasks
+     * @param decompressor
+     *     opens the archives
+     * @param maxBuffered
+     *     see {@link #ArchiveReader(ValidationTask, InputStream, int)}
+     * @return the tasks, with archives replaced by their members; archives
+     *     are opened only when their turn comes
+     */
+    static Iterator<ValidationTask> expand(Iterator<ValidationTask> tasks,
+            Decompressor decompressor, int maxBuffered) {
+        return new Iterator<>() {
+            private Iterator<ValidationTask> members = null;
+            private ValidationTask next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    if (members != null && members.hasNext())
+                        return true;
+                    members = null;
+                    if (!tasks.hasNext())
+                        return false;
+                    ValidationTask task = tasks.next();
+                    if (!task.archive) {
+                        next = task;
+                    } else {
+                        try {
+                            members = new ArchiveReader(task,
+                                    task.open(decompressor), maxBuffered);
+                        } catch (IOException e) {
+                            throw new RuntimeException(task.name, e);
+                        }
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public ValidationTask next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                if (members != null)
+                    return members.next();
+                ValidationTask task = next;
+                next = null;
+                return task;
+            }
+        };
+    }
+
+    /**
+     * wait until the member being read from the archive has been validated
+     */
+    private void awaitStreamed() {
+        if (streaming == null)
+            return;
+        try {
+            streaming.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        streaming = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null)
+            return true;
+        if (ended)
+            return false;
+        awaitStreamed();
+        try {
+            ArchiveEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.isDirectory())
+                    continue;
+                if (!in.canReadEntryData(entry)) {
+                    logger.warn("{}!/{}: cannot read member (encrypted or "
+                            + "unsupported compression)", archive.name,
+                            entry.getName());
+                    continue;
+                }
+                next = member(entry);
+                members++;
+                return true;
+            }
+            ended = true;
+            in.close();
+            logger.info("{}: {} members", archive.name, members);
+            return false;
+        } catch (IOException e) {
+            throw new RuntimeException(archive.name, e);
+        }
+    }
+
+    @Override
+    public ValidationTask next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        ValidationTask task = next;
+        next = null;
+        return task;
+    }
+
+    /**
+     * @return the task for the member the archive is positioned at
+     */
+    private ValidationTask member(ArchiveEntry entry) throws IOException {
+        String name = archive.name + "!/" + entry.getName();
+        Compression compression = Compression.fromFileName(entry.getName(),
+                Compression.none);
+        byte[] head = maxBuffered > 0 ? in.readNBytes(maxBuffered + 1)
+                : new byte[0];
+        if (maxBuffered > 0 && head.length <= maxBuffered) {
+            return new ValidationTask(name, archive.systemId, head,
+                    compression, archive.dom, archive.useSchema);
+        }
+        // the member has to be closed before the next one can be read
+        CountDownLatch done = new CountDownLatch(1);
+        streaming = done;
+        InputStream rest = new FilterInputStream(in) {
+            @Override
+            public void close() {
+                done.countDown();
+            }
+        };
+        InputStream data = head.length > 0 ? new SequenceInputStream(
+                new ByteArrayInputStream(head), rest) : rest;
+        return new ValidationTask(name, archive.systemId,
+                Math.max(entry.getSize(), head.length), false,
+                decompressor -> Decompressor.decompress(
+                        ValidationMetrics.stored(data), compression),
+                archive.dom, archive.useSchema);
+    }
+}
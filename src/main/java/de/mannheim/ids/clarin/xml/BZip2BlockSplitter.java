@@ -0,0 +1,308 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * splits a bzip2 file into its compressed blocks, so that they can be
+ * decompressed independently
+ * <p>
+ * bzip2 blocks are not byte-aligned; they are found by their 48-bit magic
+ * number. Every block is turned into a complete single-block bzip2 stream of
+ * its own, whose stream CRC equals the block CRC. The magic number may,
+ * rarely, also occur inside compressed data; such a false block decodes with
+ * an error and has to be joined with the following one (see
+ * {@link Block#join(Block)}).
+ */
+class BZip2BlockSplitter {
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = (1L << 48) - 1;
+
+    private final InputStream in;
+
+    /**
+     * bytes read from {@link #in}, starting at file offset
+     * {@link #dataStart}
+     */
+    private byte[] data = new byte[1 << 20];
+    private int dataLength = 0;
+    private long dataStart = 0;
+
+    /**
+     * bit position in the file and the last 48 bits before it
+     */
+    private long position = 0;
+    private long window = 0;
+
+    /**
+     * bit position of the block being scanned, -1 between streams
+     */
+    private long blockStart = -1;
+    private boolean started = false;
+    private boolean ended = false;
+
+    /**
+     * a compressed block, bit {@code offset} to bit {@code offset + length}
+     * in {@code data}
+     */
+    static class Block {
+        final byte[] data;
+        final int offset;
+        final long length;
+
+        Block(byte[] data, int offset, long length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @param next
+         *     the block that followed this one in the file
+         * @return a block with the bits of both blocks
+         */
+        Block join(Block next) {
+            BitWriter writer = new BitWriter(
+                    (int) ((length + next.length) / 8 + 1));
+            writer.write(data, offset, length);
+            writer.write(next.data, next.offset, next.length);
+            return new Block(writer.bytes(), 0, length + next.length);
+        }
+
+        /**
+         * @return the decompressed block
+         * @throws IOException
+         *     if the block is corrupt (or not really a block)
+         */
+        byte[] decompress() throws IOException {
+            // CRC follows the magic number
+            long crc = 0;
+            for (int i = 48; i < 80; i++)
+                crc = (crc << 1) | bit(data, offset + i);
+            BitWriter writer = new BitWriter((int) (length / 8 + 20));
+            writer.write('B', 8);
+            writer.write('Z', 8);
+            writer.write('h', 8);
+            writer.write('9', 8);
+            writer.write(data, offset, length);
+            writer.write((int) (END_MAGIC >>> 24), 24);
+            writer.write((int) (END_MAGIC & 0xffffff), 24);
+            writer.write((int) crc, 32);
+            try (InputStream in = new BZip2CompressorInputStream(
+                    new ByteArrayInputStream(writer.bytes()))) {
+                return in.readAllBytes();
+            } catch (RuntimeException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * writes bits, most significant first
+     */
+    private static class BitWriter {
+        private byte[] bytes;
+        private long bits = 0;
+
+        BitWriter(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        void write(int value, int count) {
+            for (int i = count - 1; i >= 0; i--)
+                writeBit((value >>> i) & 1);
+        }
+
+        void writeBit(int bit) {
+            int index = (int) (bits >>> 3);
+            if (index >= bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            if (bit != 0)
+                bytes[index] |= (byte) (0x80 >>> (bits & 7));
+            bits++;
+        }
+
+        /**
+         * copy bits, a byte at a time where possible
+         */
+        void write(byte[] source, int offset, long length) {
+            long i = 0;
+            while (i < length && ((offset + i) & 7) != 0) {
+                writeBit(bit(source, offset + i));
+                i++;
+            }
+            if ((bits & 7) == 0) {
+                int from = (int) ((offset + i) >>> 3);
+                int count = (int) ((length - i) >>> 3);
+                int index = (int) (bits >>> 3);
+                if (index + count >= bytes.length)
+                    bytes = Arrays.copyOf(bytes,
+                            Math.max(bytes.length * 2, index + count + 16));
+                System.arraycopy(source, from, bytes, index, count);
+                bits += 8L * count;
+                i += 8L * count;
+            } else {
+                int shift = (int) (bits & 7);
+                for (; i + 8 <= length; i += 8) {
+                    int value = source[(int) ((offset + i) >>> 3)] & 0xff;
+                    int index = (int) (bits >>> 3);
+                    if (index + 1 >= bytes.length)
+                        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                    bytes[index] |= (byte) (value >>> shift);
+                    bytes[index + 1] = (byte) (value << (8 - shift));
+                    bits += 8;
+                }
+            }
+            for (; i < length; i++)
+                writeBit(bit(source, offset + i));
+        }
+
+        byte[] bytes() {
+            return Arrays.copyOf(bytes, (int) ((bits + 7) >>> 3));
+        }
+    }
+
+    private static int bit(byte[] bytes, long index) {
+        return (bytes[(int) (index >>> 3)] >>> (7 - (index & 7))) & 1;
+    }
+
+    /**
+     * @param in
+     *     the compressed data, concatenated bzip2 streams are allowed
+     */
+    BZip2BlockSplitter(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * make sure the bytes up to file offset {@code end} are in memory
+     *
+     * @return whether they are available
+     */
+    private boolean fill(long end) throws IOException {
+        while (dataStart + dataLength < end) {
+            if (dataLength == data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+            int n = in.read(data, dataLength, data.length - dataLength);
+            if (n < 0)
+                return false;
+            dataLength += n;
+        }
+        return true;
+    }
+
+    private int byteAt(long offset) {
+        return data[(int) (offset - dataStart)] & 0xff;
+    }
+
+    /**
+     * @return whether a stream header ({@code BZh1} to {@code BZh9}) starts
+     *     at the current (byte-aligned) position
+     */
+    private boolean atStreamHeader() throws IOException {
+        long offset = position >>> 3;
+        if (!fill(offset + 4))
+            return false;
+        int level = byteAt(offset + 3);
+        return byteAt(offset) == 'B' && byteAt(offset + 1) == 'Z'
+                && byteAt(offset + 2) == 'h' && level >= '1' && level <= '9';
+    }
+
+    /**
+     * cut the block from {@link #blockStart} to {@code end} (bit positions)
+     */
+    private Block cut(long end) {
+        int from = (int) ((blockStart >>> 3) - dataStart);
+        int to = (int) (((end + 7) >>> 3) - dataStart);
+        Block block = new Block(Arrays.copyOfRange(data, from, to),
+                (int) (blockStart & 7), end - blockStart);
+        // drop everything before the byte containing the end
+        int keep = (int) ((end >>> 3) - dataStart);
+        System.arraycopy(data, keep, data, 0, dataLength - keep);
+        dataLength -= keep;
+        dataStart += keep;
+        blockStart = -1;
+        return block;
+    }
+
+    /**
+     * @return the next compressed block, or {@code null} at the end
+     * @throws IOException
+     *     if the data cannot be read or is not bzip2
+     */
+    Block next() throws IOException {
+        if (ended)
+            return null;
+        if (!started) {
+            started = true;
+            if (!fill(1)) {
+                ended = true;
+                return null;
+            }
+            if (!atStreamHeader())
+                throw new IOException("Stream is not in the BZip2 format");
+            position = 32;
+        }
+        while (true) {
+            long offset = position >>> 3;
+            if (!fill(offset + 1)) {
+                if (blockStart >= 0)
+                    throw new IOException("bzip2 stream ends unexpectedly");
+                ended = true;
+                return null;
+            }
+            int b = byteAt(offset);
+            for (int i = 7 - (int) (position & 7); i >= 0; i--) {
+                window = ((window << 1) | ((b >>> i) & 1)) & MAGIC_MASK;
+                position++;
+                if (window == BLOCK_MAGIC) {
+                    long magicStart = position - 48;
+                    Block block = blockStart >= 0 ? cut(magicStart) : null;
+                    blockStart = magicStart;
+                    if (block != null)
+                        return block;
+                } else if (window == END_MAGIC) {
+                    Block block = streamEnd();
+                    if (block != null || ended)
+                        return block;
+                    // position may have moved
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * handle an end-of-stream marker: skip the stream CRC and the padding,
+     * then expect the end of the file or another stream. Otherwise the
+     * marker was part of the compressed data, and scanning goes on.
+     *
+     * @return the last block of the stream, if any
+     */
+    private Block streamEnd() throws IOException {
+        long end = position - 48;
+        long markerEnd = position;
+        long markerWindow = window;
+        position = (position + 32 + 7) & ~7L;
+        boolean atEnd = !fill((position >>> 3) + 1);
+        if (atEnd || atStreamHeader()) {
+            Block block = blockStart >= 0 ? cut(end) : null;
+            if (atEnd) {
+                ended = true;
+            } else {
+                position += 32;
+                window = 0;
+            }
+            return block;
+        }
+        position = markerEnd;
+        window = markerWindow;
+        return null;
+    }
+}
@@ -0,0 +1,253 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.catalog.CatalogFeatures;
+import javax.xml.catalog.CatalogManager;
+import javax.xml.catalog.CatalogResolver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+/**
+ * an {@link EntityResolver} that reads every external entity (DTDs,
+ * parameter entities, …) at most once
+ * <p>
+ * entities are looked up
+ * <ol>
+ * <li>in OASIS XML catalogs, which may map them to local files,</li>
+ * <li>in memory,</li>
+ * <li>in an optional content-addressed cache directory, and only then</li>
+ * <li>at their (resolved) system identifier.</li>
+ * </ol>
+ * Entities from the network are stored in the cache directory, so that
+ * later runs on the same machine can work offline.
+ * <p>
+ * The cache directory contains a file {@code content/<sha256 of content>}
+ * for every entity, and a file {@code id/<sha256 of system id>} with the
+ * content hash for every system identifier.
+ * <p>
+ * an entity is loaded by the first thread asking for it, with a time limit
+ * for connecting and reading; other threads asking for it wait for that,
+ * but not threads asking for other entities.
+ */
+public class CachingEntityResolver implements EntityResolver {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(CachingEntityResolver.class.getSimpleName());
+
+    /**
+     * time limit for connecting and for every read, by default
+     */
+    private static final int DEFAULT_TIMEOUT = 60_000;
+
+    private final CatalogResolver catalogResolver;
+    private final Path cacheDir;
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> entities = new ConcurrentHashMap<>();
+    private final AtomicLong loaded = new AtomicLong();
+    private int timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * an in-memory cache only
+     */
+    public CachingEntityResolver() {
+        this(List.of(), null);
+    }
+
+    /**
+     * @param catalogs
+     *     XML catalog files, may be empty
+     * @param cacheDir
+     *     directory for the persistent cache, {@code null} for none
+     */
+    public CachingEntityResolver(List<File> catalogs, File cacheDir) {
+        if (catalogs.isEmpty()) {
+            catalogResolver = null;
+        } else {
+            CatalogFeatures features = CatalogFeatures.builder()
+                    .with(CatalogFeatures.Feature.RESOLVE, "continue")
+                    .build();
+            catalogResolver = CatalogManager.catalogResolver(features,
+                    catalogs.stream().map(File::toURI).toArray(URI[]::new));
+        }
+        this.cacheDir = cacheDir == null ? null : cacheDir.toPath();
+    }
+
+    /**
+     * @param millis
+     *     time limit for connecting to the location of an entity, and for
+     *     every read from it (0: none)
+     */
+    public void setTimeout(int millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException(
+                    "timeout must not be negative");
+        timeout = millis;
+    }
+
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId)
+            throws IOException {
+        String location = systemId;
+        if (catalogResolver != null) {
+            InputSource mapped = catalogResolver.resolveEntity(publicId,
+                    systemId);
+            if (mapped != null && mapped.getSystemId() != null)
+                location = mapped.getSystemId();
+        }
+        if (location == null)
+            return null; // default
+        byte[] content;
+        long start = System.nanoTime();
+        try {
+            content = get(location);
+        } finally {
+            ValidationMetrics metrics = ValidationMetrics.current();
+            if (metrics != null)
+                metrics.addEntityNanos(System.nanoTime() - start);
+        }
+        InputSource source = new InputSource(
+                new ByteArrayInputStream(content));
+        source.setPublicId(publicId);
+        source.setSystemId(location);
+        return source;
+    }
+
+    /**
+     * @return the content of an entity, loaded by this thread unless
+     *     another one is loading it or has loaded it
+     */
+    private byte[] get(String location) throws IOException {
+        CompletableFuture<byte[]> loading = new CompletableFuture<>();
+        CompletableFuture<byte[]> known = entities.putIfAbsent(location,
+                loading);
+        if (known == null) {
+            try {
+                byte[] content = load(location);
+                loading.complete(content);
+                return content;
+            } catch (IOException | RuntimeException e) {
+                // try again when asked again
+                entities.remove(location, loading);
+                loading.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return known.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return number of entities read from disk or network
+     */
+    public long getLoaded() {
+        return loaded.get();
+    }
+
+    /**
+     * read an entity from the cache directory or its location
+     *
+     * @param location
+     *     the system identifier
+     * @return the content
+     * @throws IOException
+     *     if it cannot be read in time
+     */
+    private byte[] load(String location) throws IOException {
+        loaded.getAndIncrement();
+        boolean cacheable = cacheDir != null
+                && !location.startsWith("file:");
+        Path idFile = null;
+        if (cacheable) {
+            idFile = cacheDir.resolve("id").resolve(sha256(
+                    location.getBytes(StandardCharsets.UTF_8)));
+            if (Files.isRegularFile(idFile)) {
+                Path contentFile = cacheDir.resolve("content")
+                        .resolve(Files.readString(idFile).trim());
+                if (Files.isRegularFile(contentFile)) {
+                    logger.debug("LOADING ENTITY '{}' from cache",
+                            location);
+                    return Files.readAllBytes(contentFile);
+                }
+            }
+        }
+        logger.info("LOADING ENTITY '{}'", location);
+        URLConnection connection = new URL(location).openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        byte[] content;
+        try (InputStream in = connection.getInputStream()) {
+            content = in.readAllBytes();
+        }
+        if (cacheable)
+            store(idFile, content);
+        return content;
+    }
+
+    /**
+     * store content in the cache directory; files are moved into place
+     * atomically so that concurrent runs never see partial entries
+     */
+    private void store(Path idFile, byte[] content) throws IOException {
+        String hash = sha256(content);
+        Path contentDir = cacheDir.resolve("content");
+        Files.createDirectories(contentDir);
+        Files.createDirectories(idFile.getParent());
+        Path contentFile = contentDir.resolve(hash);
+        if (!Files.exists(contentFile))
+            moveIntoPlace(contentDir, contentFile, content);
+        moveIntoPlace(idFile.getParent(), idFile,
+                hash.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * write a file atomically, through a temporary file in {@code dir}
+     */
+    static void moveIntoPlace(Path dir, Path target, byte[] content)
+            throws IOException {
+        Path temp = Files.createTempFile(dir, "tmp", null);
+        Files.write(temp, content);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static String sha256(byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(content))
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
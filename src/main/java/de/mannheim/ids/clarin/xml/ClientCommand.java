@@ -0,0 +1,87 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import picocli.CommandLine;
+
+/**
+ * {@code i5validator client FILES}: have files validated by a running
+ * {@link ValidationServer} and print its answers, one JSON line per file
+ */
+@CommandLine.Command(name = "client", mixinStandardHelpOptions = true,
+        description = "have files validated by a running 'serve' and "
+                + "print the results as JSON lines")
+public class ClientCommand implements Callable<Integer> {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(ClientCommand.class.getSimpleName());
+
+    @CommandLine.Option(names = { "--port" }, defaultValue = "7435",
+            description = "port of the server (default: ${DEFAULT-VALUE})")
+    private int port;
+    @CommandLine.Option(names = { "--by-path" }, description = "send file "
+            + "names rather than contents; the server must be able to read "
+            + "the files")
+    private boolean byPath = false;
+    @CommandLine.Parameters(arity = "1..*", description = "input files")
+    private List<File> inputFiles = new ArrayList<>();
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        ObjectMapper objectMapper = new ObjectMapper();
+        int errorCount = 0;
+        for (File inputFile : inputFiles) {
+            HttpRequest.Builder request;
+            if (byPath) {
+                request = HttpRequest.newBuilder(uri("path",
+                        inputFile.getAbsolutePath()))
+                        .POST(HttpRequest.BodyPublishers.noBody());
+            } else {
+                request = HttpRequest.newBuilder(uri("name",
+                        inputFile.getPath()))
+                        .POST(HttpRequest.BodyPublishers
+                                .ofFile(inputFile.toPath()));
+            }
+            HttpResponse<String> response = client.send(request.build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                logger.error("{}: {}", inputFile, response.body().trim());
+                errorCount++;
+                continue;
+            }
+            System.out.print(response.body());
+            if (!objectMapper.readTree(response.body()).get("valid")
+                    .asBoolean())
+                errorCount++;
+        }
+        System.out.flush();
+        return errorCount;
+    }
+
+    private URI uri(String parameter, String value) {
+        // where the server listens
+        String host = InetAddress.getLoopbackAddress().getHostAddress();
+        if (host.contains(":"))
+            host = "[" + host + "]";
+        return URI.create("http://" + host + ":" + port + "/validate?"
+                + parameter + "="
+                + URLEncoder.encode(value, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,37 @@
+package de.mannheim.ids.clarin.xml;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * compression formats of input files
+ */
+public enum Compression {
+    none, bzip2, gzip, xz;
+
+    /**
+     * @param name
+     *     a file name
+     * @param fallback
+     *     the compression to assume if the extension is not known
+     * @return the compression belonging to the file's extension
+     */
+    public static Compression fromFileName(String name,
+            Compression fallback) {
+        switch (FilenameUtils.getExtension(name)) {
+        case "xz":
+        case "txz":
+            return xz;
+        case "bz2":
+        case "bzip2":
+        case "tbz":
+        case "tbz2":
+            return bzip2;
+        case "gz":
+        case "gzip":
+        case "tgz":
+            return gzip;
+        default:
+            return fallback;
+        }
+    }
+}
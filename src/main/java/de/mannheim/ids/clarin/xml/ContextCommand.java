@@ -0,0 +1,255 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import picocli.CommandLine;
+
+/**
+ * {@code i5validator context REPORT}: show the errors of a report in their
+ * context, the lines around them read from the validated files
+ * <p>
+ * the files are read from the byte offsets of the lines recorded with
+ * {@code --offsets} (see {@link LineIndex}), not from the start, so this
+ * takes about as long for an error near the end of a large file as for
+ * one near its start (see {@link SeekableDocument} for compressed files).
+ * Errors without an offset, in archive members and in standard input are
+ * left out.
+ */
+@CommandLine.Command(name = "context", mixinStandardHelpOptions = true,
+        description = "show the lines around the errors of a report "
+                + "written with --offsets")
+public class ContextCommand implements Callable<Integer> {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(ContextCommand.class.getSimpleName());
+
+    /**
+     * bytes read before and after an error at most, so that very long lines
+     * do not take long
+     */
+    static final int MAX_READ = 1 << 16;
+    /**
+     * characters shown of a line at most
+     */
+    static final int WIDTH = 160;
+
+    @CommandLine.Option(names = { "-C",
+            "--context" }, defaultValue = "2", description = "lines to show "
+                    + "before and after an error (default: ${DEFAULT-VALUE})")
+    private int context;
+    @CommandLine.Option(names = {
+            "--max-occurrences" }, defaultValue = "1", description = "how "
+                    + "many occurrences of every error to show per file, 0 "
+                    + "for all (default: ${DEFAULT-VALUE})")
+    private int maxOccurrences;
+    @CommandLine.Option(names = {
+            "--file" }, description = "only show the errors of this file, "
+                    + "as named in the report (may be repeated)")
+    private List<String> files = new ArrayList<>();
+    @CommandLine.Option(names = { "-c",
+            "--compression" }, defaultValue = "none", description = "compression "
+                    + "of files whose names do not tell: "
+                    + "${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})")
+    private Compression compression;
+    @CommandLine.Parameters(index = "0", description = "report, as written "
+            + "with -l or --stream-log")
+    private File report;
+
+    @CommandLine.Spec
+    private CommandLine.Model.CommandSpec spec;
+
+    /**
+     * an error at a line
+     */
+    private static class Position {
+        final long offset;
+        final int line;
+        final int col;
+        final String message;
+
+        Position(long offset, int line, int col, String message) {
+            this.offset = offset;
+            this.line = line;
+            this.col = col;
+            this.message = message;
+        }
+    }
+
+    /**
+     * the lines around an error
+     */
+    static class Snippet {
+        /**
+         * how many of the lines come before the line of the error
+         */
+        final int before;
+        final List<byte[]> lines;
+
+        Snippet(int before, List<byte[]> lines) {
+            this.before = before;
+            this.lines = lines;
+        }
+    }
+
+    @Override
+    public Integer call() throws IOException {
+        PrintWriter out = spec.commandLine().getOut();
+        int[] shown = { 0 };
+        MergeCommand.read(report, new ErrorReport() {
+            @Override
+            public void add(String fileName, boolean valid,
+                    Map<String, ErrorInfo> errors) throws IOException {
+                if (!files.isEmpty() && !files.contains(fileName))
+                    return;
+                shown[0] += show(fileName, errors, out);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        out.flush();
+        return shown[0] > 0 ? 0 : 1;
+    }
+
+    /**
+     * @return how many errors were shown
+     */
+    private int show(String fileName, Map<String, ErrorInfo> errors,
+            PrintWriter out) throws IOException {
+        List<Position> positions = new ArrayList<>();
+        int unknown = 0;
+        for (Map.Entry<String, ErrorInfo> error : new TreeMap<>(errors)
+                .entrySet()) {
+            ErrorInfo info = error.getValue();
+            int n = maxOccurrences > 0
+                    ? Math.min(maxOccurrences, info.size())
+                    : info.size();
+            for (int i = 0; i < n; i++) {
+                if (info.getOffset(i) < 0)
+                    unknown++;
+                else
+                    positions.add(new Position(info.getOffset(i),
+                            info.getLine(i), info.getCol(i), error.getKey()));
+            }
+        }
+        if (unknown > 0)
+            logger.warn("{}: {} errors without offset (validate with "
+                    + "--offsets)", fileName, unknown);
+        if (positions.isEmpty())
+            return 0;
+        File file = new File(fileName);
+        if (ValidationTask.STDIN.equals(fileName) || !file.isFile()) {
+            logger.warn("{}: not a file, errors not shown", fileName);
+            return 0;
+        }
+        // in the order of the file, for gzip and bzip2
+        positions.sort(Comparator.comparingLong((Position p) -> p.offset)
+                .thenComparingInt(p -> p.col));
+        try (SeekableDocument document = new SeekableDocument(file,
+                Compression.fromFileName(fileName, compression))) {
+            Charset charset = DecodingReader
+                    .charset(document.at(0).readNBytes(512));
+            for (int i = 0; i < positions.size();) {
+                Position first = positions.get(i);
+                for (; i < positions.size()
+                        && positions.get(i).offset == first.offset; i++) {
+                    Position position = positions.get(i);
+                    out.printf("%s:%d:%d: %s%n", fileName, position.line,
+                            position.col, position.message);
+                }
+                print(context(document, first.offset, context), first.line,
+                        first.col, charset, out);
+                out.println();
+            }
+        }
+        return positions.size();
+    }
+
+    /**
+     * @param document
+     *     the document
+     * @param offset
+     *     start of a line
+     * @param context
+     *     lines before and after it
+     * @return up to {@code context} lines before the line, the line, and up
+     *     to {@code context} lines after it, as far as they are within
+     *     {@link #MAX_READ} bytes
+     * @throws IOException
+     *     if the document cannot be read
+     */
+    static Snippet context(SeekableDocument document, long offset,
+            int context) throws IOException {
+        int back = (int) Math.min(offset, MAX_READ);
+        InputStream in = document.at(offset - back);
+        List<byte[]> before = lines(in.readNBytes(back), back < offset);
+        List<byte[]> after = lines(in.readNBytes(MAX_READ), false);
+        int from = Math.max(0, before.size() - context);
+        List<byte[]> lines = new ArrayList<>(
+                before.subList(from, before.size()));
+        lines.addAll(after.subList(0, Math.min(after.size(), context + 1)));
+        return new Snippet(before.size() - from, lines);
+    }
+
+    /**
+     * @param bytes
+     *     some lines, broken by LF, CR LF or CR
+     * @param partial
+     *     whether the first line may have started before the bytes; it is
+     *     left out
+     * @return the lines, without line breaks
+     */
+    static List<byte[]> lines(byte[] bytes, boolean partial) {
+        List<byte[]> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n' && bytes[i] != '\r')
+                continue;
+            lines.add(Arrays.copyOfRange(bytes, start, i));
+            if (bytes[i] == '\r' && i + 1 < bytes.length
+                    && bytes[i + 1] == '\n')
+                i++;
+            start = i + 1;
+        }
+        if (start < bytes.length)
+            lines.add(Arrays.copyOfRange(bytes, start, bytes.length));
+        if (partial && !lines.isEmpty())
+            lines.remove(0);
+        return lines;
+    }
+
+    private static void print(Snippet snippet, int line, int col,
+            Charset charset, PrintWriter out) {
+        int first = line - snippet.before;
+        int width = Integer.toString(first + snippet.lines.size() - 1)
+                .length();
+        for (int i = 0; i < snippet.lines.size(); i++) {
+            int number = first + i;
+            String text = new String(snippet.lines.get(i), charset);
+            // for a long line, show the part around the column
+            int from = number == line && col > WIDTH
+                    ? Math.min(col - WIDTH / 2, text.length())
+                    : 0;
+            int to = Math.min(text.length(), from + WIDTH);
+            out.printf("%s %" + width + "d | %s%s%s%n",
+                    number == line ? ">" : " ", number,
+                    from > 0 ? "..." : "", text.substring(from, to),
+                    to < text.length() ? "..." : "");
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.xerces.impl.io.MalformedByteSequenceException;
+import org.apache.xerces.impl.msg.XMLMessageFormatter;
+import org.apache.xerces.util.EncodingMap;
+import org.xml.sax.InputSource;
+
+/**
+ * decodes XML in UTF-8 or ISO-8859-1, the encodings I5 files declare, in
+ * large blocks, for the parser to read characters instead of bytes
+ * <p>
+ * runs of ASCII are copied in a tight loop, and malformed UTF-8 is reported
+ * with the same messages as by the parser's own decoder. Other encodings,
+ * and UTF-8 with a byte order mark but another declared encoding, are left
+ * to the parser.
+ */
+class DecodingReader extends Reader {
+
+    /**
+     * bytes looked at for the XML declaration
+     */
+    private static final int HEAD = 512;
+    private static final Pattern DECLARATION = Pattern
+            .compile("<\\?xml\\s[^>]*?\\?>");
+    private static final Pattern ENCODING = Pattern
+            .compile("\\sencoding\\s*=\\s*[\"']([A-Za-z][A-Za-z0-9._-]*)[\"']");
+    private static final XMLMessageFormatter FORMATTER = new XMLMessageFormatter();
+
+    private final InputStream in;
+    private final boolean utf8;
+    private final byte[] buffer;
+    /**
+     * bytes not yet decoded are {@code buffer[start]} to
+     * {@code buffer[end - 1]}
+     */
+    private int start;
+    private int end;
+    private boolean eof = false;
+    /**
+     * second half of a surrogate pair that did not fit, or -1
+     */
+    private int lowSurrogate = -1;
+
+    private DecodingReader(InputStream in, boolean utf8, byte[] head,
+            int offset, int bufferSize) {
+        this.in = in;
+        this.utf8 = utf8;
+        buffer = new byte[Math.max(bufferSize, head.length)];
+        end = head.length - offset;
+        System.arraycopy(head, offset, buffer, 0, end);
+    }
+
+    /**
+     * @param in
+     *     the XML input
+     * @param bufferSize
+     *     bytes to decode at a time
+     * @return the input as characters if it is in UTF-8 or ISO-8859-1,
+     *     otherwise as bytes
+     * @throws IOException
+     *     if the input cannot be read
+     */
+    static InputSource inputSource(InputStream in, int bufferSize)
+            throws IOException {
+        byte[] head = in.readNBytes(HEAD);
+        int offset = head.length >= 3 && (head[0] & 0xFF) == 0xEF
+                && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF ? 3 : 0;
+        Boolean utf8 = isUTF8(head, offset);
+        if (utf8 == null)
+            return new InputSource(new SequenceInputStream(
+                    new ByteArrayInputStream(head), in));
+        return new InputSource(
+                new DecodingReader(in, utf8, head, offset, bufferSize));
+    }
+
+    /**
+     * @param head
+     *     start of a document
+     * @return its encoding if it is ISO-8859-1, otherwise UTF-8, as a good
+     *     guess for showing parts of it
+     */
+    static Charset charset(byte[] head) {
+        return Boolean.FALSE.equals(isUTF8(head, 0))
+                ? StandardCharsets.ISO_8859_1
+                : StandardCharsets.UTF_8;
+    }
+
+    /**
+     * @param head
+     *     start of the input
+     * @param offset
+     *     length of the UTF-8 byte order mark, or 0
+     * @return whether the input is in UTF-8 ({@code false}: ISO-8859-1), or
+     *     {@code null} if it is in neither or cannot be told
+     */
+    private static Boolean isUTF8(byte[] head, int offset) {
+        if (head.length <= offset)
+            return null;
+        String start = new String(head, offset, head.length - offset,
+                StandardCharsets.ISO_8859_1);
+        Matcher declaration = DECLARATION.matcher(start);
+        if (!declaration.lookingAt()) {
+            // no declaration: UTF-8, unless it looks like UTF-16 or EBCDIC
+            if (start.startsWith("<?xml") || start.charAt(0) != '<'
+                    || start.length() > 1 && start.charAt(1) == 0)
+                return null;
+            return true;
+        }
+        Matcher encoding = ENCODING.matcher(declaration.group());
+        if (!encoding.find())
+            return true;
+        String name = encoding.group(1).toUpperCase(Locale.ENGLISH);
+        if (name.equals("UTF-8"))
+            return true;
+        if (offset == 0 && "ISO8859_1"
+                .equals(EncodingMap.getIANA2JavaMapping(name)))
+            return false;
+        return null;
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        int out = offset;
+        int limit = offset + length;
+        if (lowSurrogate >= 0) {
+            chars[out++] = (char) lowSurrogate;
+            lowSurrogate = -1;
+        }
+        if (start == end && out == offset && !fill())
+            return -1;
+        if (!utf8) {
+            int n = Math.min(limit - out, end - start);
+            for (int i = 0; i < n; i++)
+                chars[out + i] = (char) (buffer[start + i] & 0xFF);
+            start += n;
+            return out + n - offset;
+        }
+        while (out < limit) {
+            // runs of ASCII
+            int n = Math.min(limit - out, end - start);
+            int i = 0;
+            while (i < n && buffer[start + i] >= 0) {
+                chars[out + i] = (char) buffer[start + i];
+                i++;
+            }
+            start += i;
+            out += i;
+            if (out == limit || start == end && (out > offset || !fill()))
+                break;
+            if (buffer[start] >= 0)
+                continue;
+            int c = decode(out > offset);
+            if (c < 0)
+                break;
+            chars[out++] = (char) c;
+            if (lowSurrogate >= 0 && out < limit) {
+                chars[out++] = (char) lowSurrogate;
+                lowSurrogate = -1;
+            }
+        }
+        return out > offset ? out - offset : -1;
+    }
+
+    /**
+     * decode the multi-byte sequence at {@link #start}
+     *
+     * @param partial
+     *     whether characters have been decoded already; then errors and
+     *     waiting for more input are left to the next read
+     * @return the character, or -1 to end this read; of a surrogate pair,
+     *     the high surrogate, with the low one left in {@link #lowSurrogate}
+     * @throws IOException
+     *     if the sequence is malformed, or the input cannot be read
+     */
+    private int decode(boolean partial) throws IOException {
+        int b0 = buffer[start] & 0xFF;
+        int count;
+        if ((b0 & 0xE0) == 0xC0 && (b0 & 0x1E) != 0)
+            count = 2;
+        else if ((b0 & 0xF0) == 0xE0)
+            count = 3;
+        else if ((b0 & 0xF8) == 0xF0)
+            count = 4;
+        else
+            return partial ? -1 : malformed("InvalidByte", 1, 1);
+        // the whole sequence, or as much as there is
+        while (end - start < count && !eof) {
+            if (partial)
+                return -1;
+            fill();
+        }
+        int b1 = byteAt(1, count, partial);
+        if (b1 < 0)
+            return -1;
+        if ((b1 & 0xC0) != 0x80
+                || count == 3 && (b0 == 0xED && b1 >= 0xA0
+                        || (b0 & 0x0F) == 0 && (b1 & 0x20) == 0)
+                || count == 4 && (b1 & 0x30) == 0 && (b0 & 0x07) == 0)
+            return partial ? -1 : malformed("InvalidByte", 2, count);
+        if (count == 2) {
+            start += 2;
+            return (b0 & 0x1F) << 6 | b1 & 0x3F;
+        }
+        int b2 = byteAt(2, count, partial);
+        if (b2 < 0)
+            return -1;
+        if ((b2 & 0xC0) != 0x80)
+            return partial ? -1 : malformed("InvalidByte", 3, count);
+        if (count == 3) {
+            start += 3;
+            return (b0 & 0x0F) << 12 | (b1 & 0x3F) << 6 | b2 & 0x3F;
+        }
+        int b3 = byteAt(3, count, partial);
+        if (b3 < 0)
+            return -1;
+        if ((b3 & 0xC0) != 0x80)
+            return partial ? -1 : malformed("InvalidByte", 4, 4);
+        int uuuuu = (b0 << 2) & 0x1C | (b1 >> 4) & 0x03;
+        if (uuuuu > 0x10) {
+            if (partial)
+                return -1;
+            throw new MalformedByteSequenceException(FORMATTER,
+                    Locale.getDefault(), XMLMessageFormatter.XML_DOMAIN,
+                    "InvalidHighSurrogate",
+                    new Object[] { Integer.toHexString(uuuuu) });
+        }
+        start += 4;
+        lowSurrogate = 0xDC00 | (b2 << 6) & 0x03C0 | b3 & 0x3F;
+        return 0xD800 | ((uuuuu - 1) << 6) & 0x03C0 | (b1 & 0x0F) << 2
+                | (b2 & 0x3F) >> 4;
+    }
+
+    /**
+     * @return byte {@code index} of the sequence at {@link #start}, or -1 to
+     *     end this read
+     * @throws IOException
+     *     if the input ends before it
+     */
+    private int byteAt(int index, int count, boolean partial)
+            throws IOException {
+        if (start + index < end)
+            return buffer[start + index] & 0xFF;
+        return partial ? -1 : malformed("ExpectedByte", index + 1, count);
+    }
+
+    private static int malformed(String key, int position, int count)
+            throws MalformedByteSequenceException {
+        throw new MalformedByteSequenceException(FORMATTER,
+                Locale.getDefault(), XMLMessageFormatter.XML_DOMAIN, key,
+                new Object[] { Integer.toString(position),
+                        Integer.toString(count) });
+    }
+
+    /**
+     * move the bytes not yet decoded to the front and read more after them
+     *
+     * @return whether there are bytes to decode
+     */
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (!eof && end < buffer.length) {
+            int n = in.read(buffer, end, buffer.length - end);
+            if (n < 0)
+                eof = true;
+            else
+                end += n;
+        }
+        return end > start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,460 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+
+/**
+ * opens (possibly compressed) input files, and documents read into memory
+ * <p>
+ * with at least one decompression thread, decompression runs on a thread of
+ * its own and feeds the parser through a {@link PipelinedInputStream}. With
+ * more threads, the blocks of multi-block xz and bzip2 files are
+ * decompressed in parallel. Uncompressed files may be memory-mapped (see
+ * {@link MappedInputStream}).
+ * <p>
+ * decompressed xz blocks are held in memory from when they are decoded until
+ * the parser has read them. All files together hold at most
+ * {@link #MAX_DECODED} bytes of them; a file's next block waits for memory
+ * once its earlier blocks are handed to the parser. bzip2 blocks are at
+ * most 900 kB before decompression, so the memory needed for them is
+ * bounded by the number of threads.
+ */
+class Decompressor implements AutoCloseable {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(Decompressor.class.getSimpleName());
+
+    /**
+     * buffers of the sequential pipeline
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BUFFERS = 8;
+    /**
+     * decompressed xz blocks held in memory at a time, by default; larger
+     * blocks are not decompressed in parallel
+     */
+    static final long MAX_DECODED = 512L << 20;
+    /**
+     * how many times a bzip2 block that fails to decompress is joined with
+     * its successor (see {@link BZip2BlockSplitter})
+     */
+    private static final int MAX_JOINS = 3;
+    /**
+     * smaller uncompressed files are read rather than mapped
+     */
+    static final long MIN_MAPPED = 1 << 20;
+
+    private final int threads;
+    private final boolean mapFiles;
+    private final ExecutorService blockDecoders;
+    private final long maxDecoded;
+    /**
+     * memory left for decompressed xz blocks, in KiB
+     */
+    private final Semaphore decoded;
+
+    /**
+     * @param threads
+     *     0: decompress on the reading thread; 1: decompress on a background
+     *     thread; more: decompress blocks in parallel where possible
+     */
+    Decompressor(int threads) {
+        this(threads, false);
+    }
+
+    /**
+     * @param threads
+     *     0: decompress on the reading thread; 1: decompress on a background
+     *     thread; more: decompress blocks in parallel where possible
+     * @param mapFiles
+     *     whether to memory-map uncompressed files of at least
+     *     {@link #MIN_MAPPED} bytes
+     */
+    Decompressor(int threads, boolean mapFiles) {
+        this(threads, mapFiles, MAX_DECODED);
+    }
+
+    /**
+     * @param threads
+     *     0: decompress on the reading thread; 1: decompress on a background
+     *     thread; more: decompress blocks in parallel where possible
+     * @param mapFiles
+     *     whether to memory-map uncompressed files of at least
+     *     {@link #MIN_MAPPED} bytes
+     * @param maxDecoded
+     *     bytes of decompressed xz blocks to hold in memory at a time
+     */
+    Decompressor(int threads, boolean mapFiles, long maxDecoded) {
+        this.threads = threads;
+        this.mapFiles = mapFiles;
+        this.maxDecoded = maxDecoded;
+        decoded = new Semaphore(kiB(maxDecoded));
+        if (threads > 1) {
+            AtomicInteger number = new AtomicInteger();
+            blockDecoders = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r,
+                        "decompressor-" + number.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            blockDecoders = null;
+        }
+    }
+
+    /**
+     * @param file
+     *     the file
+     * @param compression
+     *     its compression
+     * @return the decompressed content of the file
+     * @throws IOException
+     *     if the file cannot be opened
+     */
+    InputStream open(File file, Compression compression) throws IOException {
+        if (compression == Compression.none)
+            return ValidationMetrics.stored(
+                    mapFiles && file.length() >= MIN_MAPPED
+                            ? new MappedInputStream(file)
+                            : new FileInputStream(file));
+        return open("decompress-" + file.getName(), new Data() {
+            @Override
+            public InputStream stream() throws IOException {
+                return new FileInputStream(file);
+            }
+
+            @Override
+            public SeekableInputStream seekable() throws IOException {
+                return new SeekableFileInputStream(file);
+            }
+        }, compression);
+    }
+
+    /**
+     * @param name
+     *     name of the document, for the decompression threads
+     * @param data
+     *     the document, in memory, e.g. read ahead (see
+     *     {@link Prefetcher})
+     * @param compression
+     *     its compression
+     * @return the decompressed document, decompressed as a file would be
+     * @throws IOException
+     *     if the data is not in the expected format
+     */
+    InputStream open(String name, byte[] data, Compression compression)
+            throws IOException {
+        if (compression == Compression.none)
+            return ValidationMetrics.stored(new ByteArrayInputStream(data));
+        return open("decompress-" + name, new Data() {
+            @Override
+            public InputStream stream() {
+                return new ByteArrayInputStream(data);
+            }
+
+            @Override
+            public SeekableInputStream seekable() {
+                return new SeekableByteArrayInputStream(data);
+            }
+        }, compression);
+    }
+
+    /**
+     * compressed data, in a file or in memory
+     */
+    private interface Data {
+        /**
+         * @return the data from the start
+         * @throws IOException
+         *     if it cannot be opened
+         */
+        InputStream stream() throws IOException;
+
+        /**
+         * @return the data, for random access to xz blocks
+         * @throws IOException
+         *     if it cannot be opened
+         */
+        SeekableInputStream seekable() throws IOException;
+    }
+
+    private InputStream open(String name, Data data, Compression compression)
+            throws IOException {
+        if (threads > 1) {
+            switch (compression) {
+            case xz:
+                InputStream parallel = openParallelXZ(name, data);
+                if (parallel != null)
+                    return parallel;
+                break;
+            case bzip2:
+                return openParallelBZip2(name, data);
+            default:
+                break;
+            }
+        }
+        InputStream decompressed = decompress(
+                ValidationMetrics.stored(data.stream()), compression);
+        if (threads == 0)
+            return decompressed;
+        return PipelinedInputStream.of(name, decompressed, BUFFERS,
+                BUFFER_SIZE);
+    }
+
+    /**
+     * @param in
+     *     compressed data
+     * @param compression
+     *     the compression
+     * @return decompressed data; concatenated streams are decompressed
+     *     completely
+     * @throws IOException
+     *     if the data is not in the expected format
+     */
+    static InputStream decompress(InputStream in, Compression compression)
+            throws IOException {
+        try {
+            switch (compression) {
+            case xz:
+                return new XZCompressorInputStream(in, true);
+            case bzip2:
+                return new BZip2CompressorInputStream(in, true);
+            case gzip:
+                return new GZIPInputStream(in);
+            case none:  // i.e.
+            default:
+                return in;
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * decompress the blocks of an xz file in parallel
+     *
+     * @return the stream, or {@code null} if the file has only one block
+     *     or very large ones
+     */
+    private InputStream openParallelXZ(String name, Data data)
+            throws IOException {
+        long[] blockSizes;
+        try (SeekableXZInputStream index = new SeekableXZInputStream(
+                data.seekable())) {
+            blockSizes = new long[index.getBlockCount()];
+            for (int i = 0; i < blockSizes.length; i++)
+                blockSizes[i] = index.getBlockSize(i);
+        }
+        if (blockSizes.length < 2
+                || Arrays.stream(blockSizes).max().getAsLong() > maxDecoded)
+            return null;
+        logger.debug("{}: decompressing {} xz blocks in parallel", name,
+                blockSizes.length);
+        return new PipelinedInputStream(name, null, threads + 1, BUFFER_SIZE,
+                pipe -> {
+                    Deque<Future<byte[]>> window = new ArrayDeque<>();
+                    // memory taken by the blocks in the window, in KiB
+                    Deque<Integer> taken = new ArrayDeque<>();
+                    try {
+                        for (int i = 0; i < blockSizes.length; i++) {
+                            final int block = i;
+                            int size = kiB(blockSizes[i]);
+                            // hand blocks on rather than wait for memory
+                            // while holding them: the parser frees it
+                            while (!decoded.tryAcquire(size)) {
+                                if (window.isEmpty()) {
+                                    decoded.acquire(size);
+                                    break;
+                                }
+                                putXZBlock(pipe, window, taken);
+                            }
+                            taken.add(size);
+                            window.add(blockDecoders
+                                    .submit(() -> decodeXZBlock(data, block)));
+                            if (window.size() > threads)
+                                putXZBlock(pipe, window, taken);
+                        }
+                        while (!window.isEmpty())
+                            putXZBlock(pipe, window, taken);
+                    } finally {
+                        window.forEach(f -> f.cancel(true));
+                        taken.forEach(decoded::release);
+                    }
+                });
+    }
+
+    /**
+     * hand the oldest block in the window to the parser, which frees its
+     * memory once it has read it
+     */
+    private void putXZBlock(PipelinedInputStream pipe,
+            Deque<Future<byte[]>> window, Deque<Integer> taken)
+            throws IOException, InterruptedException {
+        byte[] block = result(window.removeFirst());
+        int size = taken.removeFirst();
+        pipe.put(block, () -> decoded.release(size));
+    }
+
+    private static int kiB(long bytes) {
+        return (int) ((bytes + 1023) >> 10);
+    }
+
+    private static byte[] decodeXZBlock(Data data, int block)
+            throws IOException {
+        try (SeekableXZInputStream in = new SeekableXZInputStream(
+                data.seekable())) {
+            in.seekToBlock(block);
+            return in.readNBytes((int) in.getBlockSize(block));
+        }
+    }
+
+    /**
+     * decompress the blocks of a bzip2 file in parallel
+     */
+    private InputStream openParallelBZip2(String name, Data data)
+            throws IOException {
+        InputStream in = new BufferedInputStream(data.stream());
+        BZip2BlockSplitter splitter = new BZip2BlockSplitter(in);
+        return new PipelinedInputStream(name, in, threads + 1, BUFFER_SIZE,
+                pipe -> {
+                    Deque<BZip2BlockSplitter.Block> blocks = new ArrayDeque<>();
+                    Deque<Future<byte[]>> window = new ArrayDeque<>();
+                    try (in) {
+                        while (true) {
+                            BZip2BlockSplitter.Block block = splitter.next();
+                            if (block == null)
+                                break;
+                            blocks.add(block);
+                            window.add(blockDecoders.submit(block::decompress));
+                            if (window.size() > threads)
+                                pipe.put(bzip2Result(blocks, window, splitter));
+                        }
+                        while (!window.isEmpty())
+                            pipe.put(bzip2Result(blocks, window, splitter));
+                    } finally {
+                        window.forEach(f -> f.cancel(true));
+                    }
+                });
+    }
+
+    /**
+     * the oldest block's content; a block that fails to decompress is
+     * joined with its successors, since the block boundary may have been a
+     * false one
+     */
+    private static byte[] bzip2Result(Deque<BZip2BlockSplitter.Block> blocks,
+            Deque<Future<byte[]>> window, BZip2BlockSplitter splitter)
+            throws IOException, InterruptedException {
+        BZip2BlockSplitter.Block block = blocks.removeFirst();
+        try {
+            return result(window.removeFirst());
+        } catch (IOException e) {
+            for (int joins = 0; joins < MAX_JOINS; joins++) {
+                BZip2BlockSplitter.Block next;
+                if (!blocks.isEmpty()) {
+                    next = blocks.removeFirst();
+                    window.removeFirst().cancel(true);
+                } else {
+                    next = splitter.next();
+                }
+                if (next == null)
+                    break;
+                block = block.join(next);
+                try {
+                    return block.decompress();
+                } catch (IOException ignored) {
+                    // try joining one more
+                }
+            }
+            throw e;
+        }
+    }
+
+    private static byte[] result(Future<byte[]> future)
+            throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (blockDecoders != null)
+            blockDecoders.shutdownNow();
+    }
+
+    /**
+     * data in memory, for {@link SeekableXZInputStream}
+     */
+    private static class SeekableByteArrayInputStream
+            extends SeekableInputStream {
+
+        private final byte[] data;
+        private int position = 0;
+
+        SeekableByteArrayInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (position >= data.length)
+                return -1;
+            int n = Math.min(len, data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            if (pos < 0)
+                throw new IOException("negative position: " + pos);
+            position = (int) Math.min(pos, data.length);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.util.Locale;
+
+import org.apache.xerces.impl.XMLErrorReporter;
+import org.apache.xerces.impl.msg.XMLMessageFormatter;
+import org.apache.xerces.impl.xs.XSMessageFormatter;
+import org.apache.xerces.util.MessageFormatter;
+
+/**
+ * a Xerces message formatter that does not format
+ * <p>
+ * Xerces formats the text of every error before it passes it on. This
+ * formatter only notes message key and arguments, which the error handler
+ * picks up with {@link #take(String, String)}; the text is formatted by
+ * {@link ErrorKey} when it is needed, i.e. once per distinct error.
+ */
+class DeferredMessageFormatter implements MessageFormatter {
+
+    static final String ERROR_REPORTER = "http://apache.org/xml/properties"
+            + "/internal/error-reporter";
+    static final String ERROR_HANDLER = "http://apache.org/xml/properties"
+            + "/internal/error-handler";
+
+    private final MessageFormatter formatter;
+    private String pendingKey;
+    private Object[] pendingArguments;
+    private Locale pendingLocale;
+
+    private DeferredMessageFormatter(MessageFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    /**
+     * replace the message formatters for XML, namespace and schema errors
+     * of an error reporter; formatters already replaced are kept
+     *
+     * @param reporter
+     *     the parser's error reporter
+     */
+    static void install(XMLErrorReporter reporter) {
+        install(reporter, XMLMessageFormatter.XML_DOMAIN,
+                new XMLMessageFormatter());
+        install(reporter, XMLMessageFormatter.XMLNS_DOMAIN,
+                new XMLMessageFormatter());
+        install(reporter, XSMessageFormatter.SCHEMA_DOMAIN,
+                new XSMessageFormatter());
+    }
+
+    private static void install(XMLErrorReporter reporter, String domain,
+            MessageFormatter fallback) {
+        MessageFormatter current = reporter.getMessageFormatter(domain);
+        if (current instanceof DeferredMessageFormatter)
+            return;
+        reporter.putMessageFormatter(domain, new DeferredMessageFormatter(
+                current != null ? current : fallback));
+    }
+
+    /**
+     * @return the key only; the arguments are kept for
+     *     {@link #take(String, String)}
+     */
+    @Override
+    public String formatMessage(Locale locale, String key,
+            Object[] arguments) {
+        pendingKey = key;
+        pendingArguments = arguments;
+        pendingLocale = locale;
+        return key;
+    }
+
+    /**
+     * @param reporters
+     *     the error reporters involved in parsing
+     * @param domain
+     *     the domain of the error just reported
+     * @param severity
+     *     its severity
+     * @param key
+     *     its message key
+     * @param message
+     *     its message, used if nothing was deferred
+     * @return the structured error
+     */
+    static ErrorKey take(Iterable<XMLErrorReporter> reporters, String domain,
+            String severity, String key, String message) {
+        for (XMLErrorReporter reporter : reporters) {
+            MessageFormatter formatter = reporter.getMessageFormatter(domain);
+            if (formatter instanceof DeferredMessageFormatter) {
+                ErrorKey error = ((DeferredMessageFormatter) formatter)
+                        .take(severity, key);
+                if (error != null)
+                    return error;
+            }
+        }
+        return new ErrorKey(severity, key, message);
+    }
+
+    /**
+     * @return the error reported last, if its key matches
+     */
+    private ErrorKey take(String severity, String key) {
+        if (pendingKey == null || !pendingKey.equals(key))
+            return null;
+        ErrorKey error = new ErrorKey(severity, key, pendingArguments,
+                formatter, pendingLocale);
+        pendingKey = null;
+        pendingArguments = null;
+        return error;
+    }
+}
@@ -0,0 +1,559 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * splits a document into fragments at top-level elements (the children of
+ * the root element), so that they can be validated in parallel
+ * <p>
+ * everything before the first split element – XML declaration, DOCTYPE,
+ * root start tag and, in I5, the corpus header – is the prefix. Every
+ * fragment is validated as a document of its own: the prefix, the fragment,
+ * and the root end tag. Positions in such a document are mapped back to
+ * positions in the original with {@link Fragment#map(int, int)}.
+ * <p>
+ * the document is only scanned for markup, not parsed; anything the scanner
+ * does not understand (encodings other than UTF-8 and single-byte ones, no
+ * split elements before {@link #MAX_PREFIX}) makes it give up, and the
+ * document has to be validated as a whole.
+ */
+class DocumentSplitter {
+
+    /**
+     * the top-level elements of I5 documents
+     */
+    static final Set<String> I5_ELEMENTS = Set.of("idsDoc", "idsText");
+
+    /**
+     * give up if the prefix gets longer than this
+     */
+    static final int MAX_PREFIX = 64 << 20;
+
+    private static final byte LT = '<';
+    private static final byte GT = '>';
+    private static final byte QUOTE = '"';
+    private static final byte APOSTROPHE = '\'';
+
+    private static final Pattern ENCODING = Pattern
+            .compile("^<\\?xml[^>]*?encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    /**
+     * a part of the document, starting with a split element
+     */
+    static class Fragment {
+        /**
+         * number of the fragment, from 0
+         */
+        final int index;
+        final byte[] data;
+        /**
+         * position (line and column) of the fragment's first character in
+         * the original and in the document the fragment is validated as
+         */
+        final int line;
+        final int column;
+        private final int prefixLine;
+        private final int prefixColumn;
+        /**
+         * position after the fragment in the original
+         */
+        int endLine;
+        int endColumn;
+        /**
+         * whether the fragment ends with the end of the original
+         */
+        boolean last;
+        private final byte[] closing;
+
+        Fragment(int index, byte[] data, int line, int column,
+                int prefixLine, int prefixColumn, byte[] closing) {
+            this.index = index;
+            this.data = data;
+            this.line = line;
+            this.column = column;
+            this.prefixLine = prefixLine;
+            this.prefixColumn = prefixColumn;
+            this.closing = closing;
+        }
+
+        /**
+         * @param prefix
+         *     the document's prefix
+         * @return the fragment as a document of its own
+         */
+        InputStream open(byte[] prefix) {
+            InputStream document = new SequenceInputStream(
+                    new ByteArrayInputStream(prefix),
+                    new ByteArrayInputStream(data));
+            return last ? document
+                    : new SequenceInputStream(document,
+                            new ByteArrayInputStream(closing));
+        }
+
+        /**
+         * @param line
+         *     a line in the fragment's document
+         * @param column
+         *     a column there
+         * @return whether the position is in the prefix
+         */
+        boolean inPrefix(int line, int column) {
+            return line < prefixLine
+                    || (line == prefixLine && column < prefixColumn);
+        }
+
+        /**
+         * @param line
+         *     a line in the fragment's document
+         * @param column
+         *     a column there
+         * @return the position in the original, as line &lt;&lt; 32 |
+         *     column, or -1 if it is in the prefix of a fragment other than
+         *     the first one (the first one reports on the prefix);
+         *     positions in the added root end tag are moved to the end of
+         *     the fragment
+         */
+        long map(int line, int column) {
+            if (line <= 0)
+                return ((long) Math.max(line, 0) << 32) | Math.max(column, 0);
+            if (index > 0 && inPrefix(line, column))
+                return -1;
+            long mappedLine;
+            long mappedColumn;
+            if (line == prefixLine) {
+                mappedLine = this.line;
+                mappedColumn = column - prefixColumn + this.column;
+            } else {
+                mappedLine = line - prefixLine + this.line;
+                mappedColumn = column;
+            }
+            if (!last && (mappedLine > endLine
+                    || (mappedLine == endLine && mappedColumn > endColumn))) {
+                mappedLine = endLine;
+                mappedColumn = endColumn;
+            }
+            return (mappedLine << 32) | mappedColumn;
+        }
+    }
+
+    private final InputStream in;
+    private final Set<String> splitElements;
+    private final int fragmentSize;
+
+    private byte[] buffer = new byte[1 << 16];
+    private int length = 0;
+    /**
+     * scan position and start of the current fragment in {@link #buffer}
+     */
+    private int position = 0;
+    private int start = 0;
+    private boolean eof = false;
+
+    /**
+     * line and column of {@link #position}, as the parser counts them
+     */
+    private int line = 1;
+    private int column = 1;
+    /**
+     * line and column of the split element found last
+     */
+    private int boundaryLine;
+    private int boundaryColumn;
+    /**
+     * line and column after the root end tag, where the parser ends the
+     * document
+     */
+    private int endLine = -1;
+    private int endColumn;
+    private boolean afterCR = false;
+    private boolean utf8 = true;
+
+    private int depth = 0;
+    private byte[] prefix = null;
+    private byte[] closing = null;
+    private int prefixLine;
+    private int prefixColumn;
+    private int fragments = 0;
+    private Fragment pending = null;
+
+    /**
+     * @param in
+     *     the document
+     * @param splitElements
+     *     names of the top-level elements to split at
+     * @param fragmentSize
+     *     minimum size of a fragment in bytes; consecutive elements are
+     *     put into one fragment until it has this size
+     */
+    DocumentSplitter(InputStream in, Set<String> splitElements,
+            int fragmentSize) {
+        this.in = in;
+        this.splitElements = splitElements;
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * read the prefix, up to the first split element
+     *
+     * @return whether the document can be split
+     * @throws IOException
+     *     if the document cannot be read
+     */
+    boolean split() throws IOException {
+        fill(1024);
+        if (!knownEncoding())
+            return false;
+        int boundary = nextBoundary(MAX_PREFIX);
+        if (boundary < 0)
+            return false;
+        prefix = Arrays.copyOfRange(buffer, 0, boundary);
+        prefixLine = boundaryLine;
+        prefixColumn = boundaryColumn;
+        start = boundary;
+        return true;
+    }
+
+    /**
+     * @return the prefix, after {@link #split()}
+     */
+    byte[] getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return all data read so far and the rest of the document, to
+     *     validate it as a whole when it cannot be split
+     */
+    InputStream remainder() {
+        return new SequenceInputStream(
+                new ByteArrayInputStream(buffer, 0, length), in);
+    }
+
+    /**
+     * @return the line and column after the root element, or the end of
+     *     the document, once all fragments have been read
+     */
+    long getEnd() {
+        if (endLine < 0)
+            return ((long) line << 32) | column;
+        return ((long) endLine << 32) | endColumn;
+    }
+
+    /**
+     * @return the next fragment, or {@code null} at the end
+     * @throws IOException
+     *     if the document cannot be read
+     */
+    Fragment next() throws IOException {
+        if (pending == null) {
+            if (fragments > 0)
+                return null;
+            pending = new Fragment(fragments++, null, prefixLine,
+                    prefixColumn, prefixLine, prefixColumn, closing);
+        }
+        Fragment current = pending;
+        int boundary;
+        do {
+            boundary = nextBoundary(Integer.MAX_VALUE);
+        } while (boundary >= 0 && boundary - start < fragmentSize);
+        Fragment fragment;
+        if (boundary < 0) {
+            fragment = withData(current, length);
+            fragment.last = true;
+            fragment.endLine = line;
+            fragment.endColumn = column;
+            pending = null;
+        } else {
+            fragment = withData(current, boundary);
+            fragment.endLine = boundaryLine;
+            fragment.endColumn = boundaryColumn;
+            pending = new Fragment(fragments++, null, boundaryLine,
+                    boundaryColumn, prefixLine, prefixColumn, closing);
+        }
+        compact(boundary < 0 ? length : boundary);
+        return fragment;
+    }
+
+    private Fragment withData(Fragment fragment, int end) {
+        return new Fragment(fragment.index,
+                Arrays.copyOfRange(buffer, start, end), fragment.line,
+                fragment.column, prefixLine, prefixColumn, closing);
+    }
+
+    /**
+     * drop the data before {@code end}, which starts the next fragment
+     */
+    private void compact(int end) {
+        System.arraycopy(buffer, end, buffer, 0, length - end);
+        length -= end;
+        position -= end;
+        start = 0;
+    }
+
+    /**
+     * @return whether columns can be counted
+     */
+    private boolean knownEncoding() {
+        if (length >= 2 && ((buffer[0] == (byte) 0xfe
+                && buffer[1] == (byte) 0xff)
+                || (buffer[0] == (byte) 0xff && buffer[1] == (byte) 0xfe)
+                || buffer[0] == 0 || buffer[1] == 0))
+            return false;
+        if (length >= 3 && buffer[0] == (byte) 0xef
+                && buffer[1] == (byte) 0xbb && buffer[2] == (byte) 0xbf) {
+            // the parser does not count the byte order mark
+            position = 3;
+        }
+        Matcher matcher = ENCODING.matcher(new String(buffer, position,
+                Math.min(length - position, 200),
+                StandardCharsets.ISO_8859_1));
+        if (!matcher.find())
+            return true;
+        String encoding = matcher.group(1).toUpperCase(Locale.ROOT);
+        if (encoding.equals("UTF-8") || encoding.equals("UTF8")
+                || encoding.equals("US-ASCII") || encoding.equals("ASCII"))
+            return true;
+        if (encoding.startsWith("ISO-8859-")
+                || encoding.startsWith("WINDOWS-125")
+                || encoding.equals("LATIN1")) {
+            utf8 = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * make sure that {@code count} bytes from {@link #position} are in the
+     * buffer, if the document has them
+     *
+     * @return whether they are
+     */
+    private boolean fill(int count) throws IOException {
+        while (length - position < count) {
+            if (eof)
+                return false;
+            if (length == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            int n = in.read(buffer, length, buffer.length - length);
+            if (n < 0)
+                eof = true;
+            else
+                length += n;
+        }
+        return true;
+    }
+
+    /**
+     * move {@link #position} to {@code to}, counting lines and columns
+     */
+    private void advance(int to) {
+        int line = this.line;
+        int column = this.column;
+        boolean afterCR = this.afterCR;
+        for (int i = position; i < to; i++) {
+            byte b = buffer[i];
+            if (b >= ' ') {
+                column++;
+                afterCR = false;
+            } else if (b < 0) {
+                afterCR = false;
+                if (!utf8 || b >= (byte) 0xc0 && b < (byte) 0xf0)
+                    column++;
+                else if (b >= (byte) 0xf0)
+                    // a surrogate pair
+                    column += 2;
+            } else if (b == '\n') {
+                if (!afterCR) {
+                    line++;
+                    column = 1;
+                }
+                afterCR = false;
+            } else if (b == '\r') {
+                line++;
+                column = 1;
+                afterCR = true;
+            } else {
+                column++;
+                afterCR = false;
+            }
+        }
+        position = to;
+        this.line = line;
+        this.column = column;
+        this.afterCR = afterCR;
+    }
+
+    /**
+     * @return the next offset of one of the given bytes in {@link #buffer},
+     *     from {@link #position} on, or -1 if there is none
+     */
+    private int find(byte a, byte b, byte c) throws IOException {
+        int i = position;
+        while (true) {
+            byte[] buffer = this.buffer;
+            for (int end = length; i < end; i++) {
+                byte x = buffer[i];
+                if (x == a || x == b || x == c)
+                    return i;
+            }
+            int offset = i - position;
+            if (!fill(offset + 1))
+                return -1;
+            i = position + offset;
+        }
+    }
+
+    /**
+     * move past the next one of the given bytes, or to the end
+     *
+     * @return the byte before it, or -1 at the end
+     */
+    private int skipTo(byte a, byte b, byte c) throws IOException {
+        int i = find(a, b, c);
+        if (i < 0) {
+            advance(length);
+            return -1;
+        }
+        advance(i + 1);
+        return i > 0 ? buffer[i - 1] : 0;
+    }
+
+    /**
+     * @return the byte at {@link #position}, counting lines and columns,
+     *     or -1 at the end
+     */
+    private int read() throws IOException {
+        if (!fill(1))
+            return -1;
+        int b = buffer[position] & 0xff;
+        advance(position + 1);
+        return b;
+    }
+
+    private boolean lookingAt(String s) throws IOException {
+        if (!fill(s.length()))
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer[position + i] != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * skip past the next occurrence of {@code end}
+     */
+    private void skipPast(String end) throws IOException {
+        while (!lookingAt(end)) {
+            if (read() < 0)
+                return;
+        }
+        for (int i = 0; i < end.length(); i++)
+            read();
+    }
+
+    /**
+     * skip a quoted string whose quote has just been read
+     */
+    private void skipQuoted(int quote) throws IOException {
+        skipTo((byte) quote, (byte) quote, (byte) quote);
+    }
+
+    /**
+     * skip a DOCTYPE declaration, with its internal subset
+     */
+    private void skipDoctype() throws IOException {
+        int brackets = 0;
+        while (true) {
+            if (lookingAt("<!--")) {
+                skipPast("-->");
+                continue;
+            }
+            int b = read();
+            if (b < 0 || (b == '>' && brackets == 0))
+                return;
+            if (b == '"' || b == '\'')
+                skipQuoted(b);
+            else if (b == '[')
+                brackets++;
+            else if (b == ']')
+                brackets--;
+        }
+    }
+
+    private static boolean isNameByte(int b) {
+        return b > ' ' && b != '>' && b != '/' && b != '=';
+    }
+
+    /**
+     * scan to the start of the next split element
+     *
+     * @param limit
+     *     give up after this many bytes
+     * @return its offset in {@link #buffer}, or -1 if there is none
+     */
+    private int nextBoundary(int limit) throws IOException {
+        long limitEnd = (long) position + limit;
+        int boundary = -1;
+        while (boundary < 0 && position < limitEnd) {
+            int tagStart = find(LT, LT, LT);
+            if (tagStart < 0) {
+                advance(length);
+                return -1;
+            }
+            advance(tagStart);
+            int tagLine = line;
+            int tagColumn = column;
+            read();
+            if (lookingAt("/")) {
+                depth--;
+                skipTo(GT, GT, GT);
+                if (depth == 0) {
+                    endLine = line;
+                    endColumn = column;
+                }
+            } else if (lookingAt("!--")) {
+                skipPast("-->");
+            } else if (lookingAt("![CDATA[")) {
+                skipPast("]]>");
+            } else if (lookingAt("!DOCTYPE")) {
+                skipDoctype();
+            } else if (lookingAt("?")) {
+                skipPast("?>");
+            } else {
+                int nameStart = position;
+                while (fill(1) && isNameByte(buffer[position] & 0xff))
+                    advance(position + 1);
+                if (depth <= 1) {
+                    String name = new String(buffer, nameStart,
+                            position - nameStart, StandardCharsets.UTF_8);
+                    if (depth == 1 && splitElements.contains(name)) {
+                        boundary = tagStart;
+                        boundaryLine = tagLine;
+                        boundaryColumn = tagColumn;
+                    }
+                    if (depth == 0 && closing == null)
+                        closing = ("</" + name + ">")
+                                .getBytes(StandardCharsets.UTF_8);
+                }
+                // the byte before '>' tells an empty element
+                int previous;
+                while ((previous = skipTo(GT, QUOTE, APOSTROPHE)) >= 0
+                        && buffer[position - 1] != GT)
+                    skipQuoted(buffer[position - 1]);
+                if (previous != '/')
+                    depth++;
+            }
+        }
+        return boundary;
+    }
+}
@@ -2,11 +2,13 @@ package de.mannheim.ids.clarin.xml;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.SerializerProvider;
@@ -18,25 +20,272 @@ import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
 /**
  * info on a validation error: type, occurrences
+ * <p>
+ * positions are kept in packed {@code int} arrays rather than one object
+ * each, and only the first {@link #getMaxOccurrences()} of them are kept;
+ * {@link #getCount()} is always exact. Byte offsets of the lines are only
+ * kept if known (see {@link LineIndex}).
  */
+@JsonSerialize(using = ErrorInfo.ErrorInfoSerializer.class)
+@JsonDeserialize(using = ErrorInfo.ErrorInfoDeserializer.class)
 public class ErrorInfo {
 
-    // public final List<Triple<Integer, Integer, String>> occurrences; //
-    // better serializability; maybe use custom ImmutablePair
-    private final List<Occurrence> occurrences;
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int maxOccurrences;
+    private String code;
+    private String[] arguments;
+    private int[] lines = new int[0];
+    private int[] cols = new int[0];
+    /**
+     * byte offsets of the lines, {@code null} until one is known
+     */
+    private long[] offsets = null;
+    private int size = 0;
+    private long count = 0;
 
     public ErrorInfo() {
-        this.occurrences = new ArrayList<>();
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxOccurrences
+     *     how many positions to keep; later occurrences are only counted
+     */
+    public ErrorInfo(int maxOccurrences) {
+        this.maxOccurrences = maxOccurrences;
+    }
+
+    /**
+     * @param maxOccurrences
+     *     how many positions to keep; later occurrences are only counted
+     * @param code
+     *     the Xerces message key
+     * @param arguments
+     *     the message arguments
+     */
+    public ErrorInfo(int maxOccurrences, String code, String[] arguments) {
+        this(maxOccurrences);
+        this.code = code;
+        this.arguments = arguments;
     }
 
     public void addOccurrence(int line, int col) {
-        this.occurrences.add(new Occurrence(line, col));
+        addOccurrence(line, col, -1);
+    }
+
+    /**
+     * @param line
+     *     the line
+     * @param col
+     *     the column
+     * @param offset
+     *     byte offset of the start of the line in the (decompressed) file,
+     *     or -1 if not known
+     */
+    public void addOccurrence(int line, int col, long offset) {
+        count++;
+        if (size >= maxOccurrences)
+            return;
+        if (size == lines.length) {
+            int capacity = (int) Math.min(maxOccurrences,
+                    Math.max(INITIAL_CAPACITY, 2L * size));
+            lines = Arrays.copyOf(lines, capacity);
+            cols = Arrays.copyOf(cols, capacity);
+            if (offsets != null)
+                offsets = copyOffsets(offsets, capacity);
+        }
+        if (offset >= 0 && offsets == null)
+            offsets = copyOffsets(new long[0], lines.length);
+        lines[size] = line;
+        cols[size] = col;
+        if (offsets != null)
+            offsets[size] = offset;
+        size++;
+    }
+
+    private static long[] copyOffsets(long[] offsets, int capacity) {
+        long[] copy = Arrays.copyOf(offsets, capacity);
+        Arrays.fill(copy, offsets.length, capacity, -1);
+        return copy;
+    }
+
+    /**
+     * add the occurrences of another error, e.g. one with the same message
+     *
+     * @param other
+     *     the other error
+     */
+    public void addAll(ErrorInfo other) {
+        long uncounted = other.count - other.size;
+        for (int i = 0; i < other.size; i++)
+            addOccurrence(other.lines[i], other.cols[i], other.getOffset(i));
+        count += uncounted;
+    }
+
+    /**
+     * @return the Xerces message key, if known
+     */
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * @return the message arguments, if known
+     */
+    public String[] getArguments() {
+        return arguments;
+    }
+
+    /**
+     * @return the number of positions kept
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the total number of occurrences, including those whose
+     *     positions were not kept
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return how many positions are kept at most
+     */
+    public int getMaxOccurrences() {
+        return maxOccurrences;
+    }
+
+    public int getLine(int index) {
+        return lines[index];
+    }
+
+    public int getCol(int index) {
+        return cols[index];
+    }
+
+    /**
+     * @param index
+     *     the occurrence
+     * @return byte offset of the start of its line in the (decompressed)
+     *     file, or -1 if not known
+     */
+    public long getOffset(int index) {
+        return offsets != null ? offsets[index] : -1;
     }
 
+    /**
+     * @return the positions kept, as objects – expensive for many
+     *     occurrences, prefer {@link #getLine(int)} and {@link #getCol(int)}
+     */
     public List<Occurrence> getOccurrences() {
+        List<Occurrence> occurrences = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            occurrences.add(new Occurrence(lines[i], cols[i], getOffset(i)));
         return occurrences;
     }
 
+    /**
+     * write a position; positions not known (0 or less) are left out
+     */
+    private static void writeOccurrence(JsonGenerator jgen, int line, int col,
+            long offset) throws IOException {
+        jgen.writeStartObject();
+        if (line > 0)
+            jgen.writeNumberField("line", line);
+        if (col > 0)
+            jgen.writeNumberField("col", col);
+        if (offset >= 0)
+            jgen.writeNumberField("offset", offset);
+        jgen.writeEndObject();
+    }
+
+    public static class ErrorInfoSerializer extends StdSerializer<ErrorInfo> {
+
+        public ErrorInfoSerializer() {
+            super(ErrorInfo.class);
+        }
+
+        @Override
+        public void serialize(ErrorInfo value, JsonGenerator jgen,
+                SerializerProvider provider) throws IOException {
+            jgen.writeStartObject();
+            if (value.code != null)
+                jgen.writeStringField("code", value.code);
+            if (value.arguments != null) {
+                jgen.writeArrayFieldStart("arguments");
+                for (String argument : value.arguments)
+                    jgen.writeString(argument);
+                jgen.writeEndArray();
+            }
+            jgen.writeArrayFieldStart("occurrences");
+            for (int i = 0; i < value.size; i++)
+                writeOccurrence(jgen, value.lines[i], value.cols[i],
+                        value.getOffset(i));
+            jgen.writeEndArray();
+            jgen.writeNumberField("count", value.count);
+            jgen.writeEndObject();
+        }
+    }
+
+    public static class ErrorInfoDeserializer
+            extends StdDeserializer<ErrorInfo> {
+
+        public ErrorInfoDeserializer() {
+            super(ErrorInfo.class);
+        }
+
+        @Override
+        public ErrorInfo deserialize(JsonParser jp,
+                DeserializationContext ctxt)
+                throws IOException, JsonProcessingException {
+            ErrorInfo info = new ErrorInfo();
+            long count = -1;
+            JsonToken token = jp.currentToken();
+            if (token == JsonToken.START_OBJECT)
+                token = jp.nextToken();
+            for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+                String field = jp.getCurrentName();
+                jp.nextToken();
+                if ("count".equals(field)) {
+                    count = jp.getLongValue();
+                } else if ("code".equals(field)) {
+                    info.code = jp.getText();
+                } else if ("arguments".equals(field)) {
+                    List<String> arguments = new ArrayList<>();
+                    while (jp.nextToken() != JsonToken.END_ARRAY)
+                        arguments.add(jp.getText());
+                    info.arguments = arguments.toArray(new String[0]);
+                } else if ("occurrences".equals(field)) {
+                    while (jp.nextToken() == JsonToken.START_OBJECT) {
+                        int line = 0;
+                        int col = 0;
+                        long offset = -1;
+                        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                            String name = jp.getCurrentName();
+                            jp.nextToken();
+                            if ("line".equals(name))
+                                line = jp.getIntValue();
+                            else if ("col".equals(name))
+                                col = jp.getIntValue();
+                            else if ("offset".equals(name))
+                                offset = jp.getLongValue();
+                        }
+                        info.addOccurrence(line, col, offset);
+                    }
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            if (count >= 0)
+                info.count = count;
+            return info;
+        }
+    }
+
     public static class OccurrenceSerializer extends StdSerializer<Occurrence> {
 
         public OccurrenceSerializer() {
@@ -51,12 +300,7 @@ public class ErrorInfo {
         public void serialize(Occurrence value, JsonGenerator jgen,
                 SerializerProvider provider) throws IOException {
 
-            jgen.writeStartObject();
-            if (value.line > 0)
-                jgen.writeNumberField("line", value.line);
-            if (value.col > 0)
-                jgen.writeNumberField("col", value.col);
-            jgen.writeEndObject();
+            writeOccurrence(jgen, value.line, value.col, value.offset);
         }
     }
 
@@ -78,6 +322,7 @@ public class ErrorInfo {
             JsonNode node = jp.getCodec().readTree(jp);
             JsonNode lineNode = node.get("line");
             JsonNode colNode = node.get("col");
+            JsonNode offsetNode = node.get("offset");
             int col = colNode != null
                     ? (Integer) ((IntNode) colNode).numberValue()
                     : 0;
@@ -85,7 +330,9 @@ public class ErrorInfo {
                     ? (Integer) ((IntNode) lineNode).numberValue()
                     : 0;
 
-            return new Occurrence(line, col);
+            long offset = offsetNode != null ? offsetNode.asLong() : -1;
+
+            return new Occurrence(line, col, offset);
         }
     }
 
@@ -94,13 +341,19 @@ public class ErrorInfo {
     public static class Occurrence {
         public int line = 0;
         public int col = 0;
+        public long offset = -1;
 
         public Occurrence() {
         }
 
         public Occurrence(int line, int col) {
+            this(line, col, -1);
+        }
+
+        public Occurrence(int line, int col, long offset) {
             this.line = line;
             this.col = col;
+            this.offset = offset;
         }
     }
 }
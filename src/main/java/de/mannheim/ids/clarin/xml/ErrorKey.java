@@ -0,0 +1,137 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.xerces.util.MessageFormatter;
+
+/**
+ * what errors are grouped by: severity, message key and arguments (which
+ * name the elements and attributes involved)
+ * <p>
+ * the message text is only formatted when asked for, and then only once.
+ */
+final class ErrorKey {
+
+    /**
+     * pattern to recognise the messages about completely disallowed
+     * elements
+     */
+    private static final Pattern notAnywhere = Pattern
+            .compile("^.*?not allowed anywhere(?=\\p{P})");
+    private static final String[] NO_ARGUMENTS = new String[0];
+
+    final String severity;
+    final String key;
+    final String[] arguments;
+    private final Object[] rawArguments;
+    private final MessageFormatter formatter;
+    private final Locale locale;
+    private final int hash;
+    private String message;
+
+    /**
+     * @param severity
+     *     WARNING, ERROR or FATAL_ERROR
+     * @param key
+     *     the Xerces message key
+     * @param arguments
+     *     the message arguments
+     * @param formatter
+     *     formats the message
+     * @param locale
+     *     the locale to format the message in
+     */
+    ErrorKey(String severity, String key, Object[] arguments,
+            MessageFormatter formatter, Locale locale) {
+        this.severity = severity;
+        this.key = key;
+        this.rawArguments = arguments;
+        this.formatter = formatter;
+        this.locale = locale;
+        if (arguments == null || arguments.length == 0) {
+            this.arguments = NO_ARGUMENTS;
+        } else {
+            this.arguments = new String[arguments.length];
+            for (int i = 0; i < arguments.length; i++)
+                this.arguments[i] = String.valueOf(arguments[i]);
+        }
+        hash = (severity.hashCode() * 31 + key.hashCode()) * 31
+                + Arrays.hashCode(this.arguments);
+    }
+
+    /**
+     * an error whose message is already formatted
+     *
+     * @param severity
+     *     WARNING, ERROR or FATAL_ERROR
+     * @param key
+     *     the Xerces message key
+     * @param message
+     *     the message
+     */
+    ErrorKey(String severity, String key, String message) {
+        this(severity, key, new Object[] { message }, null, null);
+        this.message = message;
+    }
+
+    /**
+     * @return an equal key holding interned strings, for storing
+     */
+    ErrorKey intern() {
+        ErrorKey copy = new ErrorKey(severity.intern(), key.intern(),
+                rawArguments, formatter, locale);
+        for (int i = 0; i < copy.arguments.length; i++)
+            copy.arguments[i] = copy.arguments[i].intern();
+        copy.message = message;
+        return copy;
+    }
+
+    /**
+     * @return the message text
+     */
+    String getMessage() {
+        if (message == null) {
+            String text = formatter.formatMessage(locale, key, rawArguments);
+            Matcher notAnywhereMatcher = notAnywhere.matcher(text);
+            if (notAnywhereMatcher.find())
+                text = notAnywhereMatcher.group();
+            message = text;
+        }
+        return message;
+    }
+
+    /**
+     * @return the message as in the report, with its severity
+     */
+    String getReportKey() {
+        return "[" + severity + "] " + getMessage();
+    }
+
+    /**
+     * @return the message text, so that it is only formatted if logged
+     */
+    @Override
+    public String toString() {
+        return getMessage();
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ErrorKey))
+            return false;
+        ErrorKey other = (ErrorKey) o;
+        return hash == other.hash && severity.equals(other.severity)
+                && key.equals(other.key)
+                && Arrays.equals(arguments, other.arguments);
+    }
+}
@@ -0,0 +1,46 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * receives the errors of every validated file as soon as it is done
+ */
+public interface ErrorReport extends Closeable {
+
+    /**
+     * record the result for a file
+     *
+     * @param fileName
+     *     the file name
+     * @param valid
+     *     whether the file is valid
+     * @param errors
+     *     the errors, grouped by message
+     * @throws IOException
+     *     if the report cannot be written
+     */
+    void add(String fileName, boolean valid, Map<String, ErrorInfo> errors)
+            throws IOException;
+
+    /**
+     * record the result for a file, with measurements
+     *
+     * @param fileName
+     *     the file name
+     * @param valid
+     *     whether the file is valid
+     * @param errors
+     *     the errors, grouped by message
+     * @param metrics
+     *     the time spent and bytes read, or {@code null}
+     * @throws IOException
+     *     if the report cannot be written
+     */
+    default void add(String fileName, boolean valid,
+            Map<String, ErrorInfo> errors, ValidationMetrics metrics)
+            throws IOException {
+        add(fileName, valid, errors);
+    }
+}
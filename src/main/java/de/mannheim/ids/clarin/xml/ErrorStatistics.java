@@ -0,0 +1,411 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * counts errors across all files, in memory that does not grow with the
+ * number of files or of distinct error messages, and writes a summary when
+ * closed
+ * <p>
+ * kept exactly are the numbers of files and occurrences of every severity
+ * and of every Xerces message key (e.g. {@code MSG_ELEMENT_NOT_DECLARED}),
+ * of which there are only a few hundred. Error messages, which include
+ * element names and values and so have a long tail, are counted by
+ * occurrences and by files in a {@link SpaceSaving} table of the most
+ * frequent ones and a {@link CountMinSketch} each; the summary lists the
+ * top messages by either count, with counts that are exact where the
+ * tables tell so, and never too low otherwise.
+ */
+public class ErrorStatistics implements ErrorReport {
+
+    /**
+     * messages counted per message listed in the summary
+     */
+    private static final int CAPACITY_FACTOR = 20;
+    private static final int MIN_CAPACITY = 1000;
+    private static final int SKETCH_WIDTH = 1 << 14;
+    private static final int SKETCH_DEPTH = 4;
+
+    private final File output;
+    private final int top;
+    private long files = 0;
+    private long invalid = 0;
+    /**
+     * exact counts, by severity and by severity and message key
+     */
+    private final Map<String, long[]> severities = new TreeMap<>();
+    private final Map<String, long[]> codes = new HashMap<>();
+    private final SpaceSaving occurrences;
+    private final SpaceSaving filesWith;
+    private final CountMinSketch occurrenceSketch = new CountMinSketch(
+            SKETCH_WIDTH, SKETCH_DEPTH);
+    private final CountMinSketch fileSketch = new CountMinSketch(
+            SKETCH_WIDTH, SKETCH_DEPTH);
+
+    /**
+     * @param output
+     *     file to write the summary to
+     * @param top
+     *     how many of the most frequent messages to list
+     */
+    public ErrorStatistics(File output, int top) {
+        if (top < 1)
+            throw new IllegalArgumentException(
+                    "need to list at least one message");
+        this.output = output;
+        this.top = top;
+        int capacity = Math.max(MIN_CAPACITY, CAPACITY_FACTOR * top);
+        occurrences = new SpaceSaving(capacity);
+        filesWith = new SpaceSaving(capacity);
+    }
+
+    @Override
+    public synchronized void add(String fileName, boolean valid,
+            Map<String, ErrorInfo> errors) {
+        files++;
+        if (!valid)
+            invalid++;
+        Set<String> severitiesSeen = new HashSet<>();
+        Set<String> codesSeen = new HashSet<>();
+        errors.forEach((message, info) -> {
+            long count = info.getCount();
+            String severity = severity(message);
+            String code = severity + " " + (info.getCode() != null
+                    ? info.getCode()
+                    : "unknown");
+            count(severities, severity, count, severitiesSeen.add(severity));
+            count(codes, code, count, codesSeen.add(code));
+            occurrences.add(message, count);
+            occurrenceSketch.add(message, count);
+            filesWith.add(message, 1);
+            fileSketch.add(message, 1);
+        });
+    }
+
+    /**
+     * @return the severity of a message as reported, like {@code [ERROR]}
+     */
+    private static String severity(String message) {
+        int end = message.indexOf(']');
+        return message.startsWith("[") && end > 0
+                ? message.substring(0, end + 1)
+                : "";
+    }
+
+    private static void count(Map<String, long[]> counts, String key,
+            long occurrences, boolean newFile) {
+        long[] count = counts.computeIfAbsent(key, k -> new long[2]);
+        count[0] += occurrences;
+        if (newFile)
+            count[1]++;
+    }
+
+    /**
+     * @return the most frequent messages as listed in the summary, with
+     *     occurrences and files
+     */
+    synchronized List<Estimate> getTop(boolean byFiles) {
+        List<Estimate> estimates = new ArrayList<>();
+        for (SpaceSaving.Counter counter : (byFiles ? filesWith : occurrences)
+                .top(top)) {
+            estimates.add(estimate(counter.key));
+        }
+        return estimates;
+    }
+
+    /**
+     * @param message
+     *     an error message
+     * @return its counts, as good as known
+     */
+    synchronized Estimate estimate(String message) {
+        return new Estimate(message,
+                estimate(occurrences, occurrenceSketch, message),
+                occurrences.isExact(message),
+                estimate(filesWith, fileSketch, message),
+                filesWith.isExact(message));
+    }
+
+    /**
+     * both counts are too high, if at all
+     */
+    private static long estimate(SpaceSaving table, CountMinSketch sketch,
+            String message) {
+        long count = sketch.estimate(message);
+        SpaceSaving.Counter counter = table.get(message);
+        return counter != null ? Math.min(counter.count, count) : count;
+    }
+
+    /**
+     * write the summary
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try (JsonGenerator generator = new ObjectMapper().getFactory()
+                .createGenerator(output, JsonEncoding.UTF8)) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeNumberField("files", files);
+            generator.writeNumberField("invalid", invalid);
+            writeCounts(generator, "severities", severities);
+            // most frequent first
+            Map<String, long[]> sorted = new TreeMap<>(codes);
+            List<Map.Entry<String, long[]>> byCode = new ArrayList<>(
+                    sorted.entrySet());
+            byCode.sort(Comparator.comparingLong(
+                    (Map.Entry<String, long[]> e) -> -e.getValue()[0]));
+            generator.writeArrayFieldStart("codes");
+            for (Map.Entry<String, long[]> code : byCode) {
+                generator.writeStartObject();
+                generator.writeStringField("code", code.getKey());
+                generator.writeNumberField("occurrences", code.getValue()[0]);
+                generator.writeNumberField("files", code.getValue()[1]);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            writeTop(generator, "topByOccurrences", getTop(false));
+            writeTop(generator, "topByFiles", getTop(true));
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeCounts(JsonGenerator generator, String field,
+            Map<String, long[]> counts) throws IOException {
+        generator.writeObjectFieldStart(field);
+        for (Map.Entry<String, long[]> count : counts.entrySet()) {
+            generator.writeObjectFieldStart(count.getKey());
+            generator.writeNumberField("occurrences", count.getValue()[0]);
+            generator.writeNumberField("files", count.getValue()[1]);
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeTop(JsonGenerator generator, String field,
+            List<Estimate> estimates) throws IOException {
+        generator.writeArrayFieldStart(field);
+        for (Estimate estimate : estimates) {
+            generator.writeStartObject();
+            generator.writeStringField("error", estimate.message);
+            generator.writeNumberField("occurrences", estimate.occurrences);
+            generator.writeBooleanField("occurrencesExact",
+                    estimate.occurrencesExact);
+            generator.writeNumberField("files", estimate.files);
+            generator.writeBooleanField("filesExact", estimate.filesExact);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * the counts of a message
+     */
+    static class Estimate {
+        final String message;
+        final long occurrences;
+        final boolean occurrencesExact;
+        final long files;
+        final boolean filesExact;
+
+        Estimate(String message, long occurrences, boolean occurrencesExact,
+                long files, boolean filesExact) {
+            this.message = message;
+            this.occurrences = occurrences;
+            this.occurrencesExact = occurrencesExact;
+            this.files = files;
+            this.filesExact = filesExact;
+        }
+    }
+
+    /**
+     * the Space-Saving algorithm (Metwally, Agrawal, El Abbadi 2005): keeps
+     * counters for at most {@code capacity} keys; a new key takes over the
+     * counter of the least frequent one, and its count, as the error of its
+     * own count. So counts are never too low, at most by their error too
+     * high, and exact for keys counted from the start; every key more
+     * frequent than the total divided by the capacity has a counter.
+     * <p>
+     * counters are kept in a binary heap with the least count on top.
+     */
+    static class SpaceSaving {
+
+        static class Counter {
+            final String key;
+            long count;
+            /**
+             * how much {@link #count} may be too high
+             */
+            long error;
+            int index;
+
+            Counter(String key, long count, long error) {
+                this.key = key;
+                this.count = count;
+                this.error = error;
+            }
+        }
+
+        private final Map<String, Counter> counters = new HashMap<>();
+        private final Counter[] heap;
+        private int size = 0;
+
+        SpaceSaving(int capacity) {
+            heap = new Counter[capacity];
+        }
+
+        /**
+         * @param key
+         *     a key
+         * @param weight
+         *     how often it occurred
+         */
+        void add(String key, long weight) {
+            Counter counter = counters.get(key);
+            if (counter != null) {
+                counter.count += weight;
+                siftDown(counter.index);
+            } else if (size < heap.length) {
+                counter = new Counter(key, weight, 0);
+                counters.put(key, counter);
+                heap[size] = counter;
+                siftUp(size++);
+            } else {
+                // take over the counter of the least frequent key
+                Counter least = heap[0];
+                counters.remove(least.key);
+                counter = new Counter(key, least.count + weight, least.count);
+                counters.put(key, counter);
+                heap[0] = counter;
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int index) {
+            Counter counter = heap[index];
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (heap[parent].count <= counter.count)
+                    break;
+                heap[index] = heap[parent];
+                heap[index].index = index;
+                index = parent;
+            }
+            heap[index] = counter;
+            counter.index = index;
+        }
+
+        private void siftDown(int index) {
+            Counter counter = heap[index];
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size
+                        && heap[child + 1].count < heap[child].count)
+                    child++;
+                if (heap[child].count >= counter.count)
+                    break;
+                heap[index] = heap[child];
+                heap[index].index = index;
+                index = child;
+            }
+            heap[index] = counter;
+            counter.index = index;
+        }
+
+        /**
+         * @return the counter of a key, or {@code null}
+         */
+        Counter get(String key) {
+            return counters.get(key);
+        }
+
+        /**
+         * @return whether the count of a key is known to be exact
+         */
+        boolean isExact(String key) {
+            Counter counter = counters.get(key);
+            return counter != null && counter.error == 0;
+        }
+
+        /**
+         * @param k
+         *     how many
+         * @return the counters with the highest counts, highest first; ties
+         *     by key
+         */
+        List<Counter> top(int k) {
+            Counter[] sorted = Arrays.copyOf(heap, size);
+            Arrays.sort(sorted, Comparator
+                    .comparingLong((Counter c) -> -c.count)
+                    .thenComparing(c -> c.key));
+            return Arrays.asList(sorted).subList(0, Math.min(k, size));
+        }
+    }
+
+    /**
+     * the Count-Min sketch (Cormode, Muthukrishnan 2005): counts of any
+     * number of keys in {@code depth} rows of {@code width} counters, each
+     * key counted in one counter per row; the least of its counters is never
+     * too low, and too high by more than {@code e / width} of the total only
+     * with a probability of {@code e^-depth}
+     */
+    static class CountMinSketch {
+
+        private final long[][] counts;
+        private final int mask;
+
+        /**
+         * @param width
+         *     a power of two
+         * @param depth
+         *     number of rows
+         */
+        CountMinSketch(int width, int depth) {
+            if (Integer.bitCount(width) != 1)
+                throw new IllegalArgumentException(
+                        "width must be a power of two");
+            counts = new long[depth][width];
+            mask = width - 1;
+        }
+
+        /**
+         * @return the counter of a key in a row
+         */
+        private int index(String key, int row) {
+            // a hash per row, mixed as in MurmurHash3
+            long hash = key.hashCode() * 0x9E3779B97F4A7C15L
+                    + (row + 1) * 0xC2B2AE3D27D4EB4FL;
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return (int) hash & mask;
+        }
+
+        void add(String key, long weight) {
+            for (int row = 0; row < counts.length; row++)
+                counts[row][index(key, row)] += weight;
+        }
+
+        long estimate(String key) {
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < counts.length; row++)
+                estimate = Math.min(estimate, counts[row][index(key, row)]);
+            return estimate;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.impl.dtd.DTDGrammar;
+import org.apache.xerces.impl.dtd.XMLEntityDecl;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+
+/**
+ * a grammar pool shared by all parsers of an {@link I5Validator}
+ * <p>
+ * grammars (DTDs and XSDs) are compiled once and reused for all later
+ * documents referring to the same public / system identifier. The underlying
+ * {@link XMLGrammarPoolImpl} is synchronized, so one cache can safely be used
+ * by many threads.
+ */
+public class GrammarCache {
+
+    /**
+     * Xerces property for the grammar pool
+     */
+    static final String GRAMMAR_POOL = "http://apache.org/xml/properties"
+            + "/internal/grammar-pool";
+    /**
+     * Xerces property for the entity manager
+     */
+    static final String ENTITY_MANAGER = "http://apache.org/xml/properties"
+            + "/internal/entity-manager";
+
+    private final XMLGrammarPoolImpl pool = new XMLGrammarPoolImpl();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * a view on the shared pool for a single parser
+     * <p>
+     * Xerces does not read the external DTD subset when it finds a cached DTD
+     * grammar, so the entities declared there have to be passed to the
+     * parser's entity manager on every hit.
+     *
+     * @param entityManager
+     *     the entity manager of the parser using the pool
+     * @return the pool to set as {@value #GRAMMAR_POOL}
+     */
+    XMLGrammarPool forEntityManager(XMLEntityManager entityManager) {
+        return new EntityDeclaringPool(entityManager);
+    }
+
+    /**
+     * @return number of DTDs taken from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of DTDs that had to be compiled
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return a one-line summary of the cache usage
+     */
+    public String getStatistics() {
+        return String.format("grammar cache: %d hits, %d misses", getHits(),
+                getMisses());
+    }
+
+    /**
+     * forget all cached grammars
+     */
+    public void clear() {
+        pool.clear();
+    }
+
+    private class EntityDeclaringPool implements XMLGrammarPool {
+
+        private final XMLEntityManager entityManager;
+        private final XMLEntityDecl entityDecl = new XMLEntityDecl();
+
+        EntityDeclaringPool(XMLEntityManager entityManager) {
+            this.entityManager = entityManager;
+        }
+
+        /**
+         * no initial grammars, so that every lookup goes through
+         * {@link #retrieveGrammar(XMLGrammarDescription)}
+         */
+        @Override
+        public Grammar[] retrieveInitialGrammarSet(String grammarType) {
+            return new Grammar[0];
+        }
+
+        @Override
+        public void cacheGrammars(String grammarType, Grammar[] grammars) {
+            pool.cacheGrammars(grammarType, grammars);
+            ValidationMetrics metrics = ValidationMetrics.current();
+            if (metrics != null)
+                metrics.grammarLoaded();
+        }
+
+        @Override
+        public Grammar retrieveGrammar(XMLGrammarDescription desc) {
+            Grammar grammar = pool.retrieveGrammar(desc);
+            // the schema validator asks for every namespace without a
+            // grammar, so only DTD lookups make for meaningful statistics
+            if (XMLGrammarDescription.XML_DTD.equals(desc.getGrammarType())) {
+                if (grammar == null) {
+                    misses.getAndIncrement();
+                    ValidationMetrics metrics = ValidationMetrics.current();
+                    if (metrics != null)
+                        metrics.grammarMissed();
+                } else {
+                    hits.getAndIncrement();
+                    declareEntities((DTDGrammar) grammar);
+                }
+            }
+            return grammar;
+        }
+
+        /**
+         * declare the general entities of a cached DTD
+         *
+         * @param grammar
+         *     the DTD
+         */
+        private void declareEntities(DTDGrammar grammar) {
+            for (int i = 0; grammar.getEntityDecl(i, entityDecl); i++) {
+                if (entityDecl.isPE)
+                    continue;
+                if (entityDecl.notation != null) {
+                    entityManager.addUnparsedEntity(entityDecl.name,
+                            entityDecl.publicId, entityDecl.systemId,
+                            entityDecl.baseSystemId, entityDecl.notation);
+                } else if (entityDecl.value != null) {
+                    entityManager.addInternalEntity(entityDecl.name,
+                            entityDecl.value);
+                } else {
+                    try {
+                        entityManager.addExternalEntity(entityDecl.name,
+                                entityDecl.publicId, entityDecl.systemId,
+                                entityDecl.baseSystemId);
+                    } catch (IOException e) {
+                        throw new XNIException(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void lockPool() {
+            pool.lockPool();
+        }
+
+        @Override
+        public void unlockPool() {
+            pool.unlockPool();
+        }
+
+        @Override
+        public void clear() {
+            pool.clear();
+        }
+    }
+}
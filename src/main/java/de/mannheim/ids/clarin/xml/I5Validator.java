@@ -3,26 +3,48 @@ package de.mannheim.ids.clarin.xml;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-// DOM
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 // SAX
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.impl.XMLErrorReporter;
+import org.apache.xerces.impl.msg.XMLMessageFormatter;
+import org.apache.xerces.jaxp.SAXParserFactoryImpl;
+import org.apache.xerces.parsers.DOMParser;
+import org.apache.xerces.parsers.XIncludeAwareParserConfiguration;
+import org.apache.xerces.util.MessageFormatter;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.parser.XMLErrorHandler;
+import org.apache.xerces.xni.parser.XMLParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.ErrorHandler;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -30,13 +52,448 @@ public class I5Validator {
 
     static private final Logger logger = LoggerFactory
             .getLogger(I5Validator.class.getSimpleName());
+    /**
+     * Xerces property for the size of the input buffer
+     */
+    private static final String INPUT_BUFFER_SIZE = "http://apache.org/xml/properties"
+            + "/input-buffer-size";
+    /**
+     * bytes decoded at a time with {@link #setFastDecoding(boolean)}, at
+     * least
+     */
+    private static final int DECODING_BUFFER_SIZE = 1 << 16;
     private final boolean keepRecord;
 
     private final ConcurrentHashMap<String, Map<String, ErrorInfo>> errorMap;
 
+    /**
+     * compiled grammars, shared by all parsers
+     */
+    private final GrammarCache grammarCache;
+
+    /**
+     * if set, errors are passed on here instead of being kept in
+     * {@link #errorMap}
+     */
+    private ErrorReport report;
+    /**
+     * results of earlier runs, or {@code null}
+     */
+    private ResultCache resultCache;
+    /**
+     * records finished files, or {@code null}
+     */
+    private Journal journal;
+    /**
+     * counts the errors of all files, or {@code null}
+     */
+    private ErrorStatistics statistics;
+    /**
+     * whether to pass {@link ValidationMetrics} on to the report
+     */
+    private boolean reportMetrics = false;
+
+    /**
+     * positions kept per error message and file
+     */
+    private int maxOccurrences = Integer.MAX_VALUE;
+
+    /**
+     * how many occurrences of an error are logged per file, and every how
+     * many after that
+     */
+    private int logFirst = 10;
+    private int logEvery = 10000;
+
+    /**
+     * stop parsing a file after this many errors (0: never)
+     */
+    private int maxErrors = 0;
+
+    /**
+     * only find out whether files are valid, without collecting errors
+     */
+    private boolean validityOnly = false;
+
+    /**
+     * input buffer of the parsers in bytes (0: Xerces' default), and
+     * whether to decode UTF-8 and ISO-8859-1 before the parser (see
+     * {@link DecodingReader})
+     */
+    private int inputBufferSize = 0;
+    private boolean fastDecoding = false;
+
+    /**
+     * whether to record the byte offsets of the lines of errors (see
+     * {@link LineIndex})
+     */
+    private boolean errorOffsets = false;
+
+    /**
+     * if set, large documents are split into fragments that are validated
+     * in parallel here (see {@link #setSplitting(ExecutorService, int, int)})
+     */
+    private ExecutorService fragmentExecutor = null;
+    private int fragmentWindow;
+    private int fragmentSize;
+
+    /**
+     * resolves (and caches) DTDs and other external entities
+     */
+    private final CachingEntityResolver entityResolver;
+
+    /**
+     * compiled XSDs, for {@link #validateWithSchema(InputStream, String,
+     * String)}
+     */
+    private final SchemaCache schemaCache;
+
+    /**
+     * configured once, create the SAX parsers
+     */
+    private final SAXParserFactory saxParserFactory = createSAXParserFactory(
+            true);
+    private final SAXParserFactory plainSAXParserFactory = createSAXParserFactory(
+            false);
+
+    /**
+     * parsers are expensive to set up, so every thread keeps its own and
+     * reuses it for all documents
+     */
+    private final ThreadLocal<SAXParser> saxParsers = ThreadLocal
+            .withInitial(() -> newSAXParser(saxParserFactory));
+    private final ThreadLocal<SAXParser> plainSAXParsers = ThreadLocal
+            .withInitial(() -> newSAXParser(plainSAXParserFactory));
+    private final ThreadLocal<DOMParser> domParsers = ThreadLocal
+            .withInitial(() -> newDOMParser(false));
+    private final ThreadLocal<DOMParser> schemaDOMParsers = ThreadLocal
+            .withInitial(() -> newDOMParser(true));
+
     I5Validator(boolean keepRecord) {
+        this(keepRecord, new CachingEntityResolver());
+    }
+
+    I5Validator(boolean keepRecord, CachingEntityResolver entityResolver) {
         this.keepRecord = keepRecord;
         errorMap = new ConcurrentHashMap<>();
+        grammarCache = new GrammarCache();
+        this.entityResolver = entityResolver;
+        schemaCache = new SchemaCache(entityResolver);
+    }
+
+    /**
+     * @return the cache of compiled DTDs and XSDs
+     */
+    public GrammarCache getGrammarCache() {
+        return grammarCache;
+    }
+
+    /**
+     * @return the cache of compiled XSDs used by
+     *     {@link #validateWithSchema(InputStream, String, String)}
+     */
+    public SchemaCache getSchemaCache() {
+        return schemaCache;
+    }
+
+    /**
+     * keep the result of every file in a cache, see
+     * {@link ResultCache#lookup(ValidationTask)}
+     *
+     * @param resultCache
+     *     the cache, or {@code null}
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @param reportMetrics
+     *     whether to add the time spent and bytes read to the report (see
+     *     {@link ErrorReport#add(String, boolean, Map, ValidationMetrics)})
+     */
+    public void setReportMetrics(boolean reportMetrics) {
+        this.reportMetrics = reportMetrics;
+    }
+
+    /**
+     * add the result of every file to a journal, whether or not errors are
+     * kept, see {@link Journal#replay(File, ErrorReport)}
+     *
+     * @param journal
+     *     the journal, or {@code null}
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * count the errors of every file, whether or not they are kept
+     *
+     * @param statistics
+     *     the statistics, or {@code null}
+     */
+    public void setStatistics(ErrorStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return the cache of results, or {@code null}
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * pass the errors of every file on to a report as soon as the file is
+     * done, instead of keeping them until {@link #writeErrorMap(File)}
+     *
+     * @param report
+     *     the report
+     */
+    public void setReport(ErrorReport report) {
+        this.report = report;
+    }
+
+    /**
+     * @param maxOccurrences
+     *     how many positions to keep per error message and file; further
+     *     occurrences are only counted
+     */
+    public void setMaxOccurrences(int maxOccurrences) {
+        if (maxOccurrences < 0)
+            throw new IllegalArgumentException(
+                    "maximum number of occurrences must not be negative");
+        this.maxOccurrences = maxOccurrences;
+    }
+
+    /**
+     * limit how often a type of error, i.e. a message key, is logged per
+     * file, whatever its arguments; the totals are logged at the end
+     *
+     * @param first
+     *     how many occurrences of a type of error to log
+     * @param every
+     *     after that, log every how manieth occurrence (0: none)
+     */
+    public void setErrorLogging(int first, int every) {
+        if (first < 0 || every < 0)
+            throw new IllegalArgumentException(
+                    "error log limits must not be negative");
+        logFirst = first;
+        logEvery = every;
+    }
+
+    /**
+     * @param maxErrors
+     *     stop parsing a file after this many errors and fatal errors (0:
+     *     never)
+     */
+    public void setMaxErrors(int maxErrors) {
+        if (maxErrors < 0)
+            throw new IllegalArgumentException(
+                    "maximum number of errors must not be negative");
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * @param validityOnly
+     *     whether to stop at the first error, without collecting or logging
+     *     errors
+     */
+    public void setValidityOnly(boolean validityOnly) {
+        this.validityOnly = validityOnly;
+    }
+
+    /**
+     * set before validating, as DOM parsers keep theirs
+     *
+     * @param inputBufferSize
+     *     size of the parsers' input buffer in bytes (0: Xerces' default of
+     *     8 KiB)
+     */
+    public void setInputBufferSize(int inputBufferSize) {
+        if (inputBufferSize < 0)
+            throw new IllegalArgumentException(
+                    "input buffer size must not be negative");
+        this.inputBufferSize = inputBufferSize;
+    }
+
+    /**
+     * @param fastDecoding
+     *     whether to decode documents in UTF-8 and ISO-8859-1 in large
+     *     blocks before the parser (see {@link DecodingReader}), rather than
+     *     have the parser decode them
+     */
+    public void setFastDecoding(boolean fastDecoding) {
+        this.fastDecoding = fastDecoding;
+    }
+
+    /**
+     * @param errorOffsets
+     *     whether to record with every error the byte offset of its line in
+     *     the document, for {@link ContextCommand}; not for documents
+     *     validated in fragments
+     */
+    public void setErrorOffsets(boolean errorOffsets) {
+        this.errorOffsets = errorOffsets;
+    }
+
+    /**
+     * @param xml
+     *     a document
+     * @return the input for the parser
+     * @throws IOException
+     *     if the start of the document cannot be read
+     */
+    private InputSource inputSource(InputStream xml) throws IOException {
+        if (!fastDecoding)
+            return new InputSource(xml);
+        return DecodingReader.inputSource(xml,
+                Math.max(inputBufferSize, DECODING_BUFFER_SIZE));
+    }
+
+    /**
+     * validate documents with SAX and DTD in fragments, split at their
+     * top-level {@code idsDoc} and {@code idsText} elements (see
+     * {@link DocumentSplitter}); not done with {@link #setMaxErrors(int)} or
+     * {@link #setValidityOnly(boolean)}
+     *
+     * @param executor
+     *     validates the fragments
+     * @param window
+     *     how many fragments may be waiting or in validation at a time, per
+     *     document
+     * @param fragmentSize
+     *     minimum size of a fragment in bytes
+     */
+    public void setSplitting(ExecutorService executor, int window,
+            int fragmentSize) {
+        if (window < 1 || fragmentSize < 0)
+            throw new IllegalArgumentException(
+                    "need a window of at least one fragment");
+        fragmentExecutor = executor;
+        fragmentWindow = window;
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * keep the errors of a file, or pass them on to the report
+     */
+    private void record(String name, CollectingErrorHandler handler) {
+        if (!keepRecord && resultCache == null && journal == null
+                && statistics == null)
+            return;
+        Map<String, ErrorInfo> errors = handler.getErrorMap();
+        if (resultCache != null)
+            resultCache.store(name, handler.isValid, errors);
+        record(name, handler.isValid, errors);
+    }
+
+    /**
+     * keep the errors of a file, or pass them on to the report
+     *
+     * @param name
+     *     the file
+     * @param valid
+     *     whether it is valid
+     * @param errors
+     *     its errors
+     */
+    void record(String name, boolean valid, Map<String, ErrorInfo> errors) {
+        try {
+            if (journal != null)
+                journal.add(name, valid, errors);
+            if (statistics != null)
+                statistics.add(name, valid, errors);
+            if (!keepRecord)
+                return;
+            ValidationMetrics metrics = reportMetrics
+                    ? ValidationMetrics.current()
+                    : null;
+            if (metrics != null)
+                metrics.stop();
+            if (report != null)
+                report.add(name, valid, errors, metrics);
+            else
+                errorMap.put(name, errors);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * let a parser take its grammars from the shared {@link GrammarCache}
+     *
+     * @param reader
+     *     the parser
+     * @throws SAXException
+     *     if the parser does not support grammar pools
+     */
+    private void useGrammarCache(XMLReader reader) throws SAXException {
+        reader.setProperty(GrammarCache.GRAMMAR_POOL,
+                grammarCache.forEntityManager((XMLEntityManager) reader
+                        .getProperty(GrammarCache.ENTITY_MANAGER)));
+    }
+
+    /**
+     * set the input buffer size of a SAX parser, which is reset after every
+     * document
+     *
+     * @param reader
+     *     the parser
+     * @throws SAXException
+     *     if the parser does not support the property
+     */
+    private void useInputBufferSize(XMLReader reader) throws SAXException {
+        if (inputBufferSize > 0)
+            reader.setProperty(INPUT_BUFFER_SIZE, inputBufferSize);
+    }
+
+    /**
+     * let a parser take its grammars from the shared {@link GrammarCache}
+     *
+     * @param builder
+     *     the parser
+     * @throws SAXException
+     *     if the parser does not support grammar pools
+     */
+    private void useGrammarCache(DOMParser builder) throws SAXException {
+        builder.setProperty(GrammarCache.GRAMMAR_POOL,
+                grammarCache.forEntityManager((XMLEntityManager) builder
+                        .getProperty(GrammarCache.ENTITY_MANAGER)));
+    }
+
+    /**
+     * @param reader
+     *     the parser
+     * @return the parser's error reporter, formatting messages only when
+     *     needed
+     * @throws SAXException
+     *     if the parser is not Xerces
+     */
+    private static XMLErrorReporter errorReporter(XMLReader reader)
+            throws SAXException {
+        XMLErrorReporter reporter = (XMLErrorReporter) reader
+                .getProperty(DeferredMessageFormatter.ERROR_REPORTER);
+        DeferredMessageFormatter.install(reporter);
+        return reporter;
+    }
+
+    /**
+     * @param builder
+     *     the parser
+     * @return the parser's error reporter, formatting messages only when
+     *     needed
+     * @throws SAXException
+     *     if the parser is not Xerces
+     */
+    private static XMLErrorReporter errorReporter(DOMParser builder)
+            throws SAXException {
+        XMLErrorReporter reporter = (XMLErrorReporter) builder
+                .getProperty(DeferredMessageFormatter.ERROR_REPORTER);
+        DeferredMessageFormatter.install(reporter);
+        return reporter;
     }
 
     /**
@@ -58,36 +515,27 @@ public class I5Validator {
             boolean useSchema)
             throws ParserConfigurationException, IOException {
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory
-                    .newInstance();
-            factory.setValidating(true);
-            factory.setNamespaceAware(true);
-            factory.setXIncludeAware(true);
-            factory.setExpandEntityReferences(true);
-            factory.setFeature(
-                    "http://apache.org/xml/features/continue-after-fatal-error",
-                    true);
-
-            if (useSchema)
-                factory.setAttribute(
-                        "http://java.sun.com/xml/jaxp/properties"
-                                + "/schemaLanguage",
-                        "http://www.w3.org/2001/XMLSchema");
-
-            DocumentBuilder builder = factory.newDocumentBuilder();
+            DOMParser builder = (useSchema ? schemaDOMParsers : domParsers)
+                    .get();
             CollectingErrorHandler handler = new CollectingErrorHandler(name,
-                    keepRecord);
-            builder.setErrorHandler(handler);
+                    errorReporter(builder));
+            builder.setProperty(DeferredMessageFormatter.ERROR_HANDLER,
+                    handler);
             try {
-                builder.parse(new InputSource(xml));
+                builder.parse(inputSource(handler.index(xml, null)));
+            } catch (ErrorLimitReached e) {
+                logger.info("{}: stopped after {} errors", name,
+                        handler.errorCount);
             } catch (SAXParseException e) {
                 logger.error(
                         "{} fatally invalid / not well-formed – error list "
                                 + "may not be complete",
                         name);
+            } finally {
+                builder.dropDocumentReferences();
             }
-            if (keepRecord)
-                errorMap.put(name, handler.getErrorMap());
+            handler.logSummary();
+            record(name, handler);
             return handler.isValid();
         } catch (SAXException se) { // anything but parsing errors
             throw new RuntimeException(se);
@@ -109,13 +557,196 @@ public class I5Validator {
      */
     public boolean validateWithDTDUsingSAX(InputStream xml, String name)
             throws ParserConfigurationException, IOException {
+        if (fragmentExecutor != null && !validityOnly && maxErrors == 0)
+            return validateInFragments(xml, name);
+        return validateUsingSAX(xml, name);
+    }
+
+    private boolean validateUsingSAX(InputStream xml, String name)
+            throws IOException {
+        try {
+            SAXParser parser = saxParsers.get();
+            XMLReader reader = parser.getXMLReader();
+            useGrammarCache(reader);
+            useInputBufferSize(reader);
+            reader.setEntityResolver(entityResolver);
+            CollectingErrorHandler handler = new CollectingErrorHandler(name,
+                    errorReporter(reader));
+            reader.setProperty(DeferredMessageFormatter.ERROR_HANDLER,
+                    handler);
+            try {
+                reader.parse(inputSource(handler.index(xml, null)));
+            } catch (ErrorLimitReached e) {
+                logger.info("{}: stopped after {} errors", name,
+                        handler.errorCount);
+            } catch (SAXParseException e) {
+                logger.error(
+                        "{} fatally invalid / not well-formed – error list "
+                                + "may not be complete",
+                        name);
+            } finally {
+                parser.reset();
+            }
+            handler.logSummary();
+            record(name, handler);
+            return handler.isValid;
+        } catch (SAXException se) { // anything but parsing errors
+            throw new RuntimeException(se);
+        }
+    }
+
+    /**
+     * validate the fragments of a document in parallel and put their errors
+     * together, with positions in the whole document
+     */
+    private boolean validateInFragments(InputStream xml, String name)
+            throws IOException {
+        DocumentSplitter splitter = new DocumentSplitter(xml,
+                DocumentSplitter.I5_ELEMENTS, fragmentSize);
+        if (!splitter.split()) {
+            logger.debug("{}: cannot be split, validating as a whole", name);
+            return validateUsingSAX(splitter.remainder(), name);
+        }
+        byte[] prefix = splitter.getPrefix();
+        FragmentMerger merger = new FragmentMerger(name);
+        Deque<Future<FragmentErrorHandler>> window = new ArrayDeque<>();
+        int fragments = 0;
+        try {
+            DocumentSplitter.Fragment fragment;
+            while ((fragment = splitter.next()) != null) {
+                DocumentSplitter.Fragment current = fragment;
+                window.add(fragmentExecutor.submit(
+                        () -> validateFragment(name, prefix, current,
+                                merger)));
+                fragments++;
+                if (window.size() >= fragmentWindow)
+                    merger.add(result(window.removeFirst()));
+            }
+            while (!window.isEmpty())
+                merger.add(result(window.removeFirst()));
+        } finally {
+            window.forEach(f -> f.cancel(true));
+        }
+        logger.debug("{}: validated in {} fragments", name, fragments);
+        merger.finish(splitter.getEnd());
+        CollectingErrorHandler handler = merger.handler;
+        handler.logSummary();
+        record(name, handler);
+        return handler.isValid;
+    }
+
+    private static FragmentErrorHandler result(
+            Future<FragmentErrorHandler> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * validate a fragment as a document of its own, with the prefix of the
+     * whole document
+     */
+    private FragmentErrorHandler validateFragment(String name, byte[] prefix,
+            DocumentSplitter.Fragment fragment, FragmentMerger merger)
+            throws IOException, SAXException {
+        SAXParser parser = saxParsers.get();
+        XMLReader reader = parser.getXMLReader();
+        useGrammarCache(reader);
+        useInputBufferSize(reader);
+        reader.setEntityResolver(entityResolver);
+        FragmentErrorHandler handler = new FragmentErrorHandler(name,
+                errorReporter(reader), fragment, merger);
+        reader.setProperty(DeferredMessageFormatter.ERROR_HANDLER, handler);
+        reader.setContentHandler(handler.idCollector());
+        try {
+            reader.parse(new InputSource(fragment.open(prefix)));
+        } catch (SAXParseException e) {
+            handler.fatal = true;
+        } finally {
+            reader.setContentHandler(null);
+            parser.reset();
+        }
+        return handler;
+    }
+
+    /**
+     * validate against the XSD named in the root element's
+     * {@code xsi:schemaLocation} or {@code xsi:noNamespaceSchemaLocation},
+     * without building a tree; DTDs are only read for their entities
+     *
+     * @param xml
+     *     the XML input
+     * @param name
+     *     the file name
+     * @param systemId
+     *     URI of the document, to resolve relative locations against; may
+     *     be {@code null}
+     * @return whether document is valid
+     * @throws ParserConfigurationException
+     *     in case of error
+     * @throws IOException
+     *     in case of error
+     */
+    public boolean validateWithSchema(InputStream xml, String name,
+            String systemId)
+            throws ParserConfigurationException, IOException {
         try {
+            SAXParser parser = plainSAXParsers.get();
+            XMLReader reader = parser.getXMLReader();
+            useGrammarCache(reader);
+            useInputBufferSize(reader);
+            reader.setEntityResolver(entityResolver);
+            CollectingErrorHandler handler = new CollectingErrorHandler(name,
+                    errorReporter(reader));
+            reader.setProperty(DeferredMessageFormatter.ERROR_HANDLER,
+                    handler);
+            reader.setContentHandler(new SchemaSelectingHandler(schemaCache,
+                    systemId, handler, handler.reporters::add));
+            InputSource source = inputSource(handler.index(xml, systemId));
+            source.setSystemId(systemId);
+            try {
+                reader.parse(source);
+            } catch (ErrorLimitReached e) {
+                logger.info("{}: stopped after {} errors", name,
+                        handler.errorCount);
+            } catch (SAXParseException e) {
+                logger.error(
+                        "{} fatally invalid / not well-formed – error list "
+                                + "may not be complete",
+                        name);
+            } finally {
+                parser.reset();
+            }
+            handler.logSummary();
+            record(name, handler);
+            return handler.isValid;
+        } catch (SAXException se) { // anything but parsing errors
+            throw new RuntimeException(se);
+        }
+    }
 
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            factory.setValidating(true);
+    /**
+     * @param validating
+     *     whether the parsers validate (DTD or XSD); otherwise, they still
+     *     read the DTD for its entities
+     * @return a factory for SAX parsers
+     */
+    private static SAXParserFactory createSAXParserFactory(
+            boolean validating) {
+        try {
+            SAXParserFactory factory = new SAXParserFactoryImpl();
+            factory.setValidating(validating);
             factory.setNamespaceAware(true);
             factory.setFeature("http://xml.org/sax/features/namespaces", true);
-            factory.setFeature("http://xml.org/sax/features/validation", true);
+            factory.setFeature("http://xml.org/sax/features/validation",
+                    validating);
             factory.setFeature(
                     "http://apache.org/xml/features/nonvalidating/load-dtd"
                             + "-grammar",
@@ -131,35 +762,70 @@ public class I5Validator {
                     "http://xml.org/sax/features/external-parameter-entities",
                     true);
             factory.setFeature(
-                    "http://apache.org/xml/features/validation/schema", true);
+                    "http://apache.org/xml/features/validation/schema",
+                    validating);
             factory.setFeature(
                     "http://apache.org/xml/features/continue-after-fatal-error",
                     true);
             factory.setXIncludeAware(true);
-            SAXParser parser = factory.newSAXParser();
+            return factory;
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            XMLReader reader = parser.getXMLReader();
-            reader.setEntityResolver((publicId, systemId) -> {
-                logger.info("LOADING ENTITY public: '{}' system: '{}'",
-                        publicId, systemId);
-                return null; // default
-            });
-            CollectingErrorHandler handler = new CollectingErrorHandler(name,
-                    keepRecord);
-            reader.setErrorHandler(handler);
-            try {
-                reader.parse(new InputSource(xml));
-            } catch (SAXParseException e) {
-                logger.error(
-                        "{} fatally invalid / not well-formed – error list "
-                                + "may not be complete",
-                        name);
+    /**
+     * @param factory
+     *     the factory to use
+     * @return a new SAX parser; grammar pool, entity resolver, error
+     *     handler and input buffer size are set for every document
+     */
+    private static SAXParser newSAXParser(SAXParserFactory factory) {
+        try {
+            synchronized (factory) {
+                return factory.newSAXParser();
             }
-            if (keepRecord)
-                errorMap.put(name, handler.getErrorMap());
-            return handler.isValid;
-        } catch (SAXException se) { // anything but parsing errors
-            throw new RuntimeException(se);
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param useSchema
+     *     whether to use XSD instead of DTD
+     * @return a new DOM parser, using the shared grammars and entities
+     */
+    private DOMParser newDOMParser(boolean useSchema) {
+        try {
+            DOMParser builder = new DOMParser(
+                    new XIncludeAwareParserConfiguration());
+            builder.setFeature("http://xml.org/sax/features/validation", true);
+            builder.setFeature("http://xml.org/sax/features/namespaces", true);
+            builder.setFeature("http://apache.org/xml/features/xinclude",
+                    true);
+            builder.setFeature(
+                    "http://apache.org/xml/features/dom/create-entity-ref-nodes",
+                    false);
+            builder.setFeature(
+                    "http://apache.org/xml/features/continue-after-fatal-error",
+                    true);
+
+            if (useSchema) {
+                builder.setFeature(
+                        "http://apache.org/xml/features/validation/schema",
+                        true);
+                builder.setProperty(
+                        "http://java.sun.com/xml/jaxp/properties"
+                                + "/schemaLanguage",
+                        "http://www.w3.org/2001/XMLSchema");
+            }
+            if (inputBufferSize > 0)
+                builder.setProperty(INPUT_BUFFER_SIZE, inputBufferSize);
+            useGrammarCache(builder);
+            builder.setEntityResolver(entityResolver);
+            return builder;
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -187,104 +853,245 @@ public class I5Validator {
     }
 
     /**
-     * a SAX ErrorHandler that collects the errors into a map structure
+     * thrown (wrapped into an {@link XNIException}) by the error handler to
+     * stop parsing
      */
-    private static class CollectingErrorHandler implements ErrorHandler {
+    private static class ErrorLimitReached extends SAXException {
+        private static final long serialVersionUID = 1L;
 
+        ErrorLimitReached(int errors) {
+            super("stopped after " + errors + " errors");
+        }
+    }
+
+    /**
+     * the key of the error about an IDREF without an ID
+     */
+    private static final String ID_REQUIRED = "MSG_ELEMENT_WITH_ID_REQUIRED";
+
+    /**
+     * a Xerces error handler that collects the errors into a map structure,
+     * grouped by {@link ErrorKey}
+     */
+    private class CollectingErrorHandler implements XMLErrorHandler {
+
+        private final String fileName;
         /**
-         * pattern to recognise the messages about completely disallowed
-         * elements
+         * the error reporters of the parser and of any validator attached
+         * to it
          */
-        private static final Pattern notAnywhere = Pattern
-                .compile("^.*?not allowed anywhere(?=\\p{P})");
-        private final String fileName;
-        private final boolean keepRecord;
+        private final List<XMLErrorReporter> reporters = new ArrayList<>(2);
         final Logger logger = LoggerFactory
                 .getLogger(CollectingErrorHandler.class.getSimpleName());
-        private boolean isValid = true;
+        boolean isValid = true;
+        /**
+         * number of errors and fatal errors
+         */
+        int errorCount = 0;
+        /**
+         * errors, grouped by key
+         */
+        final Map<ErrorKey, ErrorInfo> errors = new HashMap<>();
+        /**
+         * occurrences by type of error, i.e. severity and message key, for
+         * logging: the arguments of an error type flooding a file, like
+         * element names or IDs, mostly differ
+         */
+        private final Map<String, Long> types = new TreeMap<>();
+        /**
+         * measurements of the file, if validated on this thread
+         */
+        private final ValidationMetrics metrics = ValidationMetrics
+                .current();
         /**
-         * a map of error messages
+         * lines of the document read so far, if offsets are recorded, and
+         * its system ID, to tell its errors from those in other entities
          */
-        private Map<String, ErrorInfo> errorMap;
+        private LineIndex lines = null;
+        private String systemId = null;
 
         /**
-         * an error handler that collects its errors in a list
+         * an error handler that collects its errors in a map
+         *
+         * @param reporter
+         *     the parser's error reporter, with a
+         *     {@link DeferredMessageFormatter}
          */
-        CollectingErrorHandler(String name, boolean keepRecord) {
+        CollectingErrorHandler(String name, XMLErrorReporter reporter) {
             fileName = name;
-            this.keepRecord = keepRecord;
-            initLists();
-        }
-
-        public void initLists() {
-            reset();
+            if (reporter != null)
+                reporters.add(reporter);
         }
 
         /**
-         * reset the Handler
+         * @param xml
+         *     the document
+         * @param systemId
+         *     its system ID as given to the parser, or {@code null}
+         * @return the document, with its lines counted if offsets are
+         *     recorded
          */
-        public void reset() {
-            errorMap = new ConcurrentHashMap<>();
+        InputStream index(InputStream xml, String systemId) {
+            if (!errorOffsets)
+                return xml;
+            this.systemId = systemId;
+            lines = new LineIndex(xml);
+            return lines;
         }
 
         /**
-         * add a SAXException, extract info and put it into the errorMap and
-         * errorList
+         * add an error reported by Xerces
          *
+         * @param type
+         *     the severity
+         * @param domain
+         *     the error domain
+         * @param key
+         *     the message key
          * @param exception
          *     encountered during parsing
+         * @return whether the error counts
          */
-        private void addException(String type, SAXParseException exception) {
-            String message = exception.getMessage();
-            Matcher notAnywhereMatcher = notAnywhere.matcher(message);
-            if (notAnywhereMatcher.find()) {
-                message = notAnywhereMatcher.group();
+        private boolean addException(String type, String domain, String key,
+                XMLParseException exception) {
+            if (validityOnly)
+                return true;
+            long start = System.nanoTime();
+            try {
+                long offset = lines != null && Objects.equals(systemId,
+                        exception.getLiteralSystemId())
+                                ? lines.offset(exception.getLineNumber())
+                                : -1;
+                return addError(DeferredMessageFormatter.take(reporters,
+                        domain, type, key, exception.getMessage()),
+                        exception.getLineNumber(),
+                        exception.getColumnNumber(), offset);
+            } finally {
+                if (metrics != null)
+                    metrics.addErrorNanos(System.nanoTime() - start);
             }
-            addErrorInfo(type, message, exception.getLineNumber(),
-                    exception.getColumnNumber());
         }
 
         /**
-         * add error info to errorMap
+         * @param error
+         *     the error
+         * @param lineNumber
+         *     the line number
+         * @param columnNumber
+         *     the column number
+         * @param offset
+         *     byte offset of the line, or -1 if not known
+         * @return whether the error counts
+         */
+        boolean addError(ErrorKey error, int lineNumber, int columnNumber,
+                long offset) {
+            addErrorInfo(error, lineNumber, columnNumber, offset);
+            return true;
+        }
+
+        /**
+         * @param error
+         *     an error just added
+         * @return the how manieth occurrence of its type this is, for
+         *     logging
+         */
+        long occurrence(ErrorKey error) {
+            synchronized (types) {
+                return types.merge(error.severity + " " + error.key, 1L,
+                        Long::sum);
+            }
+        }
+
+        /**
+         * add error info to the errors, and log it unless its type has been
+         * logged often enough
          *
-         * @param message
-         *     the error message
+         * @param error
+         *     the error
          * @param lineNumber
          *     the line number
          * @param columnNumber
          *     the column number
+         * @param offset
+         *     byte offset of the line, or -1 if not known
          */
-        private void addErrorInfo(String type, String message, int lineNumber,
-                int columnNumber) {
-            logger.error("{} at {}:{} {} {}", fileName, lineNumber,
-                    columnNumber, type, message);
-            String storeMessage = String.format("[%s] %s", type, message);
-            if (keepRecord) {
-                errorMap.computeIfAbsent(storeMessage, s -> new ErrorInfo());
-                errorMap.get(storeMessage).addOccurrence(lineNumber,
-                        columnNumber);
+        void addErrorInfo(ErrorKey error, int lineNumber, int columnNumber,
+                long offset) {
+            ErrorInfo info = errors.get(error);
+            if (info == null) {
+                error = error.intern();
+                // without a record, only count
+                info = new ErrorInfo(keepRecord ? maxOccurrences : 0,
+                        error.key, error.arguments);
+                errors.put(error, info);
+            }
+            info.addOccurrence(lineNumber, columnNumber, offset);
+            long count = occurrence(error);
+            if (count <= logFirst) {
+                logger.error("{} at {}:{} {} {}", fileName, lineNumber,
+                        columnNumber, error.severity, error);
+            } else if (logEvery > 0 && count % logEvery == 0) {
+                logger.error("{} at {}:{} {} {} ({} {} so far)", fileName,
+                        lineNumber, columnNumber, error.severity, error,
+                        count, error.key);
             }
         }
 
+        /**
+         * log the totals of the types of errors not logged every time
+         */
+        void logSummary() {
+            synchronized (types) {
+                types.forEach((type, count) -> {
+                    if (count > logFirst)
+                        logger.error("{}: {} occurred {} times", fileName,
+                                type, count);
+                });
+            }
+        }
+
+        /**
+         * @return the errors, by message; every distinct message is
+         *     formatted here
+         */
         public Map<String, ErrorInfo> getErrorMap() {
+            Map<String, ErrorInfo> errorMap = new HashMap<>();
+            errors.forEach((error, info) -> errorMap.merge(
+                    error.getReportKey(), info, (first, second) -> {
+                        first.addAll(second);
+                        return first;
+                    }));
             return errorMap;
         }
 
         @Override
-        public void warning(SAXParseException exception) {
-            addException("WARNING", exception);
+        public void warning(String domain, String key,
+                XMLParseException exception) {
+            addException("WARNING", domain, key, exception);
         }
 
         @Override
-        public void fatalError(SAXParseException exception) {
-            addException("FATAL_ERROR", exception);
-            isValid = false;
+        public void fatalError(String domain, String key,
+                XMLParseException exception) {
+            if (addException("FATAL_ERROR", domain, key, exception))
+                invalid();
         }
 
         @Override
-        public void error(SAXParseException exception) {
-            addException("ERROR", exception);
+        public void error(String domain, String key,
+                XMLParseException exception) {
+            if (addException("ERROR", domain, key, exception))
+                invalid();
+        }
+
+        /**
+         * count an error, and stop parsing if there were enough
+         */
+        private void invalid() {
             isValid = false;
+            errorCount++;
+            if (validityOnly || (maxErrors > 0 && errorCount >= maxErrors))
+                throw new XNIException(new ErrorLimitReached(errorCount));
         }
 
         public boolean isValid() {
@@ -293,4 +1100,170 @@ public class I5Validator {
 
     }
 
+    /**
+     * collects the errors of a fragment (see {@link DocumentSplitter}), at
+     * their positions in the whole document
+     * <p>
+     * errors in the repeated prefix are only kept for the first fragment.
+     * As IDs may be referred to from other fragments, IDREFs without an ID
+     * are left to the {@link FragmentMerger}, and IDs are collected for
+     * it.
+     */
+    private class FragmentErrorHandler extends CollectingErrorHandler {
+
+        private final DocumentSplitter.Fragment fragment;
+        private final FragmentMerger merger;
+        /**
+         * IDREFs without an ID in the fragment
+         */
+        private final Set<String> unresolved = new LinkedHashSet<>();
+        /**
+         * IDs in the fragment, with their positions, and those in the
+         * prefix
+         */
+        private final List<String> ids = new ArrayList<>();
+        private long[] idPositions = new long[16];
+        private final List<String> prefixIds = new ArrayList<>();
+        /**
+         * whether the fragment is not well-formed
+         */
+        private boolean fatal = false;
+
+        FragmentErrorHandler(String name, XMLErrorReporter reporter,
+                DocumentSplitter.Fragment fragment, FragmentMerger merger) {
+            super(name, reporter);
+            this.fragment = fragment;
+            this.merger = merger;
+        }
+
+        @Override
+        boolean addError(ErrorKey error, int lineNumber, int columnNumber,
+                long offset) {
+            if (ID_REQUIRED.equals(error.key) && error.arguments.length == 1) {
+                unresolved.add(error.arguments[0]);
+                return false;
+            }
+            long position = fragment.map(lineNumber, columnNumber);
+            if (position < 0)
+                return false;
+            addErrorInfo(error, (int) (position >>> 32), (int) position, -1);
+            return true;
+        }
+
+        /**
+         * counted in the whole document
+         */
+        @Override
+        long occurrence(ErrorKey error) {
+            return merger.handler.occurrence(error);
+        }
+
+        /**
+         * @return a content handler that collects the IDs
+         */
+        DefaultHandler idCollector() {
+            return new DefaultHandler() {
+                private Locator locator;
+
+                @Override
+                public void setDocumentLocator(Locator locator) {
+                    this.locator = locator;
+                }
+
+                @Override
+                public void startElement(String uri, String localName,
+                        String qName, Attributes attributes) {
+                    for (int i = 0; i < attributes.getLength(); i++) {
+                        if (!"ID".equals(attributes.getType(i)))
+                            continue;
+                        int line = locator.getLineNumber();
+                        int column = locator.getColumnNumber();
+                        if (fragment.index == 0
+                                && fragment.inPrefix(line, column)) {
+                            prefixIds.add(attributes.getValue(i));
+                            continue;
+                        }
+                        long position = fragment.map(line, column);
+                        if (position < 0)
+                            continue;
+                        if (ids.size() == idPositions.length)
+                            idPositions = Arrays.copyOf(idPositions,
+                                    idPositions.length * 2);
+                        idPositions[ids.size()] = position;
+                        ids.add(attributes.getValue(i));
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * puts the errors of the fragments of a document together, in the
+     * order of the fragments, and checks IDs and IDREFs across fragments
+     */
+    private class FragmentMerger {
+
+        final CollectingErrorHandler handler;
+        private final Set<String> ids = new HashSet<>();
+        private final Set<String> prefixIds = new HashSet<>();
+        private final Set<String> unresolved = new LinkedHashSet<>();
+        private final MessageFormatter formatter = new XMLMessageFormatter();
+        private boolean fatal = false;
+
+        FragmentMerger(String name) {
+            handler = new CollectingErrorHandler(name, null);
+        }
+
+        /**
+         * @param part
+         *     the errors of the next fragment
+         */
+        void add(FragmentErrorHandler part) {
+            handler.isValid &= part.isValid;
+            handler.errorCount += part.errorCount;
+            part.errors.forEach((error, info) -> {
+                ErrorInfo known = handler.errors.putIfAbsent(error, info);
+                if (known != null)
+                    known.addAll(info);
+            });
+            fatal |= part.fatal;
+            prefixIds.addAll(part.prefixIds);
+            // within the fragment, the parser has checked IDs itself
+            for (int i = 0; i < part.ids.size(); i++) {
+                String id = part.ids.get(i);
+                if (ids.contains(id) && !prefixIds.contains(id)) {
+                    long position = part.idPositions[i];
+                    addError("IDNotUnique", id, (int) (position >>> 32),
+                            (int) position);
+                }
+            }
+            ids.addAll(part.ids);
+            unresolved.addAll(part.unresolved);
+        }
+
+        /**
+         * report the IDREFs without an ID in any fragment
+         *
+         * @param end
+         *     line and column of the end of the document, where the parser
+         *     reports them
+         */
+        void finish(long end) {
+            for (String id : unresolved) {
+                if (!ids.contains(id) && !prefixIds.contains(id))
+                    addError(ID_REQUIRED, id, (int) (end >>> 32), (int) end);
+            }
+            if (fatal)
+                logger.error("{} fatally invalid / not well-formed – error "
+                        + "list may not be complete", handler.fileName);
+        }
+
+        private void addError(String key, String id, int line, int column) {
+            handler.addErrorInfo(new ErrorKey("ERROR", key,
+                    new Object[] { id }, formatter, null), line, column, -1);
+            handler.isValid = false;
+            handler.errorCount++;
+        }
+    }
+
 }
@@ -1,21 +1,26 @@
 package de.mannheim.ids.clarin.xml;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
-import java.util.zip.GZIPInputStream;
+import java.util.stream.StreamSupport;
 
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
-import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,112 +28,569 @@ import picocli.CommandLine;
 
 @CommandLine.Command(mixinStandardHelpOptions = true,
         name = "i5validator", description = "process "
-        + "and validate XML files", versionProvider = VersionProvider.class)
+        + "and validate XML files", versionProvider = VersionProvider.class,
+        subcommands = { ServeCommand.class, ClientCommand.class,
+                MergeCommand.class, ContextCommand.class })
 public class I5ValidatorRunner implements Callable<Integer> {
 
     static private final Logger logger = LoggerFactory
             .getLogger(I5Validator.class.getSimpleName());
 
-    private enum Compression {
-        none, bzip2, gzip, xz
-    }
+    /**
+     * default name of the log file, unless streamed
+     */
+    static final String DEFAULT_LOG = "i5validation.json";
 
     @CommandLine.Option(names = { "-L",
-            "--log-file" }, defaultValue = "i5validation.json", description = "log file name (default: ${DEFAULT-VALUE})")
+            "--log-file" }, description = "log file name (default: "
+                    + DEFAULT_LOG + ", " + StreamingErrorReport.DEFAULT_NAME
+                    + " with --stream-log)")
     String logFileName;
     @CommandLine.Option(names = { "-p",
-            "--parallel" }, description = "use multiple threads")
+            "--parallel" }, description = "use one thread per processor")
     private boolean parallel;
+    @CommandLine.Option(names = { "-t",
+            "--threads" }, description = "number of threads (default: one "
+                    + "per processor with -p, otherwise 1)")
+    private Integer threads;
 
     @CommandLine.Option(names = { "-c",
             "--compression" }, description = "compression: ${COMPLETION-CANDIDATES}, default: "
                     + "${DEFAULT-VALUE} (overridden from file name!)", defaultValue = "none")
     Compression compression;
+    @CommandLine.Option(names = {
+            "--decompression-threads" }, defaultValue = "1", description = "threads per "
+                    + "compressed file: 0 to decompress while parsing, 1 to "
+                    + "decompress in the background, more to decompress xz "
+                    + "and bzip2 blocks in parallel (default: ${DEFAULT-VALUE})")
+    private int decompressionThreads;
+    @CommandLine.Option(names = {
+            "--split-documents" }, description = "validate each document "
+                    + "in fragments of top-level idsDoc and idsText "
+                    + "elements, in parallel (SAX and DTD only)")
+    private boolean splitDocuments = false;
+    @CommandLine.Option(names = {
+            "--fragment-size" }, defaultValue = "4", description = "minimum "
+                    + "size of a fragment in MiB (default: ${DEFAULT-VALUE})")
+    private int fragmentSize;
     @CommandLine.Option(names = { "-d", "--dom" }, description = "use DOM "
             + "instead of SAX")
     private boolean dom = false;
     @CommandLine.Option(names = { "-S",
-            "--use-schema" }, description = "use XSD with DOM, ignore DTD (implies -d)")
+            "--use-schema" }, description = "use XSD from xsi:schemaLocation, "
+                    + "ignore DTD; compiled once per run, streamed unless -d")
     private boolean useSchema = false;
     @CommandLine.Option(names = { "-l",
             "--log-to-json" }, description = "collect errors "
                     + "and write log file")
     private boolean writeLog = false;
-    @CommandLine.Parameters(arity = "1..*", description = "input files")
+    @CommandLine.Option(names = {
+            "--stream-log" }, description = "write the log file as it goes, "
+                    + "one JSON line per file, compressed if the name ends "
+                    + "in .gz, .xz or .bz2; bzip2 is only complete at the "
+                    + "end (implies -l)")
+    private boolean streamLog = false;
+    @CommandLine.Option(names = {
+            "--max-occurrences" }, description = "positions logged per "
+                    + "error message and file; further occurrences are only "
+                    + "counted (default: all)")
+    private Integer maxOccurrences;
+    @CommandLine.Option(names = {
+            "--max-errors" }, defaultValue = "0", description = "stop "
+                    + "validating a file after this many errors, 0 for no "
+                    + "limit (default: ${DEFAULT-VALUE})")
+    private int maxErrors;
+    @CommandLine.Option(names = {
+            "--first-error" }, description = "stop validating a file at its "
+                    + "first error (same as --max-errors 1)")
+    private boolean firstError = false;
+    @CommandLine.Option(names = {
+            "--validity-only" }, description = "only find out whether files "
+                    + "are valid: stop at the first error, do not collect "
+                    + "or log errors")
+    private boolean validityOnly = false;
+    @CommandLine.Option(names = {
+            "--log-first" }, defaultValue = "10", description = "log only "
+                    + "this many occurrences of a type of error (message "
+                    + "key) per file, then a total (default: "
+                    + "${DEFAULT-VALUE})")
+    private int logFirst;
+    @CommandLine.Option(names = {
+            "--log-every" }, defaultValue = "10000", description = "after "
+                    + "that, log every how manieth occurrence, 0 for none "
+                    + "(default: ${DEFAULT-VALUE})")
+    private int logEvery;
+    @CommandLine.Option(names = {
+            "--catalog" }, description = "XML catalog for resolving DTDs "
+                    + "and entities (may be repeated)")
+    private List<File> catalogs = new ArrayList<>();
+    @CommandLine.Option(names = {
+            "--entity-cache" }, description = "directory for caching DTDs "
+                    + "and entities loaded from the network")
+    private File entityCache;
+    @CommandLine.Option(names = {
+            "--entity-timeout" }, defaultValue = "60", description = "seconds "
+                    + "to wait for a DTD or entity from the network to "
+                    + "connect, and for every read, 0 for no limit "
+                    + "(default: ${DEFAULT-VALUE})")
+    private int entityTimeout;
+    @CommandLine.Option(names = {
+            "--result-cache" }, description = "directory for keeping "
+                    + "results; files unchanged since an earlier run with "
+                    + "the same DTD or XSD and options are not validated "
+                    + "again")
+    private File resultCache;
+    @CommandLine.Option(names = {
+            "--journal" }, description = "record finished files in this "
+                    + "journal, synced to disk in batches (default with "
+                    + "--resume: log file name + .journal)")
+    private File journalFile;
+    @CommandLine.Option(names = {
+            "--resume" }, description = "skip the files in the journal of "
+                    + "an interrupted run and report their results along "
+                    + "with the new ones")
+    private boolean resume = false;
+    @CommandLine.Option(names = {
+            "--statistics" }, description = "write a summary of the errors "
+                    + "of all files to this JSON file: exact counts per "
+                    + "severity and message key, and the most frequent "
+                    + "messages, counted in fixed memory")
+    private File statisticsFile;
+    @CommandLine.Option(names = {
+            "--top" }, defaultValue = "50", description = "messages to list "
+                    + "in --statistics (default: ${DEFAULT-VALUE})")
+    private int top;
+    @CommandLine.Option(names = {
+            "--metrics" }, description = "add bytes read and time spent "
+                    + "per phase to the records of --stream-log")
+    private boolean metrics = false;
+    @CommandLine.Option(names = {
+            "--progress" }, defaultValue = "10", description = "every this "
+                    + "many seconds, log how far files validated for longer "
+                    + "have got, 0 for never (default: ${DEFAULT-VALUE})")
+    private int progress;
+    @CommandLine.Option(names = {
+            "--mmap" }, description = "memory-map uncompressed files of 1 "
+                    + "MiB and more instead of reading them; they must not "
+                    + "be truncated meanwhile")
+    private boolean mapFiles = false;
+    @CommandLine.Option(names = {
+            "--input-buffer-size" }, defaultValue = "64", description = "input "
+                    + "buffer of the parser in KiB (default: ${DEFAULT-VALUE})")
+    private int inputBufferSize;
+    @CommandLine.Option(names = {
+            "--parser-decoding" }, description = "let the parser decode "
+                    + "UTF-8 and ISO-8859-1 itself instead of decoding them "
+                    + "in large blocks before it")
+    private boolean parserDecoding = false;
+    @CommandLine.Option(names = {
+            "--prefetch" }, defaultValue = "0", description = "read this "
+                    + "many files ahead into memory while others are "
+                    + "validated, 0 for none (default: ${DEFAULT-VALUE})")
+    private int prefetch;
+    @CommandLine.Option(names = {
+            "--prefetch-memory" }, defaultValue = "256", description = "MiB "
+                    + "to hold at most in files read ahead; larger files are "
+                    + "read as they are validated (default: ${DEFAULT-VALUE})")
+    private long prefetchMemory;
+    @CommandLine.Option(names = {
+            "--prefetch-threads" }, defaultValue = "2", description = "threads "
+                    + "reading files ahead (default: ${DEFAULT-VALUE})")
+    private int prefetchThreads;
+    @CommandLine.Option(names = {
+            "--offsets" }, description = "record the byte offset of the "
+                    + "line of every error, to show errors in context with "
+                    + "'context' (not with --split-documents)")
+    private boolean errorOffsets = false;
+    @CommandLine.Option(names = { "-r",
+            "--recursive" }, description = "validate the files in this "
+                    + "directory and its subdirectories, as they are found "
+                    + "(may be repeated)")
+    private List<File> directories = new ArrayList<>();
+    @CommandLine.Option(names = {
+            "--files-from" }, description = "validate the files listed in "
+                    + "this file, one per line, - for standard input")
+    private File filesFrom;
+    @CommandLine.Option(names = {
+            "--include" }, description = "with -r and --files-from, only "
+                    + "validate files matching this glob; matched against "
+                    + "the file name, or the relative path if the glob "
+                    + "contains / (may be repeated)")
+    private List<String> includes = new ArrayList<>();
+    @CommandLine.Option(names = {
+            "--exclude" }, description = "with -r and --files-from, do not "
+                    + "validate files matching this glob (may be repeated)")
+    private List<String> excludes = new ArrayList<>();
+    @CommandLine.Option(names = {
+            "--shard" }, converter = Shard.Converter.class, description = "only "
+                    + "validate part i of n (i/n, from 1/n to n/n), for "
+                    + "running on several machines with the same arguments; "
+                    + "see 'merge'")
+    private Shard shard;
+    @CommandLine.Parameters(arity = "0..*", description = "input files, "
+            + "- for standard input; the members of tar and zip archives "
+            + "are validated one by one")
     private List<File> inputFiles = new ArrayList<>();
 
+    @CommandLine.Spec
+    private CommandLine.Model.CommandSpec spec;
+
+    /**
+     * @param entityResolver
+     *     resolves DTDs and entities
+     * @param keepRecord
+     *     whether to keep the errors of every file
+     * @return a validator set up according to the options
+     */
+    I5Validator createValidator(CachingEntityResolver entityResolver,
+            boolean keepRecord) {
+        I5Validator validator = new I5Validator(keepRecord, entityResolver);
+        if (maxOccurrences != null)
+            validator.setMaxOccurrences(maxOccurrences);
+        validator.setErrorLogging(logFirst, logEvery);
+        validator.setMaxErrors(firstError ? 1 : maxErrors);
+        validator.setValidityOnly(validityOnly);
+        validator.setReportMetrics(metrics);
+        validator.setInputBufferSize(inputBufferSize << 10);
+        validator.setFastDecoding(!parserDecoding);
+        validator.setErrorOffsets(errorOffsets);
+        if (resultCache != null)
+            validator.setResultCache(new ResultCache(resultCache,
+                    entityResolver, resultOptions(keepRecord)));
+        return validator;
+    }
+
+    /**
+     * @return an entity resolver set up according to the options
+     */
+    CachingEntityResolver createEntityResolver() {
+        CachingEntityResolver resolver = new CachingEntityResolver(catalogs,
+                entityCache);
+        resolver.setTimeout(entityTimeout * 1000);
+        return resolver;
+    }
+
+    /**
+     * @return number of threads to validate with
+     */
+    int threadCount() {
+        return threads != null ? threads
+                : parallel ? Runtime.getRuntime().availableProcessors() : 1;
+    }
+
+    /**
+     * @return the compression to assume unless a file name says otherwise
+     */
+    Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return whether to use DOM instead of SAX
+     */
+    boolean isDom() {
+        return dom;
+    }
+
+    /**
+     * @return whether to use XSD instead of DTD
+     */
+    boolean isUseSchema() {
+        return useSchema;
+    }
+
+    /**
+     * reject numbers that the validator and its helpers do not accept as a
+     * usage error instead of a stack trace
+     *
+     * @throws CommandLine.ParameterException
+     *     if an option is out of range
+     */
+    void checkOptions() {
+        if (threads != null && threads < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "-t must be at least 1");
+        if (splitDocuments && fragmentSize < 0)
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "--fragment-size must not be negative");
+        notNegative("--decompression-threads", decompressionThreads);
+        if (maxOccurrences != null)
+            notNegative("--max-occurrences", maxOccurrences);
+        notNegative("--max-errors", maxErrors);
+        notNegative("--log-first", logFirst);
+        notNegative("--log-every", logEvery);
+        notNegative("--entity-timeout", entityTimeout);
+        notNegative("--input-buffer-size", inputBufferSize);
+        notNegative("--prefetch", prefetch);
+        notNegative("--prefetch-memory", prefetchMemory);
+        if (prefetch > 0 && prefetchThreads < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "--prefetch-threads must be at least 1");
+    }
+
+    private void notNegative(String option, long value) {
+        if (value < 0)
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    option + " must not be negative");
+    }
+
+    /**
+     * @return a decompressor set up according to the options
+     */
+    Decompressor createDecompressor() {
+        return new Decompressor(decompressionThreads, mapFiles);
+    }
+
     @Override
     public Integer call() {
-        I5Validator validator = new I5Validator(writeLog);
+        if (logFileName == null)
+            logFileName = streamLog ? StreamingErrorReport.DEFAULT_NAME
+                    : DEFAULT_LOG;
+        if (streamLog && Compression.fromFileName(logFileName,
+                Compression.none) == Compression.bzip2)
+            logger.warn("{} is written in bzip2 blocks of 900 kB, and "
+                    + "only complete when the run finishes", logFileName);
+        if (inputFiles.isEmpty() && directories.isEmpty()
+                && filesFrom == null)
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "Missing required parameter: <inputFiles>");
+        for (File directory : directories) {
+            if (!directory.isDirectory())
+                throw new CommandLine.ParameterException(spec.commandLine(),
+                        "not a directory: " + directory);
+        }
+        if (filesFrom != null
+                && ValidationTask.STDIN.equals(filesFrom.getPath())
+                && inputFiles.stream().anyMatch(
+                        f -> ValidationTask.STDIN.equals(f.getPath())))
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "standard input cannot be both a file list and a file");
+        if (statisticsFile != null && top < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "--top must be at least 1");
+        checkOptions();
+        CachingEntityResolver entityResolver = createEntityResolver();
+        I5Validator validator = createValidator(entityResolver,
+                writeLog || streamLog);
         AtomicInteger errorCount = new AtomicInteger();
 
-        Stream<File> inputs = inputFiles.stream();
-        if (parallel) {
-            inputs = inputs.parallel();
-        }
-        inputs.forEach(inputFile -> {
-
-            String name = inputFile.toString();
-            switch (FilenameUtils.getExtension(name)) {
-            case "xz":
-                compression = Compression.xz;
-                break;
-            case "bz2":
-            case "bzip2":
-                compression = Compression.bzip2;
-                break;
-            case "gz":
-            case "gzip":
-                compression = Compression.gzip;
-                break;
+        int threadCount = threadCount();
+        List<ValidationTask> tasks = new ArrayList<>();
+        for (File inputFile : inputFiles) {
+            if (ValidationTask.STDIN.equals(inputFile.getPath())) {
+                try {
+                    tasks.add(ValidationTask.stdin(compression, dom,
+                            useSchema));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                tasks.add(new ValidationTask(inputFile, compression, dom,
+                        useSchema));
             }
+        }
+        // only files named on the command line are known in advance
+        if (shard != null)
+            tasks = shard.select(tasks);
+        if (threadCount > 1)
+            tasks = ValidationScheduler.largestFirst(tasks);
+        if (resume && journalFile == null)
+            journalFile = new File(logFileName + ".journal");
+        ValidationScheduler scheduler = new ValidationScheduler(threadCount);
+        ExecutorService fragmentValidators = null;
+        if (splitDocuments) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            fragmentValidators = Executors.newFixedThreadPool(threadCount,
+                    r -> {
+                        Thread thread = new Thread(r,
+                                "fragment-" + threadNumber.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            validator.setSplitting(fragmentValidators, 2 * threadCount,
+                    fragmentSize << 20);
+        }
+        ScheduledExecutorService progressReporter = null;
+        if (progress > 0) {
+            progressReporter = Executors.newSingleThreadScheduledExecutor(
+                    r -> {
+                        Thread thread = new Thread(r, "progress");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            long interval = TimeUnit.SECONDS.toNanos(progress);
+            progressReporter.scheduleAtFixedRate(
+                    () -> ValidationMetrics.inFlight().stream()
+                            .filter(m -> m.getWallNanos() >= interval)
+                            .forEach(m -> logger.info(m.progress())),
+                    progress, progress, TimeUnit.SECONDS);
+        }
+        long start = System.nanoTime();
+        try (InputFiles found = new InputFiles(directories, filesFrom,
+                includes, excludes);
+                Decompressor decompressor = createDecompressor();
+                ErrorReport report = streamLog
+                        ? new StreamingErrorReport(new File(logFileName))
+                        : null;
+                Journal journal = journalFile != null
+                        ? new Journal(journalFile, resume)
+                        : null;
+                ErrorStatistics statistics = statisticsFile != null
+                        ? new ErrorStatistics(statisticsFile, top)
+                        : null) {
+            validator.setReport(report);
+            validator.setStatistics(statistics);
+            Set<String> done = resume ? Journal.replay(journalFile,
+                    new ErrorReport() {
+                        @Override
+                        public void add(String fileName, boolean valid,
+                                Map<String, ErrorInfo> errors) {
+                            if (!valid)
+                                errorCount.getAndIncrement();
+                            validator.record(fileName, valid, errors);
+                        }
 
-            try (InputStream originalInputStream = new FileInputStream(
-                    inputFile)) {
-                InputStream inputStream;
-                switch (compression) {
-                case xz:
-                    inputStream = new XZCompressorInputStream(
-                            originalInputStream);
-                    break;
-                case bzip2:
-                    inputStream = new BZip2CompressorInputStream(
-                            originalInputStream);
-                    break;
-                case gzip:
-                    inputStream = new GZIPInputStream(originalInputStream);
-                    break;
-                case none:  // i.e.
-                default:
-                    inputStream = originalInputStream;
-                    break;
+                        @Override
+                        public void close() {
+                        }
+                    }) : Set.of();
+            validator.setJournal(journal);
+            Iterator<ValidationTask> allTasks = Stream.concat(tasks.stream(),
+                    StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                            found, Spliterator.ORDERED), false)
+                            .filter(file -> shard == null
+                                    || shard.contains(file.getPath()))
+                            .map(file -> new ValidationTask(file, compression,
+                                    dom, useSchema)))
+                    .iterator();
+            // read ahead before archives are expanded: members read
+            // straight from an archive have to be taken in turn
+            Prefetcher prefetcher = prefetch > 0
+                    ? new Prefetcher(allTasks, prefetch,
+                            prefetchMemory << 20, prefetchThreads)
+                    : null;
+            if (prefetcher != null)
+                allTasks = prefetcher;
+            try {
+                scheduler.run(ArchiveReader.expand(allTasks, decompressor,
+                        threadCount > 1 ? ArchiveReader.MAX_BUFFERED : 0),
+                        task -> {
+                            if (done.contains(task.name)) {
+                                logger.info("Document {} done before, skipped",
+                                        task.name);
+                                try {
+                                    task.skip(decompressor);
+                                } catch (IOException e) {
+                                    throw new RuntimeException(e);
+                                }
+                                return;
+                            }
+                            if (!validate(validator, decompressor, task))
+                                errorCount.getAndIncrement();
+                        });
+            } finally {
+                if (prefetcher != null) {
+                    prefetcher.close();
+                    logger.info(prefetcher.getStatistics());
                 }
-                boolean result;
-                dom = dom || useSchema;
-                logger.info("Validating {} using {}{}", name,
-                        dom ? "DOM" : "SAX",
-                        useSchema ? " and XSD from xsi:schemaLocation" : "");
-                if (dom)
-                    result = validator.validateWithDTDUsingDOM(inputStream,
-                            name, useSchema);
-                else
-                    result = validator.validateWithDTDUsingSAX(inputStream,
-                            name);
-                if (result) {
-                    logger.info("Document {} validated", name);
-                } else {
-                    logger.info("Document {} did not validate", name);
-                    errorCount.getAndIncrement();
-                }
-            } catch (IOException | ParserConfigurationException e) {
-                throw new RuntimeException(e);
             }
-        });
-        if (writeLog)
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (fragmentValidators != null)
+                fragmentValidators.shutdownNow();
+            if (progressReporter != null)
+                progressReporter.shutdownNow();
+        }
+        scheduler.getStatistics().forEach(logger::info);
+        logger.info(ValidationMetrics.getTotals(System.nanoTime() - start));
+        logger.info(validator.getGrammarCache().getStatistics());
+        if (useSchema)
+            logger.info(validator.getSchemaCache().getStatistics());
+        if (validator.getResultCache() != null)
+            logger.info(validator.getResultCache().getStatistics());
+        logger.info("entities loaded from disk or network: {}",
+                entityResolver.getLoaded());
+        if (writeLog && !streamLog)
             validator.writeErrorMap(new File(logFileName));
+        if (statisticsFile != null)
+            logger.info("error statistics written to {}", statisticsFile);
         return errorCount.get();
     }
 
+    /**
+     * @param keepRecord
+     *     whether the errors of every file are kept
+     * @return the options that make a difference to the results, for
+     *     {@link ResultCache}
+     */
+    String resultOptions(boolean keepRecord) {
+        String version;
+        try {
+            version = new VersionProvider().getVersion()[0];
+        } catch (IOException | RuntimeException e) {
+            version = "unknown";
+        }
+        return String.format("version=%s,dom=%b,schema=%b,log=%b,"
+                + "maxOccurrences=%s,maxErrors=%d,validityOnly=%b,"
+                + "offsets=%b", version, dom, useSchema, keepRecord,
+                maxOccurrences, firstError ? 1 : maxErrors, validityOnly,
+                errorOffsets);
+    }
+
+    /**
+     * validate a single file
+     *
+     * @param validator
+     *     the validator
+     * @param decompressor
+     *     opens the file
+     * @param task
+     *     the file and its settings
+     * @return whether the file is valid
+     */
+    static boolean validate(I5Validator validator,
+            Decompressor decompressor, ValidationTask task) {
+        String name = task.name;
+        ResultCache resultCache = validator.getResultCache();
+        ResultCache.Result cached = resultCache != null
+                ? resultCache.lookup(task)
+                : null;
+        if (cached != null) {
+            logger.info("Document {} unchanged, skipped ({})", name,
+                    cached.valid ? "valid" : "invalid");
+            validator.record(name, cached.valid, cached.errors);
+            return cached.valid;
+        }
+        ValidationMetrics metrics = ValidationMetrics.start(name, task.size);
+        boolean result = false;
+        try (InputStream inputStream = metrics
+                .input(task.open(decompressor))) {
+            logger.info("Validating {} using {}{}", name,
+                    task.dom ? "DOM" : "SAX",
+                    task.useSchema ? " and XSD from xsi:schemaLocation" : "");
+            if (task.dom)
+                result = validator.validateWithDTDUsingDOM(inputStream, name,
+                        task.useSchema);
+            else if (task.useSchema)
+                result = validator.validateWithSchema(inputStream, name,
+                        task.systemId);
+            else
+                result = validator.validateWithDTDUsingSAX(inputStream, name);
+            if (result) {
+                logger.info("Document {} validated", name);
+            } else {
+                logger.info("Document {} did not validate", name);
+            }
+            return result;
+        } catch (IOException | ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        } finally {
+            metrics.finish(result);
+            logger.debug("{}", metrics);
+        }
+    }
+
     /**
      * run CLI
      *
@@ -0,0 +1,258 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * finds input files one at a time, as the validators ask for them: in
+ * directory trees, walked depth first like {@link Files#walk(Path,
+ * java.nio.file.FileVisitOption...)}, and in lists of file names, one per
+ * line; so validation starts with the first file found, and the list of
+ * files is never kept as a whole
+ * <p>
+ * a subdirectory that cannot be read is logged and left out, rather than
+ * ending the walk, and with it the run.
+ * <p>
+ * found files are filtered by globs: a glob with a {@code /} is matched
+ * against the path relative to the directory walked (or as listed), any
+ * other against the file name. A file is taken if it matches an include
+ * glob, or there are none, and no exclude glob.
+ */
+class InputFiles implements Iterator<File>, AutoCloseable {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(InputFiles.class.getSimpleName());
+
+    /**
+     * opens a source of files
+     */
+    private interface Source {
+        Stream<File> open() throws IOException;
+    }
+
+    private final Deque<Source> sources = new ArrayDeque<>();
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final List<Boolean> includesPath = new ArrayList<>();
+    private final List<Boolean> excludesPath = new ArrayList<>();
+    private Stream<File> current = null;
+    private Iterator<File> files = null;
+
+    /**
+     * @param directories
+     *     directories to search recursively
+     * @param filesFrom
+     *     file with one file name per line, {@link ValidationTask#STDIN}
+     *     for standard input, or {@code null}
+     * @param includes
+     *     globs of the files to take (all if empty)
+     * @param excludes
+     *     globs of the files to leave out
+     */
+    InputFiles(List<File> directories, File filesFrom, List<String> includes,
+            List<String> excludes) {
+        for (String glob : includes)
+            addGlob(glob, this.includes, includesPath);
+        for (String glob : excludes)
+            addGlob(glob, this.excludes, excludesPath);
+        for (File directory : directories) {
+            Path root = directory.toPath();
+            sources.add(() -> {
+                if (!Files.isDirectory(root))
+                    throw new IOException("not a directory: " + root);
+                Walker walker = new Walker(root);
+                return StreamSupport
+                        .stream(Spliterators.spliteratorUnknownSize(walker,
+                                Spliterator.ORDERED), false)
+                        .onClose(walker::close).filter(Files::isRegularFile)
+                        .filter(path -> matches(root.relativize(path)))
+                        .map(Path::toFile);
+            });
+        }
+        if (filesFrom != null) {
+            sources.add(() -> {
+                BufferedReader reader = ValidationTask.STDIN
+                        .equals(filesFrom.getPath())
+                                ? new BufferedReader(new InputStreamReader(
+                                        System.in, StandardCharsets.UTF_8))
+                                : Files.newBufferedReader(filesFrom.toPath());
+                return reader.lines().map(String::strip)
+                        .filter(line -> !line.isEmpty())
+                        .filter(line -> matches(Path.of(line)))
+                        .map(File::new).onClose(() -> {
+                            try {
+                                reader.close();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+            });
+        }
+    }
+
+    private static void addGlob(String glob, List<PathMatcher> matchers,
+            List<Boolean> isPath) {
+        matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        isPath.add(glob.contains("/"));
+    }
+
+    /**
+     * @param path
+     *     a file, relative to the directory walked or as listed
+     * @return whether to take the file
+     */
+    boolean matches(Path path) {
+        if (!includes.isEmpty() && !matchesAny(path, includes, includesPath))
+            return false;
+        return !matchesAny(path, excludes, excludesPath);
+    }
+
+    private static boolean matchesAny(Path path, List<PathMatcher> matchers,
+            List<Boolean> isPath) {
+        Path name = path.getFileName();
+        for (int i = 0; i < matchers.size(); i++) {
+            if (matchers.get(i).matches(isPath.get(i) ? path : name))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (files == null || !files.hasNext()) {
+            close();
+            if (sources.isEmpty())
+                return false;
+            try {
+                current = sources.removeFirst().open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            files = current.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public File next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return files.next();
+    }
+
+    /**
+     * close the source being read; the others have not been opened
+     */
+    @Override
+    public void close() {
+        if (current != null) {
+            current.close();
+            current = null;
+            files = null;
+        }
+    }
+
+    /**
+     * walks a directory tree depth first, directories before their
+     * contents, without following links to directories; subdirectories
+     * that cannot be opened or read to the end are logged and left out, or
+     * left at that
+     */
+    private static class Walker implements Iterator<Path> {
+
+        /**
+         * the directories being read, innermost last
+         */
+        private final Deque<DirectoryStream<Path>> open = new ArrayDeque<>();
+        private final Deque<Iterator<Path>> entries = new ArrayDeque<>();
+        private Path next = null;
+
+        /**
+         * @param root
+         *     the directory to walk; its entries are found, not itself
+         * @throws IOException
+         *     if it cannot be read
+         */
+        Walker(Path root) throws IOException {
+            enter(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !entries.isEmpty()) {
+                try {
+                    if (entries.getLast().hasNext())
+                        next = entries.getLast().next();
+                    else
+                        leave();
+                } catch (DirectoryIteratorException e) {
+                    logger.warn("cannot read directory, left out: {}",
+                            e.getCause().toString());
+                    leave();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Path next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Path path = next;
+            next = null;
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    enter(path);
+                } catch (IOException e) {
+                    logger.warn("cannot read directory, left out: {}",
+                            e.toString());
+                }
+            }
+            return path;
+        }
+
+        private void enter(Path directory) throws IOException {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+            open.add(stream);
+            entries.add(stream.iterator());
+        }
+
+        private void leave() {
+            entries.removeLast();
+            try {
+                open.removeLast().close();
+            } catch (IOException e) {
+                // only read from
+            }
+        }
+
+        void close() {
+            while (!entries.isEmpty())
+                leave();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * an append-only record of the files finished in a run, so that an
+ * interrupted run can be resumed (see {@link #replay(File, ErrorReport)})
+ * <p>
+ * records are written like those of {@link StreamingErrorReport}, one line
+ * per file. Every record is handed to the operating system at once, so a
+ * killed process loses nothing; the journal is synced to disk every
+ * {@link #SYNC_RECORDS} records or {@link #SYNC_MILLIS} ms, so a machine
+ * crash loses at most those.
+ */
+public class Journal implements ErrorReport {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(Journal.class.getSimpleName());
+
+    static final int SYNC_RECORDS = 100;
+    static final long SYNC_MILLIS = 10_000;
+
+    private final FileOutputStream out;
+    private final JsonGenerator generator;
+    private int unsynced = 0;
+    private long lastSync = System.currentTimeMillis();
+
+    /**
+     * @param file
+     *     the journal
+     * @param append
+     *     whether to add to an existing journal rather than start afresh
+     * @throws IOException
+     *     if the journal cannot be opened
+     */
+    public Journal(File file, boolean append) throws IOException {
+        out = new FileOutputStream(file, append);
+        generator = new ObjectMapper().getFactory().createGenerator(out);
+        generator.setPrettyPrinter(new MinimalPrettyPrinter(""));
+    }
+
+    @Override
+    public synchronized void add(String fileName, boolean valid,
+            Map<String, ErrorInfo> errors) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("file", fileName);
+        generator.writeBooleanField("valid", valid);
+        generator.writeFieldName("errors");
+        generator.writeObject(errors);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.flush();
+        if (++unsynced >= SYNC_RECORDS
+                || System.currentTimeMillis() - lastSync >= SYNC_MILLIS)
+            sync();
+    }
+
+    private void sync() throws IOException {
+        out.getFD().sync();
+        unsynced = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        generator.flush();
+        sync();
+        generator.close();
+    }
+
+    /**
+     * pass the records of a journal on to a report; an incomplete last
+     * record, left by a crash, is cut off
+     *
+     * @param file
+     *     the journal; if it does not exist, there is nothing to replay
+     * @param report
+     *     receives the records
+     * @return the names of the files in the journal
+     * @throws IOException
+     *     if the journal cannot be read
+     */
+    public static Set<String> replay(File file, ErrorReport report)
+            throws IOException {
+        Set<String> names = new HashSet<>();
+        if (!file.exists())
+            return names;
+        ObjectMapper objectMapper = new ObjectMapper();
+        TypeReference<Map<String, ErrorInfo>> errorsType = new TypeReference<>() {
+        };
+        long complete = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            reading: while ((n = in.read(buffer)) > 0) {
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] != '\n')
+                        continue;
+                    line.write(buffer, start, i - start);
+                    start = i + 1;
+                    JsonNode record;
+                    try {
+                        record = objectMapper.readTree(line.toByteArray());
+                    } catch (IOException e) {
+                        break reading;
+                    }
+                    complete += line.size() + 1;
+                    line.reset();
+                    String name = record.get("file").asText();
+                    names.add(name);
+                    report.add(name, record.get("valid").asBoolean(),
+                            objectMapper.convertValue(record.get("errors"),
+                                    errorsType));
+                }
+                line.write(buffer, start, n - start);
+            }
+        }
+        if (complete < file.length()) {
+            logger.warn("{}: cutting off incomplete record at byte {}", file,
+                    complete);
+            try (RandomAccessFile journal = new RandomAccessFile(file,
+                    "rw")) {
+                journal.setLength(complete);
+            }
+        }
+        logger.info("{}: {} files done", file, names.size());
+        return names;
+    }
+}
@@ -0,0 +1,128 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * counts the lines of a document as the parser reads it, to tell the byte
+ * offset of the line an error is reported at (see {@link ContextCommand})
+ * <p>
+ * line breaks are counted as by the parser for XML 1.0: LF, CR LF and CR;
+ * so offsets are right for encodings that write them as single bytes, like
+ * UTF-8 and ISO-8859-1. As the parser reads ahead, the starts of the last
+ * {@link #WINDOW} lines are kept, not just of the current one; lines read
+ * longer ago are not known.
+ */
+class LineIndex extends FilterInputStream {
+
+    /**
+     * lines whose starts are kept, many more than fit into the buffers
+     * between this and the parser, unless lines are very short
+     */
+    static final int WINDOW = 1 << 14;
+    private static final int MASK = WINDOW - 1;
+
+    /**
+     * starts of the last lines, by line number
+     */
+    private final long[] starts = new long[WINDOW];
+    /**
+     * the line being read, from 1
+     */
+    private int line = 1;
+    private long position = 0;
+    private boolean afterCR = false;
+    private final byte[] single = new byte[1];
+
+    /**
+     * @param in
+     *     the document, decompressed
+     */
+    LineIndex(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @param lineNumber
+     *     a line, from 1
+     * @return the byte offset of its start, or -1 if it is not known
+     */
+    long offset(int lineNumber) {
+        if (lineNumber < 1 || lineNumber > line
+                || line - lineNumber >= WINDOW)
+            return -1;
+        return lineNumber == 1 ? 0 : starts[lineNumber & MASK];
+    }
+
+    private void scan(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            byte c = b[i];
+            if (c > '\r') {
+                afterCR = false;
+            } else if (c == '\n') {
+                if (!afterCR)
+                    line++;
+                // after CR, the line starts after the LF
+                starts[line & MASK] = position + i - off + 1;
+                afterCR = false;
+            } else if (c == '\r') {
+                line++;
+                starts[line & MASK] = position + i - off + 1;
+                afterCR = true;
+            } else {
+                afterCR = false;
+            }
+        }
+        position += len;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int c = in.read();
+        if (c >= 0) {
+            single[0] = (byte) c;
+            scan(single, 0, 1);
+        }
+        return c;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0)
+            scan(b, off, n);
+        return n;
+    }
+
+    /**
+     * skipped bytes are read, to count their lines
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipped = new byte[(int) Math.min(n, 1 << 13)];
+        long total = 0;
+        while (total < n) {
+            int read = read(skipped, 0,
+                    (int) Math.min(n - total, skipped.length));
+            if (read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
@@ -0,0 +1,96 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * reads a file through memory-mapped regions instead of read calls, so that
+ * the parser copies straight from the page cache
+ * <p>
+ * the file is mapped in windows of {@link #WINDOW} bytes, one after the
+ * other; a window is unmapped once it is no longer reachable. The file must
+ * not be truncated while it is read.
+ */
+class MappedInputStream extends InputStream {
+
+    /**
+     * size of a mapped region
+     */
+    static final long WINDOW = 256L << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    /**
+     * file position of the end of {@link #window}
+     */
+    private long mapped = 0;
+    private MappedByteBuffer window;
+
+    /**
+     * @param file
+     *     the file
+     * @throws IOException
+     *     if the file cannot be opened
+     */
+    MappedInputStream(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+    }
+
+    /**
+     * @return whether there is more to read
+     */
+    private boolean next() throws IOException {
+        if (window != null && window.hasRemaining())
+            return true;
+        if (mapped >= size)
+            return false;
+        long length = Math.min(WINDOW, size - mapped);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, mapped, length);
+        mapped += length;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return next() ? window.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        if (!next())
+            return -1;
+        length = Math.min(length, window.remaining());
+        window.get(bytes, offset, length);
+        return length;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && next()) {
+            int step = (int) Math.min(n - skipped, window.remaining());
+            window.position(window.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE,
+                size - mapped + (window != null ? window.remaining() : 0));
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
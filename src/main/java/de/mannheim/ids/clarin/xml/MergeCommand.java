@@ -0,0 +1,257 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import picocli.CommandLine;
+
+/**
+ * {@code i5validator merge REPORTS}: put the reports of several runs, e.g.
+ * of the shards of a corpus (see {@link Shard}), together into one
+ * <p>
+ * reports may be JSON files as written with {@code -l} or JSON lines as
+ * written with {@code --stream-log}, possibly compressed. They are read one
+ * file at a time and the merged report is written as it goes, so only the
+ * file names are kept, to leave out files reported twice. The exit status
+ * is the number of invalid files, as for a validation run. JSON files do
+ * not say whether a file is valid; files with errors or fatal errors count
+ * as invalid.
+ */
+@CommandLine.Command(name = "merge", mixinStandardHelpOptions = true,
+        description = "merge the reports of several runs into one")
+public class MergeCommand implements Callable<Integer> {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(MergeCommand.class.getSimpleName());
+
+    private static final TypeReference<Map<String, ErrorInfo>> ERRORS_TYPE = new TypeReference<>() {
+    };
+
+    @CommandLine.Option(names = { "-L",
+            "--log-file" }, description = "merged report (default: "
+                    + I5ValidatorRunner.DEFAULT_LOG + ", "
+                    + StreamingErrorReport.DEFAULT_NAME + " with "
+                    + "--stream-log)")
+    private File output;
+    @CommandLine.Option(names = {
+            "--stream-log" }, description = "write JSON lines, compressed if "
+                    + "the name ends in .gz, .xz or .bz2, instead of one JSON "
+                    + "object")
+    private boolean streamLog = false;
+    @CommandLine.Option(names = {
+            "--statistics" }, description = "also write a summary of the "
+                    + "errors, as with --statistics when validating")
+    private File statisticsFile;
+    @CommandLine.Option(names = {
+            "--top" }, defaultValue = "50", description = "messages to list "
+                    + "in --statistics (default: ${DEFAULT-VALUE})")
+    private int top;
+    @CommandLine.Parameters(arity = "1..*", description = "reports to merge")
+    private List<File> reports = new ArrayList<>();
+
+    @CommandLine.Spec
+    private CommandLine.Model.CommandSpec spec;
+
+    @Override
+    public Integer call() throws IOException {
+        if (statisticsFile != null && top < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "--top must be at least 1");
+        if (output == null)
+            output = new File(streamLog ? StreamingErrorReport.DEFAULT_NAME
+                    : I5ValidatorRunner.DEFAULT_LOG);
+        Set<String> seen = new HashSet<>();
+        int[] invalid = { 0 };
+        int duplicates = 0;
+        try (ErrorReport merged = streamLog
+                ? new StreamingErrorReport(output)
+                : new ObjectReport(new BufferedOutputStream(
+                        new FileOutputStream(output)));
+                ErrorStatistics statistics = statisticsFile != null
+                        ? new ErrorStatistics(statisticsFile, top)
+                        : null) {
+            ErrorReport unique = new ErrorReport() {
+                @Override
+                public void add(String fileName, boolean valid,
+                        Map<String, ErrorInfo> errors) throws IOException {
+                    if (!seen.add(fileName)) {
+                        logger.warn("{} reported more than once, keeping "
+                                + "the first", fileName);
+                        return;
+                    }
+                    if (!valid)
+                        invalid[0]++;
+                    merged.add(fileName, valid, errors);
+                    if (statistics != null)
+                        statistics.add(fileName, valid, errors);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            for (File report : reports) {
+                int files = read(report, unique);
+                logger.info("{}: {} files", report, files);
+                duplicates += files;
+            }
+        }
+        duplicates -= seen.size();
+        logger.info("merged {} files from {} reports into {}, {} invalid{}",
+                seen.size(), reports.size(), output, invalid[0],
+                duplicates > 0 ? ", " + duplicates + " reported twice" : "");
+        return invalid[0];
+    }
+
+    /**
+     * @param file
+     *     a report, possibly compressed
+     * @param report
+     *     receives its files one by one
+     * @return number of files read
+     * @throws IOException
+     *     if the report cannot be read or is not a report
+     */
+    static int read(File file, ErrorReport report) throws IOException {
+        try (InputStream in = Decompressor.decompress(
+                new BufferedInputStream(new FileInputStream(file)),
+                Compression.fromFileName(file.getName(), Compression.none))) {
+            return read(in, report);
+        }
+    }
+
+    /**
+     * @param in
+     *     a report
+     * @param report
+     *     receives its files one by one
+     * @return number of files read
+     * @throws IOException
+     *     if the input cannot be read or is not a report
+     */
+    static int read(InputStream in, ErrorReport report) throws IOException {
+        if (!in.markSupported())
+            in = new BufferedInputStream(in);
+        ObjectMapper objectMapper = new ObjectMapper();
+        int files = 0;
+        if (isJsonLines(in, objectMapper)) {
+            try (MappingIterator<JsonNode> records = objectMapper
+                    .readerFor(JsonNode.class).readValues(in)) {
+                while (records.hasNext()) {
+                    JsonNode record = records.next();
+                    report.add(record.get("file").asText(),
+                            record.get("valid").asBoolean(),
+                            objectMapper.convertValue(record.get("errors"),
+                                    ERRORS_TYPE));
+                    files++;
+                }
+            }
+            return files;
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            if (parser.nextToken() == null)
+                return 0;
+            expect(parser, JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                Map<String, ErrorInfo> errors = objectMapper.readValue(parser,
+                        ERRORS_TYPE);
+                report.add(name, isValid(errors), errors);
+                files++;
+            }
+            expect(parser, JsonToken.END_OBJECT);
+        }
+        return files;
+    }
+
+    /**
+     * @return whether the input starts with a record of
+     *     {@link StreamingErrorReport}, rather than a file name
+     */
+    private static boolean isJsonLines(InputStream in,
+            ObjectMapper objectMapper) throws IOException {
+        in.mark(1 << 16);
+        try {
+            JsonParser parser = objectMapper.getFactory().createParser(in);
+            return parser.nextToken() == JsonToken.START_OBJECT
+                    && parser.nextToken() == JsonToken.FIELD_NAME
+                    && "file".equals(parser.getCurrentName())
+                    && parser.nextToken() == JsonToken.VALUE_STRING;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken token)
+            throws IOException {
+        if (parser.currentToken() != token)
+            throw new IOException("not a report: expected " + token
+                    + ", found " + parser.currentToken() + " at "
+                    + parser.getCurrentLocation());
+    }
+
+    /**
+     * @param errors
+     *     the errors of a file
+     * @return whether there are only warnings
+     */
+    static boolean isValid(Map<String, ErrorInfo> errors) {
+        return errors.keySet().stream().noneMatch(
+                key -> key.startsWith("[ERROR]")
+                        || key.startsWith("[FATAL_ERROR]"));
+    }
+
+    /**
+     * writes the files as one JSON object, as {@link
+     * I5Validator#writeErrorMap(File)} does, but one file at a time
+     */
+    private static class ObjectReport implements ErrorReport {
+
+        private final JsonGenerator generator;
+
+        ObjectReport(OutputStream out) throws IOException {
+            generator = new ObjectMapper().getFactory().createGenerator(out);
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+        }
+
+        @Override
+        public void add(String fileName, boolean valid,
+                Map<String, ErrorInfo> errors) throws IOException {
+            generator.writeFieldName(fileName);
+            generator.writeObject(errors);
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.writeEndObject();
+            generator.close();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * an InputStream filled by a background thread
+ * <p>
+ * the producer runs on its own thread and hands chunks of data to the reader
+ * through a bounded queue. Buffers of a fixed size are recycled, so a steady
+ * stream of data allocates no new memory.
+ */
+class PipelinedInputStream extends InputStream {
+
+    /**
+     * something that writes data into the pipeline
+     */
+    interface Producer {
+        /**
+         * write all data, then return
+         *
+         * @param pipe
+         *     the pipeline to write to
+         * @throws IOException
+         *     in case of error; it is passed on to the reader
+         * @throws InterruptedException
+         *     if the reader has closed the stream
+         */
+        void produce(PipelinedInputStream pipe)
+                throws IOException, InterruptedException;
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+        final boolean recyclable;
+        final IOException failure;
+        /**
+         * run once the reader is done with the chunk, or may be
+         * {@code null}
+         */
+        final Runnable consumed;
+
+        Chunk(byte[] data, int length, boolean recyclable,
+                IOException failure) {
+            this(data, length, recyclable, failure, null);
+        }
+
+        Chunk(byte[] data, int length, boolean recyclable,
+                IOException failure, Runnable consumed) {
+            this.data = data;
+            this.length = length;
+            this.recyclable = recyclable;
+            this.failure = failure;
+            this.consumed = consumed;
+        }
+
+        void release() {
+            if (consumed != null)
+                consumed.run();
+        }
+    }
+
+    private static final Chunk END = new Chunk(new byte[0], 0, false, null);
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final BlockingQueue<Chunk> filled;
+    private final BlockingQueue<byte[]> free;
+    private final Thread thread;
+    private final Closeable source;
+    private int allocated = 0;
+    private Chunk current = new Chunk(new byte[0], 0, false, null);
+    private int position = 0;
+    private boolean finished = false;
+
+    /**
+     * start a pipeline
+     *
+     * @param name
+     *     name of the producer thread
+     * @param source
+     *     closed together with this stream, may be {@code null}
+     * @param chunks
+     *     how many chunks may wait for the reader
+     * @param bufferSize
+     *     size of the recycled buffers
+     * @param producer
+     *     the producer
+     */
+    PipelinedInputStream(String name, Closeable source, int chunks,
+            int bufferSize, Producer producer) {
+        this.bufferSize = bufferSize;
+        this.source = source;
+        filled = new ArrayBlockingQueue<>(chunks);
+        // one more buffer than fits into the queue: the one being read
+        maxBuffers = chunks + 1;
+        free = new ArrayBlockingQueue<>(maxBuffers);
+        thread = new Thread(() -> {
+            try {
+                producer.produce(this);
+                filled.put(END);
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                // closed by the reader
+            } catch (RuntimeException e) {
+                fail(new IOException(e));
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * pass a failure of the producer on to the reader, after the data
+     * produced before it; waits for room in the queue, as the failure must
+     * not be lost, unless the reader closes the stream
+     */
+    private void fail(IOException e) {
+        try {
+            filled.put(new Chunk(null, 0, false, e));
+        } catch (InterruptedException closed) {
+            // closed by the reader
+        }
+    }
+
+    /**
+     * a pipeline that copies a stream, e.g. a decompressor, in the
+     * background
+     *
+     * @param name
+     *     name of the producer thread
+     * @param in
+     *     the stream to read
+     * @param chunks
+     *     how many chunks may wait for the reader
+     * @param bufferSize
+     *     size of the recycled buffers
+     * @return the pipeline
+     */
+    static PipelinedInputStream of(String name, InputStream in, int chunks,
+            int bufferSize) {
+        return new PipelinedInputStream(name, in, chunks, bufferSize,
+                pipe -> {
+                    try (in) {
+                        while (true) {
+                            byte[] buffer = pipe.buffer();
+                            int length = 0;
+                            int n;
+                            try {
+                                while (length < buffer.length
+                                        && (n = in.read(buffer, length,
+                                                buffer.length - length)) > 0)
+                                    length += n;
+                            } catch (IOException e) {
+                                // the data before the error first
+                                if (length > 0)
+                                    pipe.put(buffer, length);
+                                throw e;
+                            }
+                            if (length == 0)
+                                break;
+                            pipe.put(buffer, length);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @return an empty buffer of the pipeline's buffer size
+     * @throws InterruptedException
+     *     if the reader has closed the stream
+     */
+    byte[] buffer() throws InterruptedException {
+        byte[] buffer = free.poll();
+        if (buffer != null)
+            return buffer;
+        if (allocated < maxBuffers) {
+            allocated++;
+            return new byte[bufferSize];
+        }
+        return free.take();
+    }
+
+    /**
+     * hand a buffer obtained from {@link #buffer()} to the reader
+     *
+     * @param buffer
+     *     the buffer
+     * @param length
+     *     number of valid bytes
+     * @throws InterruptedException
+     *     if the reader has closed the stream
+     */
+    void put(byte[] buffer, int length) throws InterruptedException {
+        filled.put(new Chunk(buffer, length, true, null));
+    }
+
+    /**
+     * hand data that is not to be recycled to the reader
+     *
+     * @param data
+     *     the data
+     * @throws InterruptedException
+     *     if the reader has closed the stream
+     */
+    void put(byte[] data) throws InterruptedException {
+        if (data.length > 0)
+            filled.put(new Chunk(data, data.length, false, null));
+    }
+
+    /**
+     * hand data that is not to be recycled to the reader, and learn when the
+     * reader is done with it
+     *
+     * @param data
+     *     the data
+     * @param consumed
+     *     run once the reader has read the data or closed the stream, or
+     *     right away if the data cannot be handed over
+     * @throws InterruptedException
+     *     if the reader has closed the stream
+     */
+    void put(byte[] data, Runnable consumed) throws InterruptedException {
+        if (data.length == 0) {
+            consumed.run();
+            return;
+        }
+        try {
+            filled.put(new Chunk(data, data.length, false, null, consumed));
+        } catch (InterruptedException e) {
+            consumed.run();
+            throw e;
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (finished)
+            return false;
+        if (current.recyclable)
+            free.offer(current.data);
+        current.release();
+        current = END;
+        try {
+            current = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        position = 0;
+        if (current.failure != null) {
+            finished = true;
+            throw current.failure;
+        }
+        if (current == END) {
+            finished = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (position >= current.length) {
+            if (!nextChunk())
+                return -1;
+        }
+        return current.data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (position >= current.length) {
+            if (!nextChunk())
+                return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        thread.interrupt();
+        current.release();
+        current = END;
+        Chunk chunk;
+        while ((chunk = filled.poll()) != null)
+            chunk.release();
+        if (source != null)
+            source.close();
+    }
+}
@@ -0,0 +1,195 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * reads the next files into memory while the current ones are validated, so
+ * that validators do not wait for slow disks or network storage
+ * <p>
+ * up to {@code depth} files ahead are read by a few threads of its own, as
+ * long as they take up no more than the memory budget together; a file is
+ * counted against the budget from when its reading starts until it is
+ * taken by a validator. Files larger than the budget, archives and standard
+ * input are passed on as they are, and so are files that cannot be read,
+ * for the error to be reported when they are validated. The order of the
+ * files is kept.
+ * <p>
+ * like the tasks it wraps, it is not thread-safe; {@link
+ * ValidationScheduler} takes tasks one at a time.
+ */
+class Prefetcher implements Iterator<ValidationTask>, AutoCloseable {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(Prefetcher.class.getSimpleName());
+
+    /**
+     * a task and the bytes it holds of the budget
+     */
+    private static class Entry {
+        final CompletableFuture<ValidationTask> task;
+        final long reserved;
+
+        Entry(CompletableFuture<ValidationTask> task, long reserved) {
+            this.task = task;
+            this.reserved = reserved;
+        }
+    }
+
+    private final Iterator<ValidationTask> tasks;
+    private final int depth;
+    private final long memory;
+    private final ExecutorService readers;
+    private final Deque<Entry> ahead = new ArrayDeque<>();
+    /**
+     * next task, taken but waiting for room in the budget
+     */
+    private ValidationTask waiting = null;
+    private long reserved = 0;
+    private int prefetched = 0;
+    private long prefetchedBytes = 0;
+    private int passedOn = 0;
+
+    /**
+     * @param tasks
+     *     the tasks to read ahead
+     * @param depth
+     *     how many tasks to read ahead
+     * @param memory
+     *     bytes to hold at most in tasks read ahead
+     * @param threads
+     *     number of threads to read with
+     */
+    Prefetcher(Iterator<ValidationTask> tasks, int depth, long memory,
+            int threads) {
+        if (depth < 1 || threads < 1)
+            throw new IllegalArgumentException(
+                    "need to read at least one file ahead with at least one "
+                            + "thread");
+        this.tasks = tasks;
+        this.depth = depth;
+        this.memory = memory;
+        AtomicInteger threadNumber = new AtomicInteger();
+        readers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r,
+                    "prefetch-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return whether a task is read into memory rather than passed on
+     */
+    private boolean fetches(ValidationTask task) {
+        return task.file != null && !task.archive && task.size <= memory;
+    }
+
+    /**
+     * start reading tasks until {@code depth} are ahead or the budget is
+     * used up
+     */
+    private void fill() {
+        while (ahead.size() < depth) {
+            ValidationTask task = waiting;
+            if (task == null) {
+                if (!tasks.hasNext())
+                    return;
+                task = tasks.next();
+            }
+            waiting = null;
+            if (!fetches(task)) {
+                ahead.add(new Entry(CompletableFuture.completedFuture(task),
+                        0));
+                continue;
+            }
+            if (reserved + task.size > memory) {
+                // only while tasks are ahead, which free the budget when
+                // taken
+                waiting = task;
+                return;
+            }
+            reserved += task.size;
+            ValidationTask file = task;
+            ahead.add(new Entry(
+                    CompletableFuture.supplyAsync(() -> read(file), readers),
+                    task.size));
+        }
+    }
+
+    /**
+     * @return the task with its file in memory, or as it is if the file
+     *     cannot be read
+     */
+    private static ValidationTask read(ValidationTask task) {
+        try {
+            byte[] data = Files.readAllBytes(task.file.toPath());
+            return new ValidationTask(task.name, task.systemId, data,
+                    task.compression, task.dom, task.useSchema);
+        } catch (IOException | OutOfMemoryError e) {
+            logger.debug("could not read {} ahead: {}", task.name,
+                    e.toString());
+            return task;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !ahead.isEmpty();
+    }
+
+    @Override
+    public ValidationTask next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Entry entry = ahead.removeFirst();
+        ValidationTask task;
+        try {
+            task = entry.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        reserved -= entry.reserved;
+        if (task.data != null) {
+            prefetched++;
+            prefetchedBytes += task.size;
+        } else {
+            passedOn++;
+        }
+        fill();
+        return task;
+    }
+
+    /**
+     * @return how many files were read ahead
+     */
+    String getStatistics() {
+        return String.format(
+                "read ahead: %d files, %.1f MiB; passed on: %d files",
+                prefetched, prefetchedBytes / (double) (1 << 20), passedOn);
+    }
+
+    /**
+     * stop reading ahead; files being read are dropped
+     */
+    @Override
+    public void close() {
+        readers.shutdownNow();
+    }
+}
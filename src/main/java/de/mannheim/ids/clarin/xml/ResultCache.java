@@ -0,0 +1,314 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * validation results of earlier runs, kept in a directory, so that unchanged
+ * documents need not be validated again
+ * <p>
+ * a result is found by a key made of
+ * <ul>
+ * <li>the SHA-256 of the document as stored (compressed or not),</li>
+ * <li>the SHA-256 of the DTD in its DOCTYPE, or of the XSDs in its
+ * {@code xsi:schemaLocation} or {@code xsi:noNamespaceSchemaLocation}, as
+ * resolved by the entity resolver, and</li>
+ * <li>the options that make a difference to the result.</li>
+ * </ul>
+ * Only the main DTD or XSD is hashed, not the modules it refers to.
+ * Results are stored as {@code <key[0..2]>/<key>.json}, written atomically.
+ * Documents on standard input and large archive members read straight from
+ * the archive cannot be hashed before validation and are always validated.
+ */
+public class ResultCache {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(ResultCache.class.getSimpleName());
+
+    /**
+     * grammar declarations are looked for in this many bytes at the start
+     * of a document
+     */
+    private static final int HEAD_SIZE = 64 << 10;
+
+    private static final Pattern DOCTYPE = Pattern.compile(
+            "<!DOCTYPE\\s+[^\\s\\[>]+\\s+(?:PUBLIC\\s+([\"'])(.*?)\\1\\s+"
+                    + "([\"'])(.*?)\\3|SYSTEM\\s+([\"'])(.*?)\\5)",
+            Pattern.DOTALL);
+    private static final Pattern SCHEMA_LOCATION = Pattern.compile(
+            "\\b(?:[\\w.-]+:)?(noNamespaceSchemaLocation|schemaLocation)"
+                    + "\\s*=\\s*([\"'])(.*?)\\2",
+            Pattern.DOTALL);
+
+    /**
+     * a cached result
+     */
+    static class Result {
+        final boolean valid;
+        final Map<String, ErrorInfo> errors;
+
+        Result(boolean valid, Map<String, ErrorInfo> errors) {
+            this.valid = valid;
+            this.errors = errors;
+        }
+    }
+
+    private final Path directory;
+    private final EntityResolver entityResolver;
+    private final String options;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    /**
+     * hashes of grammars, by location
+     */
+    private final Map<String, String> grammarHashes = new ConcurrentHashMap<>();
+    /**
+     * keys of documents being validated, by name
+     */
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong uncached = new AtomicLong();
+
+    /**
+     * @param directory
+     *     where results are kept
+     * @param entityResolver
+     *     resolves DTDs and XSDs, as for validation
+     * @param options
+     *     the options that make a difference to the results, e.g.
+     *     {@code dom=false,schema=true}
+     */
+    public ResultCache(File directory, EntityResolver entityResolver,
+            String options) {
+        this.directory = directory.toPath();
+        this.entityResolver = entityResolver;
+        this.options = options;
+    }
+
+    /**
+     * look up the result for a document; if there is none, the key is kept
+     * for {@link #store(String, boolean, Map)}
+     *
+     * @param task
+     *     the document
+     * @return its result from an earlier run, or {@code null}
+     */
+    Result lookup(ValidationTask task) {
+        String key;
+        try {
+            key = key(task);
+        } catch (IOException e) {
+            logger.debug("{}: not cached: {}", task.name, e.getMessage());
+            key = null;
+        }
+        if (key == null) {
+            uncached.incrementAndGet();
+            return null;
+        }
+        Path file = path(key);
+        if (Files.isRegularFile(file)) {
+            try {
+                JsonNode entry = objectMapper.readTree(file.toFile());
+                Map<String, ErrorInfo> errors = objectMapper.convertValue(
+                        entry.get("errors"),
+                        new TypeReference<Map<String, ErrorInfo>>() {
+                        });
+                hits.incrementAndGet();
+                return new Result(entry.get("valid").asBoolean(), errors);
+            } catch (IOException | IllegalArgumentException e) {
+                logger.warn("{}: cannot read cached result {}: {}",
+                        task.name, file, e.getMessage());
+            }
+        }
+        misses.incrementAndGet();
+        pending.put(task.name, key);
+        return null;
+    }
+
+    /**
+     * keep the result of a document looked up with
+     * {@link #lookup(ValidationTask)}
+     *
+     * @param name
+     *     the document's name
+     * @param valid
+     *     whether it is valid
+     * @param errors
+     *     its errors
+     */
+    void store(String name, boolean valid, Map<String, ErrorInfo> errors) {
+        String key = pending.remove(name);
+        if (key == null)
+            return;
+        Path file = path(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Map<String, Object> entry = Map.of("file", name, "valid", valid,
+                    "errors", errors);
+            CachingEntityResolver.moveIntoPlace(file.getParent(), file,
+                    objectMapper.writeValueAsBytes(entry));
+        } catch (IOException e) {
+            logger.warn("{}: cannot cache result: {}", name, e.getMessage());
+        }
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".json");
+    }
+
+    /**
+     * @return the key of a document, or {@code null} if it cannot be hashed
+     *     before validation
+     */
+    private String key(ValidationTask task) throws IOException {
+        String content;
+        byte[] head;
+        if (task.file != null) {
+            content = sha256(new FileInputStream(task.file));
+            try (InputStream in = Decompressor.decompress(
+                    new FileInputStream(task.file), task.compression)) {
+                head = in.readNBytes(HEAD_SIZE);
+            }
+        } else if (task.data != null) {
+            content = sha256(new ByteArrayInputStream(task.data));
+            try (InputStream in = Decompressor.decompress(
+                    new ByteArrayInputStream(task.data), task.compression)) {
+                head = in.readNBytes(HEAD_SIZE);
+            }
+        } else {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(content);
+        for (String grammar : grammars(task, head))
+            key.append(' ').append(grammarHashes.computeIfAbsent(grammar,
+                    this::hashGrammar));
+        key.append(' ').append(options);
+        return sha256(new ByteArrayInputStream(
+                key.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return the locations of the grammars a document is validated
+     *     against, each as {@code publicId systemId}
+     */
+    private static List<String> grammars(ValidationTask task, byte[] head) {
+        String start = new String(head, StandardCharsets.ISO_8859_1);
+        List<String> grammars = new ArrayList<>();
+        if (task.useSchema) {
+            int root = rootStart(start);
+            if (root < 0)
+                return grammars;
+            String tag = start.substring(root,
+                    Math.max(root, start.indexOf('>', root)));
+            Matcher matcher = SCHEMA_LOCATION.matcher(tag);
+            URI base = URI.create(task.systemId);
+            while (matcher.find()) {
+                String[] parts = matcher.group(3).trim().split("\\s+");
+                boolean pairs = matcher.group(1).equals("schemaLocation");
+                for (int i = pairs ? 1 : 0; i < parts.length; i += pairs ? 2
+                        : 1)
+                    grammars.add(" " + base.resolve(parts[i]));
+            }
+        } else {
+            Matcher matcher = DOCTYPE.matcher(start);
+            if (matcher.find()) {
+                String publicId = matcher.group(2) != null ? matcher.group(2)
+                        : "";
+                String systemId = matcher.group(4) != null ? matcher.group(4)
+                        : matcher.group(6);
+                // without a base URI, the parser resolves against the
+                // working directory
+                grammars.add(publicId + " " + Paths.get("").toAbsolutePath()
+                        .toUri().resolve(systemId));
+            }
+        }
+        return grammars;
+    }
+
+    /**
+     * @return the offset of the root element's start tag
+     */
+    private static int rootStart(String start) {
+        int i = 0;
+        while ((i = start.indexOf('<', i)) >= 0) {
+            if (i + 1 < start.length() && start.charAt(i + 1) != '?'
+                    && start.charAt(i + 1) != '!')
+                return i;
+            i++;
+        }
+        return -1;
+    }
+
+    private String hashGrammar(String grammar) {
+        int space = grammar.indexOf(' ');
+        String publicId = space > 0 ? grammar.substring(0, space) : null;
+        String systemId = grammar.substring(space + 1);
+        try {
+            InputSource source = entityResolver.resolveEntity(publicId,
+                    systemId);
+            InputStream in = source != null ? source.getByteStream()
+                    : new URI(systemId).toURL().openStream();
+            return sha256(in);
+        } catch (Exception e) {
+            // the grammar is as unavailable as it will be to the parser
+            return "unavailable";
+        }
+    }
+
+    static String sha256(InputStream in) throws IOException {
+        try (DigestInputStream digesting = new DigestInputStream(in,
+                MessageDigest.getInstance("SHA-256"))) {
+            digesting.transferTo(NullOutputStream.NULL_OUTPUT_STREAM);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digesting.getMessageDigest().digest())
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return a one-line summary of cache use
+     */
+    public String getStatistics() {
+        return String.format("result cache: %d unchanged files skipped, %d "
+                + "validated, %d not cacheable", hits.get(), misses.get(),
+                uncached.get());
+    }
+
+    /**
+     * @return number of documents whose results were taken from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+}
@@ -0,0 +1,155 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.apache.xerces.dom.DOMInputImpl;
+import org.apache.xerces.jaxp.validation.XMLSchemaFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.ls.LSException;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * compiled XSDs, keyed by their locations
+ * <p>
+ * a {@link Schema} is immutable and can be used by many threads at once, so
+ * every XSD (or combination of XSDs) is compiled only once per run. XSDs and
+ * the files they include or import are read through the entity resolver.
+ */
+public class SchemaCache {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(SchemaCache.class.getSimpleName());
+
+    private final Map<List<String>, Schema> schemas = new ConcurrentHashMap<>();
+    private final EntityResolver entityResolver;
+    /**
+     * not thread-safe; guarded by itself
+     */
+    private final SchemaFactory factory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param entityResolver
+     *     reads XSDs
+     */
+    public SchemaCache(EntityResolver entityResolver) {
+        this.entityResolver = entityResolver;
+        factory = new XMLSchemaFactory();
+        factory.setResourceResolver(new ResourceResolver());
+    }
+
+    /**
+     * resolves includes and imports through the entity resolver
+     */
+    private class ResourceResolver implements LSResourceResolver {
+        @Override
+        public LSInput resolveResource(String type, String namespaceURI,
+                String publicId, String systemId, String baseURI) {
+            if (systemId == null)
+                return null;
+            String location = baseURI != null
+                    ? URI.create(baseURI).resolve(systemId).toString()
+                    : systemId;
+            try {
+                InputSource source = entityResolver.resolveEntity(publicId,
+                        location);
+                if (source == null)
+                    return null;
+                return new DOMInputImpl(publicId, location, baseURI,
+                        source.getByteStream(), source.getEncoding());
+            } catch (SAXException | IOException e) {
+                // unwrapped in get()
+                LSException failure = new LSException(LSException.PARSE_ERR,
+                        "cannot read " + location + ": " + e.getMessage());
+                failure.initCause(e);
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * @param locations
+     *     absolute URIs of the XSDs making up the schema
+     * @return the compiled schema
+     * @throws SAXException
+     *     if an XSD is invalid
+     * @throws IOException
+     *     if an XSD cannot be read
+     */
+    public Schema get(List<String> locations)
+            throws SAXException, IOException {
+        Schema schema = schemas.get(locations);
+        if (schema != null) {
+            hits.incrementAndGet();
+            return schema;
+        }
+        synchronized (factory) {
+            schema = schemas.get(locations);
+            if (schema != null) {
+                hits.incrementAndGet();
+                return schema;
+            }
+            logger.info("compiling XSD {}", locations);
+            Source[] sources = new Source[locations.size()];
+            for (int i = 0; i < sources.length; i++) {
+                InputSource source = entityResolver.resolveEntity(null,
+                        locations.get(i));
+                if (source == null)
+                    source = new InputSource(locations.get(i));
+                sources[i] = new SAXSource(source);
+                sources[i].setSystemId(locations.get(i));
+            }
+            try {
+                schema = factory.newSchema(sources);
+            } catch (LSException e) {
+                // an included or imported XSD that cannot be read
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                if (e.getCause() instanceof SAXException)
+                    throw (SAXException) e.getCause();
+                throw e;
+            }
+            schemas.put(List.copyOf(locations), schema);
+            misses.incrementAndGet();
+            return schema;
+        }
+    }
+
+    /**
+     * @return number of schemas taken from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of schemas compiled
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return a one-line summary of cache use
+     */
+    public String getStatistics() {
+        return String.format("schema cache: %d hits, %d misses", getHits(),
+                getMisses());
+    }
+}
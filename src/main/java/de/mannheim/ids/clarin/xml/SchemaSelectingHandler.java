@@ -0,0 +1,198 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.ValidatorHandler;
+
+import org.apache.xerces.impl.XMLErrorReporter;
+import org.apache.xerces.impl.xs.XSMessageFormatter;
+import org.apache.xerces.xni.parser.XMLErrorHandler;
+import org.apache.xerces.xni.parser.XMLParseException;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * validates a stream of SAX events against the XSD named by the root
+ * element's {@code xsi:schemaLocation} or
+ * {@code xsi:noNamespaceSchemaLocation}
+ * <p>
+ * events before the root element are held back until the schema is known;
+ * after that, everything is passed on to a {@link ValidatorHandler} of the
+ * (cached) schema. No tree is built, so memory use does not depend on the
+ * size of the document.
+ */
+class SchemaSelectingHandler extends DefaultHandler {
+
+    private final SchemaCache schemas;
+    private final String baseURI;
+    private final XMLErrorHandler errorHandler;
+    private final Consumer<XMLErrorReporter> reporters;
+
+    private Locator locator;
+    private final List<String[]> prefixMappings = new ArrayList<>();
+    private boolean rootSeen = false;
+    /**
+     * where events go once the schema is known; none if there is no schema
+     */
+    private ContentHandler validator = new DefaultHandler();
+
+    /**
+     * @param schemas
+     *     the compiled schemas
+     * @param baseURI
+     *     URI of the document, to resolve relative schema locations against
+     * @param errorHandler
+     *     receives validation errors
+     * @param reporters
+     *     receives the error reporter of the schema validator, before it
+     *     reports anything
+     */
+    SchemaSelectingHandler(SchemaCache schemas, String baseURI,
+            XMLErrorHandler errorHandler,
+            Consumer<XMLErrorReporter> reporters) {
+        this.schemas = schemas;
+        this.baseURI = baseURI;
+        this.errorHandler = errorHandler;
+        this.reporters = reporters;
+    }
+
+    /**
+     * @param attributes
+     *     the root element's attributes
+     * @return the absolute locations of the XSDs
+     */
+    private List<String> schemaLocations(Attributes attributes) {
+        List<String> locations = new ArrayList<>();
+        String hints = attributes.getValue(
+                XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
+        if (hints != null) {
+            String[] pairs = hints.trim().split("\\s+");
+            for (int i = 1; i < pairs.length; i += 2)
+                locations.add(resolve(pairs[i]));
+        }
+        String noNamespace = attributes.getValue(
+                XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI,
+                "noNamespaceSchemaLocation");
+        if (noNamespace != null)
+            locations.add(resolve(noNamespace.trim()));
+        return locations;
+    }
+
+    private String resolve(String location) {
+        return baseURI != null ? URI.create(baseURI).resolve(location).toString()
+                : location;
+    }
+
+    /**
+     * report a problem with the schema itself as a validation error
+     */
+    private void schemaError(String key, String message) {
+        errorHandler.error(XSMessageFormatter.SCHEMA_DOMAIN, key,
+                new XMLParseException(null, message));
+    }
+
+    /**
+     * set up validation, once the root element is there
+     */
+    private void selectSchema(Attributes attributes) throws SAXException {
+        List<String> locations = schemaLocations(attributes);
+        if (locations.isEmpty()) {
+            schemaError("no-schema-location", "root element has neither "
+                    + "xsi:schemaLocation nor xsi:noNamespaceSchemaLocation");
+            return;
+        }
+        ValidatorHandler handler;
+        try {
+            handler = schemas.get(locations).newValidatorHandler();
+        } catch (SAXException | IOException e) {
+            schemaError("schema-not-loaded",
+                    "cannot load XSD " + locations + ": " + e.getMessage());
+            return;
+        }
+        XMLErrorReporter reporter = (XMLErrorReporter) handler
+                .getProperty(DeferredMessageFormatter.ERROR_REPORTER);
+        DeferredMessageFormatter.install(reporter);
+        reporters.accept(reporter);
+        handler.setProperty(DeferredMessageFormatter.ERROR_HANDLER,
+                errorHandler);
+        if (locator != null)
+            handler.setDocumentLocator(locator);
+        handler.startDocument();
+        for (String[] mapping : prefixMappings)
+            handler.startPrefixMapping(mapping[0], mapping[1]);
+        validator = handler;
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri)
+            throws SAXException {
+        if (rootSeen)
+            validator.startPrefixMapping(prefix, uri);
+        else
+            prefixMappings.add(new String[] { prefix, uri });
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        validator.endPrefixMapping(prefix);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+            Attributes attributes) throws SAXException {
+        if (!rootSeen) {
+            rootSeen = true;
+            selectSchema(attributes);
+        }
+        validator.startElement(uri, localName, qName, attributes);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName)
+            throws SAXException {
+        validator.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length)
+            throws SAXException {
+        validator.characters(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length)
+            throws SAXException {
+        validator.ignorableWhitespace(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data)
+            throws SAXException {
+        if (rootSeen)
+            validator.processingInstruction(target, data);
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException {
+        validator.skippedEntity(name);
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        if (rootSeen)
+            validator.endDocument();
+    }
+}
@@ -0,0 +1,146 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+
+/**
+ * reads a (possibly compressed) document from a byte offset of its
+ * decompressed content, as recorded with errors (see {@link LineIndex})
+ * <p>
+ * uncompressed files are read from the offset directly, xz files from the
+ * start of the block containing it, found in the index at the end of every
+ * xz stream; so a multi-block xz file (as written by {@code xz -T}) is
+ * decompressed only from a block before the offset. gzip and bzip2 files
+ * are decompressed up to the offset, as they have no such index; seeking
+ * forward goes on from the last offset, so offsets are best visited in
+ * order.
+ */
+class SeekableDocument implements AutoCloseable {
+
+    private final File file;
+    private final Compression compression;
+    private FileChannel channel = null;
+    private SeekableXZInputStream xz = null;
+    /**
+     * gzip or bzip2 data, decompressed up to {@link #position}
+     */
+    private InputStream sequential = null;
+    private long position = 0;
+
+    /**
+     * @param file
+     *     the document
+     * @param compression
+     *     its compression
+     * @throws IOException
+     *     if it cannot be opened
+     */
+    SeekableDocument(File file, Compression compression) throws IOException {
+        this.file = file;
+        this.compression = compression;
+        switch (compression) {
+        case none:
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ);
+            break;
+        case xz:
+            xz = new SeekableXZInputStream(new SeekableFileInputStream(file));
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * @param offset
+     *     a byte offset in the decompressed document
+     * @return the document from there; it must not be closed, and is only
+     *     valid until the next call
+     * @throws IOException
+     *     if the document cannot be read, or is shorter than the offset
+     */
+    InputStream at(long offset) throws IOException {
+        if (channel != null) {
+            channel.position(offset);
+            return new BufferedInputStream(Channels.newInputStream(channel));
+        }
+        if (xz != null) {
+            xz.seek(offset);
+            return xz;
+        }
+        if (sequential == null || offset < position) {
+            if (sequential != null)
+                sequential.close();
+            sequential = new Counting(Decompressor.decompress(
+                    new BufferedInputStream(new FileInputStream(file)),
+                    compression));
+            position = 0;
+        }
+        while (position < offset) {
+            if (sequential.skip(offset - position) <= 0
+                    && sequential.read() < 0)
+                throw new EOFException(file + " ends before offset "
+                        + offset);
+        }
+        return sequential;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+        if (xz != null)
+            xz.close();
+        if (sequential != null)
+            sequential.close();
+    }
+
+    /**
+     * keeps {@link #position} up to date
+     */
+    private class Counting extends FilterInputStream {
+
+        Counting(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = in.read();
+            if (c >= 0)
+                position++;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0)
+                position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
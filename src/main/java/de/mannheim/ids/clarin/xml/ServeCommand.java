@@ -0,0 +1,46 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import picocli.CommandLine;
+
+/**
+ * {@code i5validator [options] serve}: run a {@link ValidationServer} with
+ * the validation options given before {@code serve}, until killed
+ */
+@CommandLine.Command(name = "serve", mixinStandardHelpOptions = true,
+        description = "keep a validator running and validate files sent "
+                + "over HTTP on the loopback interface; validation "
+                + "options go before 'serve'")
+public class ServeCommand implements Callable<Integer> {
+
+    @CommandLine.ParentCommand
+    private I5ValidatorRunner options;
+
+    @CommandLine.Option(names = { "--port" }, defaultValue = "7435",
+            description = "port to listen on, 0 for any free one (default: "
+                    + "${DEFAULT-VALUE})")
+    private int port;
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        options.checkOptions();
+        I5Validator validator = options.createValidator(
+                options.createEntityResolver(), true);
+        Decompressor decompressor = options.createDecompressor();
+        ValidationServer server = new ValidationServer(validator,
+                decompressor, options.getCompression(), options.isDom(),
+                options.isUseSchema(), port, options.threadCount());
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            decompressor.close();
+            stopped.countDown();
+        }));
+        server.start();
+        stopped.await();
+        return 0;
+    }
+}
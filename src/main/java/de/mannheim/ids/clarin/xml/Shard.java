@@ -0,0 +1,132 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import picocli.CommandLine;
+
+/**
+ * one of {@code n} parts of the input, so that several machines given the
+ * same arguments validate disjoint sets of files that together are all of
+ * them
+ * <p>
+ * files named on the command line are known with their sizes, and are dealt
+ * out largest first, each to the part with the fewest bytes so far; ties go
+ * by name, so every machine deals them out alike. Files found in
+ * directories or lists (see {@link InputFiles}) arrive one at a time and go
+ * by a hash of their name.
+ */
+class Shard {
+
+    /**
+     * this part, from 0
+     */
+    final int index;
+    final int count;
+
+    /**
+     * @param index
+     *     this part, from 0
+     * @param count
+     *     number of parts
+     */
+    Shard(int index, int count) {
+        if (count < 1 || index < 0 || index >= count)
+            throw new IllegalArgumentException(
+                    "need 1 <= i <= n for shard i/n, not " + (index + 1) + "/"
+                            + count);
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * @param shard
+     *     {@code i/n}, with {@code i} from 1 to {@code n}
+     * @return the shard
+     */
+    static Shard parse(String shard) {
+        String[] parts = shard.split("/", -1);
+        if (parts.length != 2)
+            throw new IllegalArgumentException(
+                    "shard must be given as i/n, not " + shard);
+        try {
+            return new Shard(Integer.parseInt(parts[0].trim()) - 1,
+                    Integer.parseInt(parts[1].trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "shard must be given as i/n, not " + shard);
+        }
+    }
+
+    /**
+     * @param tasks
+     *     all files known in advance
+     * @return those in this part, in their order
+     */
+    List<ValidationTask> select(List<ValidationTask> tasks) {
+        List<ValidationTask> sorted = new ArrayList<>(tasks);
+        sorted.sort(Comparator.comparingLong((ValidationTask t) -> t.size)
+                .reversed().thenComparing(t -> t.name));
+        long[] bytes = new long[count];
+        Set<ValidationTask> mine = Collections
+                .newSetFromMap(new IdentityHashMap<>());
+        for (ValidationTask task : sorted) {
+            int least = 0;
+            for (int i = 1; i < count; i++) {
+                if (bytes[i] < bytes[least])
+                    least = i;
+            }
+            bytes[least] += Math.max(task.size, 1);
+            if (least == index)
+                mine.add(task);
+        }
+        List<ValidationTask> selected = new ArrayList<>();
+        for (ValidationTask task : tasks) {
+            if (mine.contains(task))
+                selected.add(task);
+        }
+        return selected;
+    }
+
+    /**
+     * @param name
+     *     a file found as it goes
+     * @return whether it is in this part
+     */
+    boolean contains(String name) {
+        // FNV-1a, then mixed as in MurmurHash3, the same on every machine
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return Long.remainderUnsigned(hash, count) == index;
+    }
+
+    @Override
+    public String toString() {
+        return (index + 1) + "/" + count;
+    }
+
+    /**
+     * reads {@code --shard i/n}
+     */
+    static class Converter implements CommandLine.ITypeConverter<Shard> {
+        @Override
+        public Shard convert(String value) {
+            try {
+                return parse(value);
+            } catch (IllegalArgumentException e) {
+                throw new CommandLine.TypeConversionException(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * writes the errors as newline-delimited JSON, one record per file
+ * <p>
+ * a record is written (and flushed) as soon as a file is done, so memory use
+ * does not grow with the number of files, and a crashed run leaves a report
+ * of all files finished so far. Records look like
+ * <pre>
+ * {"file":"a.i5.xml","valid":false,"errors":{"[ERROR] …":{"occurrences":[…]}}}
+ * </pre>
+ * The output is compressed if the file name ends in {@code .gz}, {@code .xz}
+ * or {@code .bz2}. gzip and xz output is flushed with every record, but
+ * bzip2 can only be written in whole blocks of 900 kB: a bzip2 report is
+ * only complete once closed, and a crashed run loses the records of its
+ * last block.
+ */
+public class StreamingErrorReport implements ErrorReport {
+
+    /**
+     * default name of a report written with {@code --stream-log}
+     */
+    static final String DEFAULT_NAME = "i5validation.jsonl";
+
+    private final JsonGenerator generator;
+
+    /**
+     * @param file
+     *     the output file
+     * @throws IOException
+     *     if the file cannot be created
+     */
+    public StreamingErrorReport(File file) throws IOException {
+        this(compress(new BufferedOutputStream(new FileOutputStream(file)),
+                Compression.fromFileName(file.getName(), Compression.none)));
+    }
+
+    /**
+     * @param out
+     *     the output, closed with the report
+     * @throws IOException
+     *     if the output cannot be written
+     */
+    public StreamingErrorReport(OutputStream out) throws IOException {
+        generator = new ObjectMapper().getFactory().createGenerator(out);
+        generator.setPrettyPrinter(new MinimalPrettyPrinter(""));
+    }
+
+    private static OutputStream compress(OutputStream out,
+            Compression compression) throws IOException {
+        switch (compression) {
+        case gzip:
+            return new GZIPOutputStream(out, true);
+        case xz:
+            return new XZCompressorOutputStream(out);
+        case bzip2:
+            return new BZip2CompressorOutputStream(out);
+        case none:
+        default:
+            return out;
+        }
+    }
+
+    @Override
+    public void add(String fileName, boolean valid,
+            Map<String, ErrorInfo> errors) throws IOException {
+        add(fileName, valid, errors, null);
+    }
+
+    @Override
+    public synchronized void add(String fileName, boolean valid,
+            Map<String, ErrorInfo> errors, ValidationMetrics metrics)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("file", fileName);
+        generator.writeBooleanField("valid", valid);
+        generator.writeFieldName("errors");
+        generator.writeObject(errors);
+        if (metrics != null) {
+            generator.writeFieldName("metrics");
+            generator.writeObject(metrics.toMap());
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        generator.close();
+    }
+}
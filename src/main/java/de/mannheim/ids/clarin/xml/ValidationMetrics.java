@@ -0,0 +1,374 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * where the time goes while a file is validated
+ * <p>
+ * the phases overlap as follows: <em>read</em> is the time the parser waits
+ * for input, i.e. reading and decompressing unless that happens in the
+ * background; <em>grammar</em> is the time spent loading and compiling
+ * DTDs, including <em>entity</em>, the time the entity resolver spends
+ * loading DTDs and entities; <em>errors</em> is the time spent handling
+ * errors; <em>parse</em> is the rest. Stored (compressed) bytes are only
+ * counted when a file is decompressed sequentially; otherwise its size is
+ * used.
+ * <p>
+ * the measurements of the file being validated on a thread are found with
+ * {@link #current()}, so that the grammar cache, the entity resolver and the
+ * error handlers can add to them. Every file is also recorded as a JDK
+ * Flight Recorder event {@code de.mannheim.ids.clarin.xml.Validation}.
+ */
+public class ValidationMetrics {
+
+    private static final ThreadLocal<ValidationMetrics> CURRENT = new ThreadLocal<>();
+    private static final Set<ValidationMetrics> IN_FLIGHT = ConcurrentHashMap
+            .newKeySet();
+    private static final AtomicLong TOTAL_STORED = new AtomicLong();
+    private static final AtomicLong TOTAL_BYTES = new AtomicLong();
+
+    /**
+     * the flight recorder event for a file
+     */
+    @Name("de.mannheim.ids.clarin.xml.Validation")
+    @Label("Validation")
+    @Description("a file validated, with the time spent in each phase")
+    @Category("I5Validator")
+    @StackTrace(false)
+    static class ValidationEvent extends Event {
+        @Label("File")
+        String file;
+        @Label("Valid")
+        boolean valid;
+        @Label("Stored Bytes")
+        @DataAmount
+        long storedBytes;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Read Time")
+        @Timespan
+        long readTime;
+        @Label("Grammar Time")
+        @Timespan
+        long grammarTime;
+        @Label("Entity Time")
+        @Timespan
+        long entityTime;
+        @Label("Error Handling Time")
+        @Timespan
+        long errorTime;
+    }
+
+    final String name;
+    /**
+     * the stored size, 0 if unknown
+     */
+    final long size;
+    private final long startNanos = System.nanoTime();
+    private final ValidationEvent event = new ValidationEvent();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong grammarNanos = new AtomicLong();
+    private final AtomicLong entityNanos = new AtomicLong();
+    private final AtomicLong errorNanos = new AtomicLong();
+    private volatile long wallNanos = -1;
+    /**
+     * start of the grammar being loaded, or -1
+     */
+    private long grammarStart = -1;
+
+    private ValidationMetrics(String name, long size) {
+        this.name = name;
+        this.size = size;
+    }
+
+    /**
+     * start measuring the validation of a file on this thread
+     *
+     * @param name
+     *     the file name
+     * @param size
+     *     its stored size, 0 if unknown
+     * @return the measurements
+     */
+    static ValidationMetrics start(String name, long size) {
+        ValidationMetrics metrics = new ValidationMetrics(name, size);
+        metrics.event.begin();
+        CURRENT.set(metrics);
+        IN_FLIGHT.add(metrics);
+        return metrics;
+    }
+
+    /**
+     * @return the measurements of the file being validated on this thread,
+     *     or {@code null}
+     */
+    static ValidationMetrics current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the files being validated
+     */
+    static Collection<ValidationMetrics> inFlight() {
+        return Collections.unmodifiableSet(IN_FLIGHT);
+    }
+
+    /**
+     * @param wallNanos
+     *     duration of the run
+     * @return a summary of the bytes read by all files finished so far
+     */
+    static String getTotals(long wallNanos) {
+        return String.format("read %.1f MB (%.1f MB stored) in %d s: %.1f "
+                + "MB/s", TOTAL_BYTES.get() / 1e6, TOTAL_STORED.get() / 1e6,
+                TimeUnit.NANOSECONDS.toSeconds(wallNanos),
+                megabytesPerSecond(TOTAL_BYTES.get(), wallNanos));
+    }
+
+    /**
+     * @param in
+     *     stored data of the file being validated on this thread
+     * @return the data, counted
+     */
+    static InputStream stored(InputStream in) {
+        ValidationMetrics metrics = current();
+        if (metrics == null)
+            return in;
+        return new Counting(in, metrics.storedBytes, null);
+    }
+
+    /**
+     * @param in
+     *     the input the parser reads
+     * @return the input, counted and timed
+     */
+    InputStream input(InputStream in) {
+        return new Counting(in, bytes, readNanos);
+    }
+
+    /**
+     * a DTD is not in the grammar cache and is about to be loaded
+     */
+    void grammarMissed() {
+        grammarStart = System.nanoTime();
+    }
+
+    /**
+     * a DTD has been loaded
+     */
+    void grammarLoaded() {
+        if (grammarStart >= 0) {
+            grammarNanos.addAndGet(System.nanoTime() - grammarStart);
+            grammarStart = -1;
+        }
+    }
+
+    void addEntityNanos(long nanos) {
+        entityNanos.addAndGet(nanos);
+    }
+
+    void addErrorNanos(long nanos) {
+        errorNanos.addAndGet(nanos);
+    }
+
+    /**
+     * stop the clock; later calls change nothing
+     */
+    void stop() {
+        if (wallNanos < 0)
+            wallNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * stop measuring, and record the flight recorder event
+     *
+     * @param valid
+     *     whether the file is valid
+     */
+    void finish(boolean valid) {
+        stop();
+        if (CURRENT.get() == this)
+            CURRENT.remove();
+        IN_FLIGHT.remove(this);
+        TOTAL_STORED.addAndGet(getStoredBytes());
+        TOTAL_BYTES.addAndGet(bytes.get());
+        if (event.shouldCommit()) {
+            event.file = name;
+            event.valid = valid;
+            event.storedBytes = getStoredBytes();
+            event.bytes = bytes.get();
+            event.readTime = readNanos.get();
+            event.grammarTime = grammarNanos.get();
+            event.entityTime = entityNanos.get();
+            event.errorTime = errorNanos.get();
+            event.commit();
+        }
+    }
+
+    /**
+     * @return stored bytes read so far, or the size once done if they
+     *     could not be counted
+     */
+    long getStoredBytes() {
+        long stored = storedBytes.get();
+        return stored == 0 && wallNanos >= 0 ? size : stored;
+    }
+
+    /**
+     * @return stored bytes read so far, 0 if they are not counted
+     */
+    long getStoredBytesRead() {
+        return storedBytes.get();
+    }
+
+    /**
+     * @return bytes read by the parser so far
+     */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return time since the start, or until {@link #stop()}
+     */
+    long getWallNanos() {
+        long wall = wallNanos;
+        return wall >= 0 ? wall : System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return how far validation has got, with an estimate of the time left
+     *     if the stored size is known and counted
+     */
+    String progress() {
+        long wall = getWallNanos();
+        long stored = storedBytes.get();
+        if (size > 0 && stored > 0) {
+            double rate = stored / (double) wall;
+            long left = (long) ((size - stored) / rate);
+            return String.format("%s: %d%% of %.1f MB stored, %.1f MB read "
+                    + "at %.1f MB/s, %d s to go", name, stored * 100 / size,
+                    size / 1e6, bytes.get() / 1e6,
+                    megabytesPerSecond(bytes.get(), wall),
+                    TimeUnit.NANOSECONDS.toSeconds(left));
+        }
+        return String.format("%s: %.1f MB, %.1f MB/s", name,
+                bytes.get() / 1e6, megabytesPerSecond(bytes.get(), wall));
+    }
+
+    /**
+     * @return the measurements, for the report; times in milliseconds
+     */
+    Map<String, Object> toMap() {
+        long wall = getWallNanos();
+        long read = readNanos.get();
+        long grammar = grammarNanos.get();
+        long errors = errorNanos.get();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("storedBytes", getStoredBytes());
+        map.put("bytes", bytes.get());
+        map.put("ms", millis(wall));
+        map.put("mbPerSecond", megabytesPerSecond(bytes.get(), wall));
+        map.put("readMs", millis(read));
+        map.put("grammarMs", millis(grammar));
+        map.put("entityMs", millis(entityNanos.get()));
+        map.put("errorMs", millis(errors));
+        map.put("parseMs", millis(Math.max(0, wall - read - grammar - errors)));
+        return map;
+    }
+
+    /**
+     * @return a one-line summary
+     */
+    @Override
+    public String toString() {
+        long wall = getWallNanos();
+        return String.format("%s: %.1f MB (%.1f MB stored) in %d ms, %.1f "
+                + "MB/s; read %d ms, grammar %d ms (entities %d ms), "
+                + "errors %d ms", name, bytes.get() / 1e6,
+                getStoredBytes() / 1e6, millis(wall),
+                megabytesPerSecond(bytes.get(), wall),
+                millis(readNanos.get()), millis(grammarNanos.get()),
+                millis(entityNanos.get()), millis(errorNanos.get()));
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * @return throughput, rounded to one decimal
+     */
+    static double megabytesPerSecond(long bytes, long nanos) {
+        if (nanos <= 0)
+            return 0;
+        return Math.round(bytes * 1e4 / nanos) / 10.0;
+    }
+
+    /**
+     * counts the bytes read, and optionally the time spent reading
+     */
+    private static class Counting extends FilterInputStream {
+
+        private final AtomicLong count;
+        private final AtomicLong nanos;
+
+        Counting(InputStream in, AtomicLong count, AtomicLong nanos) {
+            super(in);
+            this.count = count;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = nanos != null ? System.nanoTime() : 0;
+            int b = super.read();
+            if (nanos != null)
+                nanos.addAndGet(System.nanoTime() - start);
+            if (b >= 0)
+                count.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+                throws IOException {
+            long start = nanos != null ? System.nanoTime() : 0;
+            int n = super.read(buffer, offset, length);
+            if (nanos != null)
+                nanos.addAndGet(System.nanoTime() - start);
+            if (n > 0)
+                count.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * runs tasks on a fixed number of threads
+ * <p>
+ * the threads share one queue and each takes the next task as soon as it has
+ * finished the last one, so no thread idles while work is left. Started
+ * largest first (see {@link #largestFirst(List)}), a single huge file cannot
+ * hold up the end of a batch.
+ */
+class ValidationScheduler {
+
+    private final int threads;
+    private final long[] busyNanos;
+    private final int[] taskCounts;
+    private long wallNanos;
+
+    /**
+     * @param threads
+     *     number of worker threads
+     */
+    ValidationScheduler(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException(
+                    "need at least one thread, not " + threads);
+        this.threads = threads;
+        busyNanos = new long[threads];
+        taskCounts = new int[threads];
+    }
+
+    /**
+     * @param tasks
+     *     validation tasks
+     * @return the tasks, sorted by decreasing file size
+     */
+    static List<ValidationTask> largestFirst(List<ValidationTask> tasks) {
+        List<ValidationTask> sorted = new ArrayList<>(tasks);
+        sorted.sort(Comparator.comparingLong((ValidationTask t) -> t.size)
+                .reversed());
+        return sorted;
+    }
+
+    /**
+     * process all tasks and wait for them to finish
+     *
+     * @param tasks
+     *     the tasks, in the order they should be started
+     * @param action
+     *     what to do with every task
+     * @param <T>
+     *     the type of tasks
+     */
+    <T> void run(Iterator<T> tasks, Consumer<? super T> action) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                r -> new Thread(r,
+                        "validator-" + threadNumber.getAndIncrement()));
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final int worker = i;
+            executor.execute(() -> {
+                while (failure.get() == null) {
+                    T task;
+                    try {
+                        synchronized (tasks) {
+                            if (!tasks.hasNext())
+                                return;
+                            task = tasks.next();
+                        }
+                    } catch (RuntimeException e) {
+                        // the tasks may be found as they go
+                        failure.compareAndSet(null, e);
+                        return;
+                    }
+                    long taskStart = System.nanoTime();
+                    try {
+                        action.accept(task);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        busyNanos[worker] += System.nanoTime() - taskStart;
+                        taskCounts[worker]++;
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        wallNanos = System.nanoTime() - start;
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    /**
+     * @return a summary of how busy each thread was during the last
+     *     {@link #run(Iterator, Consumer)}
+     */
+    List<String> getStatistics() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            lines.add(String.format("validator-%d: %d files, busy %.1f s "
+                    + "(%.0f %%)", i, taskCounts[i], busyNanos[i] / 1e9,
+                    wallNanos > 0 ? 100.0 * busyNanos[i] / wallNanos : 0));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,239 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * validates files sent over HTTP on the loopback interface, with one
+ * validator kept warm: parsers, compiled DTDs and XSDs and resolved entities
+ * are reused from request to request
+ * <p>
+ * requests:
+ * <dl>
+ * <dt>{@code POST /validate?name=NAME}</dt>
+ * <dd>validates the request body; the name is used for reporting and, by
+ * its extension, to find out the compression</dd>
+ * <dt>{@code POST /validate?path=PATH}</dt>
+ * <dd>validates a file the server can read</dd>
+ * <dt>{@code GET /statistics}</dt>
+ * <dd>cache statistics, as plain text</dd>
+ * </dl>
+ * Validation results are answered like records of
+ * {@link StreamingErrorReport}:
+ * <pre>
+ * {"file":"a.i5.xml","valid":false,"errors":{"[ERROR] …":{"occurrences":[…]}}}
+ * </pre>
+ */
+public class ValidationServer {
+
+    static private final Logger logger = LoggerFactory
+            .getLogger(ValidationServer.class.getSimpleName());
+
+    private final I5Validator validator;
+    private final Decompressor decompressor;
+    private final Compression compression;
+    private final boolean dom;
+    private final boolean useSchema;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    /**
+     * the result of the last file validated on a thread, see
+     * {@link I5Validator#setReport(ErrorReport)}
+     */
+    private final ThreadLocal<Map<String, Object>> results = new ThreadLocal<>();
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * @param validator
+     *     the validator; its report is replaced
+     * @param decompressor
+     *     opens files
+     * @param compression
+     *     compression to assume unless a name says otherwise
+     * @param dom
+     *     whether to use DOM instead of SAX
+     * @param useSchema
+     *     whether to use XSD instead of DTD
+     * @param port
+     *     port on the loopback interface, 0 for any free one
+     * @param threads
+     *     number of requests handled at the same time
+     * @throws IOException
+     *     if the port cannot be bound
+     */
+    public ValidationServer(I5Validator validator, Decompressor decompressor,
+            Compression compression, boolean dom, boolean useSchema, int port,
+            int threads) throws IOException {
+        this.validator = validator;
+        this.decompressor = decompressor;
+        this.compression = compression;
+        this.dom = dom;
+        this.useSchema = useSchema;
+        validator.setReport(new ErrorReport() {
+            @Override
+            public void add(String fileName, boolean valid,
+                    Map<String, ErrorInfo> errors) {
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("file", fileName);
+                result.put("valid", valid);
+                result.put("errors", errors);
+                results.set(result);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads,
+                r -> new Thread(r, "server-" + threadNumber.getAndIncrement()));
+        server.setExecutor(executor);
+        server.createContext("/validate", this::validate);
+        server.createContext("/statistics", this::statistics);
+    }
+
+    /**
+     * start answering requests
+     */
+    public void start() {
+        server.start();
+        logger.info("listening on http://{}:{}/",
+                server.getAddress().getHostString(), getPort());
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * stop answering requests, after waiting a little for those being
+     * answered
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null)
+            return parameters;
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0)
+                parameters.put(
+                        URLDecoder.decode(parameter.substring(0, equals),
+                                StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(equals + 1),
+                                StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private void validate(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "text/plain", "use POST\n");
+                return;
+            }
+            requests.incrementAndGet();
+            Map<String, String> parameters = query(exchange);
+            ValidationTask task;
+            if (parameters.containsKey("path")) {
+                File file = new File(parameters.get("path"));
+                if (!file.isFile()) {
+                    respond(exchange, 404, "text/plain",
+                            "no such file: " + file + "\n");
+                    return;
+                }
+                task = new ValidationTask(file, compression, dom, useSchema);
+            } else {
+                String name = parameters.getOrDefault("name", "request");
+                Compression bodyCompression = Compression.fromFileName(name,
+                        compression);
+                task = new ValidationTask(name,
+                        Paths.get("").toAbsolutePath().toUri().toString(), 0,
+                        false, d -> Decompressor.decompress(
+                                exchange.getRequestBody(), bodyCompression),
+                        dom, useSchema);
+            }
+            Map<String, Object> result;
+            try {
+                boolean valid = I5ValidatorRunner.validate(validator,
+                        decompressor, task);
+                result = results.get();
+                if (result == null) {
+                    result = new LinkedHashMap<>();
+                    result.put("file", task.name);
+                    result.put("valid", valid);
+                    result.put("errors", Map.of());
+                }
+            } catch (RuntimeException e) {
+                logger.error("{}: {}", task.name, e.toString());
+                respond(exchange, 500, "text/plain", e + "\n");
+                return;
+            } finally {
+                results.remove();
+            }
+            respond(exchange, 200, "application/json",
+                    objectMapper.writeValueAsString(result) + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void statistics(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder text = new StringBuilder();
+            text.append("requests: ").append(requests.get()).append('\n');
+            text.append(validator.getGrammarCache().getStatistics())
+                    .append('\n');
+            text.append(validator.getSchemaCache().getStatistics())
+                    .append('\n');
+            if (validator.getResultCache() != null)
+                text.append(validator.getResultCache().getStatistics())
+                        .append('\n');
+            respond(exchange, 200, "text/plain", text.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status,
+            String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+
+/**
+ * a file to validate, together with the settings to validate it with
+ * <p>
+ * besides files, this can be standard input or the member of an archive (see
+ * {@link ArchiveReader}); an archive is a task of its own, to be expanded
+ * into its members.
+ */
+class ValidationTask {
+
+    /**
+     * name of standard input on the command line
+     */
+    static final String STDIN = "-";
+
+    /**
+     * opens the data of a task
+     */
+    interface Source {
+        /**
+         * @param decompressor
+         *     opens files
+         * @return the decompressed data
+         * @throws IOException
+         *     if the data cannot be read
+         */
+        InputStream open(Decompressor decompressor) throws IOException;
+    }
+
+    /**
+     * the input file, {@code null} for standard input and archive members
+     */
+    final File file;
+    final String name;
+    /**
+     * URI to resolve relative schema locations against
+     */
+    final String systemId;
+    final Compression compression;
+    final boolean dom;
+    final boolean useSchema;
+    final long size;
+    /**
+     * whether this is a tar or zip archive rather than a document
+     */
+    final boolean archive;
+    /**
+     * the (possibly compressed) data of a document kept in memory, else
+     * {@code null}
+     */
+    final byte[] data;
+    private final Source source;
+
+    /**
+     * @param file
+     *     the input file
+     * @param compression
+     *     the compression to assume unless the file name says otherwise
+     * @param dom
+     *     whether to use DOM instead of SAX
+     * @param useSchema
+     *     whether to use XSD instead of DTD
+     */
+    ValidationTask(File file, Compression compression, boolean dom,
+            boolean useSchema) {
+        this.file = file;
+        this.name = file.toString();
+        this.systemId = file.getAbsoluteFile().toURI().toString();
+        this.compression = Compression.fromFileName(name, compression);
+        this.dom = dom;
+        this.useSchema = useSchema;
+        this.size = file.length();
+        this.archive = ArchiveReader.isArchive(name);
+        this.data = null;
+        this.source = decompressor -> decompressor.open(file,
+                this.compression);
+    }
+
+    /**
+     * @param name
+     *     name to report the results under
+     * @param systemId
+     *     URI to resolve relative schema locations against
+     * @param size
+     *     size, if known, else 0
+     * @param archive
+     *     whether the data is an archive
+     * @param source
+     *     opens the data; it is opened only once
+     * @param dom
+     *     whether to use DOM instead of SAX
+     * @param useSchema
+     *     whether to use XSD instead of DTD
+     */
+    ValidationTask(String name, String systemId, long size, boolean archive,
+            Source source, boolean dom, boolean useSchema) {
+        this.file = null;
+        this.name = name;
+        this.systemId = systemId;
+        this.compression = Compression.none;
+        this.dom = dom;
+        this.useSchema = useSchema;
+        this.size = size;
+        this.archive = archive;
+        this.data = null;
+        this.source = source;
+    }
+
+    /**
+     * @param name
+     *     name to report the results under
+     * @param systemId
+     *     URI to resolve relative schema locations against
+     * @param data
+     *     the document, in memory
+     * @param compression
+     *     its compression
+     * @param dom
+     *     whether to use DOM instead of SAX
+     * @param useSchema
+     *     whether to use XSD instead of DTD
+     */
+    ValidationTask(String name, String systemId, byte[] data,
+            Compression compression, boolean dom, boolean useSchema) {
+        this.file = null;
+        this.name = name;
+        this.systemId = systemId;
+        this.compression = compression;
+        this.dom = dom;
+        this.useSchema = useSchema;
+        this.size = data.length;
+        this.archive = false;
+        this.data = data;
+        // with the decompression threads a file would have
+        this.source = decompressor -> decompressor.open(name, data,
+                compression);
+    }
+
+    /**
+     * standard input; whether it is an archive is found out from its first
+     * bytes
+     *
+     * @param compression
+     *     the compression of standard input
+     * @param dom
+     *     whether to use DOM instead of SAX
+     * @param useSchema
+     *     whether to use XSD instead of DTD
+     * @return the task
+     * @throws IOException
+     *     if standard input cannot be read
+     */
+    static ValidationTask stdin(Compression compression, boolean dom,
+            boolean useSchema) throws IOException {
+        // standard input stays open
+        InputStream in = new BufferedInputStream(Decompressor.decompress(
+                new FilterInputStream(System.in) {
+                    @Override
+                    public void close() {
+                    }
+                }, compression));
+        return new ValidationTask(STDIN,
+                Paths.get("").toAbsolutePath().toUri().toString(), 0,
+                ArchiveReader.isArchive(in), decompressor -> in, dom,
+                useSchema);
+    }
+
+    /**
+     * let go of the task without validating it; a member read straight
+     * from an archive has to be closed before the next one can be read
+     *
+     * @param decompressor
+     *     opens files
+     * @throws IOException
+     *     if the data cannot be read
+     */
+    void skip(Decompressor decompressor) throws IOException {
+        if (file == null && data == null)
+            open(decompressor).close();
+    }
+
+    /**
+     * @param decompressor
+     *     opens files
+     * @return the decompressed data
+     * @throws IOException
+     *     if the data cannot be read
+     */
+    InputStream open(Decompressor decompressor) throws IOException {
+        return source.open(decompressor);
+    }
+}
@@ -1,12 +1,20 @@
 module i5validator {
     exports de.mannheim.ids.clarin.xml;
+    // picocli sets options in private fields
+    opens de.mannheim.ids.clarin.xml to info.picocli;
 
     requires com.fasterxml.jackson.annotation;
     requires transitive com.fasterxml.jackson.core;
     requires transitive com.fasterxml.jackson.databind;
     requires info.picocli;
+    requires java.net.http;
     requires java.xml;
+    requires jdk.jfr;
+    requires jdk.httpserver;
     requires org.apache.commons.compress;
     requires org.apache.commons.io;
     requires org.slf4j;
+    requires org.tukaani.xz;
+    // Xerces internals: xercesImpl has no module name, so it stays on the
+    // class path, read with --add-reads (see pom.xml)
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ArchiveReaderTest {
+
+    private static File tar;
+    private static File zip;
+
+    private static byte[] document(String body) {
+        return ("<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE doc [<!ELEMENT doc (p*)><!ELEMENT p EMPTY>]>\n"
+                + "<doc>" + body + "</doc>\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void addMembers(ArchiveOutputStream out,
+            MemberFactory factory) throws IOException {
+        byte[] valid = document("<p/><p/>");
+        byte[] invalid = document("<q/>");
+        java.io.ByteArrayOutputStream xz = new java.io.ByteArrayOutputStream();
+        try (OutputStream compressed = new XZOutputStream(xz,
+                new LZMA2Options(1))) {
+            compressed.write(invalid);
+        }
+        String[] names = { "a/valid.xml", "a/invalid.xml", "b/invalid.xml.xz" };
+        byte[][] contents = { valid, invalid, xz.toByteArray() };
+        for (int i = 0; i < names.length; i++) {
+            out.putArchiveEntry(factory.create(names[i], contents[i].length));
+            out.write(contents[i]);
+            out.closeArchiveEntry();
+        }
+        out.finish();
+    }
+
+    private interface MemberFactory {
+        ArchiveEntry create(String name, long size);
+    }
+
+    @BeforeAll
+    public static void createArchives() throws IOException {
+        tar = File.createTempFile("archive", ".tar.gz");
+        tar.deleteOnExit();
+        try (ArchiveOutputStream out = new TarArchiveOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(tar.toPath())))) {
+            addMembers(out, (name, size) -> {
+                TarArchiveEntry entry = new TarArchiveEntry(name);
+                entry.setSize(size);
+                return entry;
+            });
+        }
+        zip = File.createTempFile("archive", ".zip");
+        zip.deleteOnExit();
+        try (ArchiveOutputStream out = new ZipArchiveOutputStream(
+                Files.newOutputStream(zip.toPath()))) {
+            addMembers(out, (name, size) -> new ZipArchiveEntry(name));
+        }
+    }
+
+    private static Map<String, Boolean> validate(File archive, int threads,
+            int maxBuffered) {
+        I5Validator validator = new I5Validator(false);
+        Map<String, Boolean> results = new TreeMap<>();
+        try (Decompressor decompressor = new Decompressor(1)) {
+            ValidationTask task = new ValidationTask(archive, Compression.none,
+                    false, false);
+            assertTrue(task.archive);
+            new ValidationScheduler(threads).run(
+                    ArchiveReader.expand(java.util.List.of(task).iterator(),
+                            decompressor, maxBuffered),
+                    member -> {
+                        boolean valid = I5ValidatorRunner.validate(validator,
+                                decompressor, member);
+                        synchronized (results) {
+                            results.put(member.name.substring(
+                                    archive.toString().length()), valid);
+                        }
+                    });
+        }
+        return results;
+    }
+
+    @Test
+    public void checkMembers() {
+        Map<String, Boolean> expected = new TreeMap<>(Map.of("!/a/valid.xml",
+                true, "!/a/invalid.xml", false, "!/b/invalid.xml.xz", false));
+        for (File archive : new File[] { tar, zip }) {
+            // streamed, read into memory, partly read into memory
+            assertEquals(expected, validate(archive, 1, 0));
+            assertEquals(expected, validate(archive, 2,
+                    ArchiveReader.MAX_BUFFERED));
+            assertEquals(expected, validate(archive, 2, 10));
+        }
+    }
+
+    @Test
+    public void checkArchiveNames() {
+        assertTrue(ArchiveReader.isArchive("corpus.tar.xz"));
+        assertTrue(ArchiveReader.isArchive("corpus.tgz"));
+        assertTrue(ArchiveReader.isArchive("corpus.zip"));
+        assertFalse(ArchiveReader.isArchive("corpus.i5.xml.xz"));
+        assertFalse(ArchiveReader.isArchive("corpus.xml"));
+        assertEquals(Compression.gzip,
+                Compression.fromFileName("corpus.tgz", Compression.none));
+    }
+}
@@ -0,0 +1,177 @@
+package de.mannheim.ids.clarin.xml;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class CachingEntityResolverTest {
+
+    private static final String DTD = "<!ELEMENT doc (#PCDATA)>\n";
+
+    static File catalog;
+
+    @BeforeAll
+    public static void writeCatalog() throws IOException {
+        Path dtd = Files.createTempFile("doc", ".dtd");
+        dtd.toFile().deleteOnExit();
+        Files.writeString(dtd, DTD);
+        Path catalogFile = Files.createTempFile("catalog", ".xml");
+        catalogFile.toFile().deleteOnExit();
+        Files.writeString(catalogFile, "<catalog xmlns=\""
+                + "urn:oasis:names:tc:entity:xmlns:xml:catalog\">\n"
+                + "<public publicId=\"-//TEST//DTD doc//EN\" uri=\""
+                + dtd.toUri() + "\"/>\n</catalog>\n");
+        catalog = catalogFile.toFile();
+    }
+
+    private InputStream document() {
+        return new ByteArrayInputStream(("<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE doc PUBLIC \"-//TEST//DTD doc//EN\" "
+                + "\"http://unreachable.invalid/doc.dtd\">\n<doc/>\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void checkCatalogWithSAX() throws IOException, ParserConfigurationException {
+        CachingEntityResolver resolver = new CachingEntityResolver(List.of(catalog), null);
+        I5Validator validator = new I5Validator(false, resolver);
+        assertTrue(validator.validateWithDTDUsingSAX(document(), "doc"));
+        assertEquals(1, resolver.getLoaded());
+    }
+
+    @Test
+    public void checkCatalogWithDOM() throws IOException, ParserConfigurationException {
+        CachingEntityResolver resolver = new CachingEntityResolver(List.of(catalog), null);
+        I5Validator validator = new I5Validator(false, resolver);
+        assertTrue(validator.validateWithDTDUsingDOM(document(), "doc", false));
+        assertEquals(1, resolver.getLoaded());
+    }
+
+    /**
+     * @return a server for {@link #DTD} at {@code /doc.dtd}, and nothing
+     *     at {@code /stalled.dtd} until {@code release} counts down
+     */
+    private static HttpServer server(CountDownLatch release)
+            throws IOException {
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/doc.dtd", exchange -> {
+            byte[] body = DTD.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/stalled.dtd", exchange -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void checkCacheDirectory() throws IOException {
+        Path cache = Files.createTempDirectory("entities");
+        cache.toFile().deleteOnExit();
+        HttpServer server = server(new CountDownLatch(0));
+        String location = "http://127.0.0.1:"
+                + server.getAddress().getPort() + "/doc.dtd";
+        try {
+            CachingEntityResolver resolver = new CachingEntityResolver(
+                    List.of(), cache.toFile());
+            assertEquals(DTD, read(resolver.resolveEntity(null, location)
+                    .getByteStream()));
+        } finally {
+            server.stop(0);
+        }
+        String hash = CachingEntityResolver
+                .sha256(DTD.getBytes(StandardCharsets.UTF_8));
+        Path idFile = cache.resolve("id").resolve(CachingEntityResolver
+                .sha256(location.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(hash, Files.readString(idFile));
+        assertEquals(DTD, Files.readString(
+                cache.resolve("content").resolve(hash)));
+
+        // offline, in a new run
+        CachingEntityResolver offline = new CachingEntityResolver(List.of(),
+                cache.toFile());
+        assertEquals(DTD, read(offline.resolveEntity(null, location)
+                .getByteStream()));
+
+        // local files are read where they are
+        Path local = Files.createTempFile("local", ".dtd");
+        local.toFile().deleteOnExit();
+        Files.writeString(local, DTD);
+        offline.resolveEntity(null, local.toUri().toString());
+        try (Stream<Path> ids = Files.list(cache.resolve("id"))) {
+            assertEquals(1, ids.count());
+        }
+        try (Stream<Path> contents = Files.list(cache.resolve("content"))) {
+            assertEquals(1, contents.count());
+        }
+        try (Stream<Path> files = Files.walk(cache)) {
+            files.forEach(file -> file.toFile().deleteOnExit());
+        }
+    }
+
+    @Test
+    public void checkTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = server(release);
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        CachingEntityResolver resolver = new CachingEntityResolver();
+        resolver.setTimeout(500);
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                Future<?> stalled = threads.submit(() -> resolver
+                        .resolveEntity(null, base + "/stalled.dtd"));
+                // another entity is not held up meanwhile
+                assertEquals(DTD, read(threads.submit(() -> resolver
+                        .resolveEntity(null, base + "/doc.dtd")).get()
+                        .getByteStream()));
+                Exception e = assertThrows(Exception.class, stalled::get);
+                assertTrue(e.getCause() instanceof IOException,
+                        e.toString());
+            });
+        } finally {
+            release.countDown();
+            threads.shutdownNow();
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.jupiter.api.Test;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import picocli.CommandLine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ContextCommandTest {
+
+    private static final int LINES = 20_000;
+
+    /**
+     * a document with errors in lines 5 and 15000, with CR LF line breaks
+     * towards its end
+     */
+    private static byte[] document() {
+        StringBuilder document = new StringBuilder(
+                "<?xml version=\"1.0\"?>\n"
+                        + "<!DOCTYPE doc [<!ELEMENT doc (p*)>"
+                        + "<!ELEMENT p (#PCDATA)>]>\n<doc>\n");
+        for (int line = 4; line < LINES; line++) {
+            String p = line == 5 || line == 15_000 ? "q" : "p";
+            document.append('<').append(p).append('>').append(line)
+                    .append("</").append(p).append('>')
+                    .append(line > LINES / 2 ? "\r\n" : "\n");
+        }
+        return document.append("</doc>\n").toString()
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private interface Compressor {
+        OutputStream wrap(OutputStream out) throws IOException;
+    }
+
+    private static File write(Path directory, String name, byte[] data,
+            Compressor compressor) throws IOException {
+        File file = directory.resolve(name).toFile();
+        file.deleteOnExit();
+        try (OutputStream out = compressor
+                .wrap(new FileOutputStream(file))) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    @Test
+    public void checkContext() throws IOException,
+            ParserConfigurationException {
+        Path directory = Files.createTempDirectory("context");
+        directory.toFile().deleteOnExit();
+        byte[] data = document();
+        File[] files = {
+                write(directory, "doc.xml", data, out -> out),
+                write(directory, "doc.xml.gz", data, GZIPOutputStream::new),
+                write(directory, "doc.xml.xz", data, out -> new XZOutputStream(
+                        out, new LZMA2Options(1)) {
+                    @Override
+                    public void write(byte[] buf, int off, int len)
+                            throws IOException {
+                        // small blocks, to seek in
+                        for (int i = off; i < off + len; i += 10_000) {
+                            super.write(buf, i, Math.min(10_000,
+                                    off + len - i));
+                            endBlock();
+                        }
+                    }
+                }) };
+        File report = directory.resolve("report.ndjson").toFile();
+        report.deleteOnExit();
+        I5Validator validator = new I5Validator(true);
+        validator.setErrorOffsets(true);
+        try (StreamingErrorReport errors = new StreamingErrorReport(report)) {
+            validator.setReport(errors);
+            for (File file : files) {
+                try (InputStream in = Decompressor.decompress(
+                        new FileInputStream(file), Compression
+                                .fromFileName(file.getName(),
+                                        Compression.none))) {
+                    boolean dom = file.getName().endsWith(".gz");
+                    assertFalse(dom
+                            ? validator.validateWithDTDUsingDOM(in,
+                                    file.getPath(), false)
+                            : validator.validateWithDTDUsingSAX(in,
+                                    file.getPath()));
+                }
+            }
+        }
+        String text = new String(data, StandardCharsets.UTF_8);
+        int[] checked = { 0 };
+        MergeCommand.read(report, new ErrorReport() {
+            @Override
+            public void add(String fileName, boolean valid,
+                    Map<String, ErrorInfo> errors) {
+                ErrorInfo info = errors
+                        .get("[ERROR] Element type \"q\" must be declared.");
+                assertEquals(2, info.size());
+                assertEquals(text.indexOf("<q>5<"), info.getOffset(0));
+                assertEquals(15_000, info.getLine(1));
+                assertEquals(text.indexOf("<q>15000<"), info.getOffset(1));
+                checked[0]++;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        assertEquals(3, checked[0]);
+
+        for (File file : files) {
+            StringWriter out = new StringWriter();
+            CommandLine command = new CommandLine(new I5ValidatorRunner());
+            command.setOut(new PrintWriter(out));
+            assertEquals(0, command.execute("context", "-C", "1",
+                    "--max-occurrences", "0", "--file", file.getPath(),
+                    report.getPath()));
+            String shown = out.toString();
+            assertTrue(shown.contains(file.getPath()
+                    + ":15000:4: [ERROR] Element type \"q\" must be declared."),
+                    shown);
+            assertTrue(shown.contains("  14999 | <p>14999</p>"), shown);
+            assertTrue(shown.contains("> 15000 | <q>15000</q>"), shown);
+            assertTrue(shown.contains("  15001 | <p>15001</p>"), shown);
+            assertTrue(shown.contains("> 5 | <q>5</q>"), shown);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.jupiter.api.Test;
+import org.xml.sax.InputSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class DecodingReaderTest {
+
+    private static String text(boolean latin1) {
+        Random random = new Random(42);
+        String[] words = latin1
+                ? new String[] { "Goethe", "für", "Straße", "Ähre", "«»", "\n" }
+                : new String[] { "Goethe", "für", "Straße", "€", "中文",
+                        "😀", "\n" };
+        StringBuilder text = new StringBuilder("<doc>");
+        while (text.length() < 100_000)
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        return text.append("</doc>\n").toString();
+    }
+
+    private static String read(String xml, Charset charset, int chunk)
+            throws IOException {
+        InputSource source = DecodingReader.inputSource(
+                new ByteArrayInputStream(xml.getBytes(charset)), 1000);
+        assertNotNull(source.getCharacterStream());
+        StringBuilder result = new StringBuilder();
+        char[] chars = new char[chunk];
+        try (Reader reader = source.getCharacterStream()) {
+            int n;
+            while ((n = reader.read(chars, 0, chunk)) >= 0)
+                result.append(chars, 0, n);
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void checkDecoding() throws IOException {
+        for (int chunk : new int[] { 1, 7, 8192 }) {
+            String utf8 = text(false);
+            assertEquals(utf8, read(utf8, StandardCharsets.UTF_8, chunk));
+            String declared = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                    + utf8;
+            assertEquals(declared,
+                    read(declared, StandardCharsets.UTF_8, chunk));
+            String latin1 = "<?xml version='1.0' encoding='ISO-8859-1'?>\n"
+                    + text(true);
+            assertEquals(latin1,
+                    read(latin1, StandardCharsets.ISO_8859_1, chunk));
+        }
+    }
+
+    @Test
+    public void checkOtherEncodings() throws IOException {
+        for (String xml : new String[] {
+                "<?xml version=\"1.0\" encoding=\"UTF-16\"?>\n<doc/>",
+                "<?xml version=\"1.0\" encoding=\"windows-1252\"?>\n<doc/>" }) {
+            Charset charset = xml.contains("UTF-16") ? StandardCharsets.UTF_16
+                    : StandardCharsets.ISO_8859_1;
+            InputSource source = DecodingReader.inputSource(
+                    new ByteArrayInputStream(xml.getBytes(charset)), 1000);
+            assertNull(source.getCharacterStream(), xml);
+            // nothing is lost
+            assertArrayEquals(xml.getBytes(charset),
+                    source.getByteStream().readAllBytes());
+        }
+    }
+
+    private static Map<String, ErrorInfo> validate(byte[] xml,
+            boolean fastDecoding)
+            throws IOException, ParserConfigurationException {
+        Map<String, ErrorInfo> errors = new HashMap<>();
+        I5Validator validator = new I5Validator(true);
+        validator.setFastDecoding(fastDecoding);
+        validator.setReport(new ErrorReport() {
+            @Override
+            public void add(String fileName, boolean valid,
+                    Map<String, ErrorInfo> fileErrors) {
+                errors.putAll(fileErrors);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        validator.validateWithDTDUsingSAX(new ByteArrayInputStream(xml),
+                "test");
+        return errors;
+    }
+
+    @Test
+    public void checkMalformed() throws IOException,
+            ParserConfigurationException {
+        byte[][] sequences = { { (byte) 0xC3, 'x' }, { (byte) 0xE2, (byte) 0x82 },
+                { (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80 },
+                { (byte) 0x80 } };
+        for (byte[] sequence : sequences) {
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            xml.writeBytes(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<!DOCTYPE doc [<!ELEMENT doc (#PCDATA)>]>\n<doc>Straße ")
+                    .getBytes(StandardCharsets.UTF_8));
+            xml.writeBytes(sequence);
+            xml.writeBytes(" </doc>\n".getBytes(StandardCharsets.UTF_8));
+            Map<String, ErrorInfo> expected = validate(xml.toByteArray(),
+                    false);
+            assertFalse(expected.isEmpty());
+            Map<String, ErrorInfo> errors = validate(xml.toByteArray(), true);
+            // same messages, but at the malformed sequence rather than
+            // wherever the parser happened to read the next block
+            assertEquals(expected.keySet(), errors.keySet());
+            ErrorInfo error = errors.values().iterator().next();
+            assertEquals(3, error.getLine(0));
+            assertEquals(13, error.getCol(0));
+        }
+    }
+}
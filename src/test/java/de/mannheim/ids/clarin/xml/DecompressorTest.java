@@ -0,0 +1,275 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class DecompressorTest {
+
+    static byte[] content;
+
+    @BeforeAll
+    public static void createContent() {
+        Random random = new Random(42);
+        String[] words = { "<p>", "</p>", "Goethe", "Faust", "und", "der",
+                "die", "das", "&amp;", "Mannheim", "\n" };
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1_500_000) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+            if (random.nextInt(50) == 0)
+                text.append(random.nextLong());
+        }
+        content = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static File compress(String suffix, boolean twice,
+            OutputStreamFactory factory) throws IOException {
+        File file = File.createTempFile("decompressor", suffix);
+        file.deleteOnExit();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < (twice ? 2 : 1); i++) {
+            try (OutputStream out = factory.create(new NonClosing(bytes))) {
+                out.write(content);
+            }
+        }
+        Files.write(file.toPath(), bytes.toByteArray());
+        return file;
+    }
+
+    private interface OutputStreamFactory {
+        OutputStream create(OutputStream out) throws IOException;
+    }
+
+    private static class NonClosing extends java.io.FilterOutputStream {
+        NonClosing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * decompress a file, and the same data from memory, with any number of
+     * threads
+     */
+    private static void checkAllModes(File file, Compression compression,
+            int copies) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        for (int threads : new int[] { 0, 1, 4 }) {
+            try (Decompressor decompressor = new Decompressor(threads)) {
+                try (InputStream in = decompressor.open(file, compression)) {
+                    check(in.readAllBytes(), copies, threads + " threads");
+                }
+                try (InputStream in = decompressor.open(file.getName(), data,
+                        compression)) {
+                    assertEquals(threads > 0,
+                            in instanceof PipelinedInputStream);
+                    check(in.readAllBytes(), copies,
+                            threads + " threads, in memory");
+                }
+            }
+        }
+    }
+
+    private static void check(byte[] result, int copies, String mode) {
+        assertEquals(content.length * copies, result.length,
+                "length with " + mode);
+        for (int i = 0; i < copies; i++) {
+            for (int j = 0; j < content.length; j++) {
+                if (result[i * content.length + j] != content[j])
+                    fail("difference at " + j + " with " + mode);
+            }
+        }
+    }
+
+    @Test
+    public void checkMultiBlockBZip2() throws IOException {
+        File file = compress(".bz2", false,
+                out -> new BZip2CompressorOutputStream(out, 1));
+        checkAllModes(file, Compression.bzip2, 1);
+    }
+
+    @Test
+    public void checkConcatenatedBZip2() throws IOException {
+        File file = compress(".bz2", true,
+                out -> new BZip2CompressorOutputStream(out, 2));
+        checkAllModes(file, Compression.bzip2, 2);
+    }
+
+    private static File multiBlockXZ() throws IOException {
+        return compress(".xz", false, out -> new XZOutputStream(out,
+                new LZMA2Options(1)) {
+            private int written = 0;
+
+            @Override
+            public void write(byte[] buf, int off, int len)
+                    throws IOException {
+                // a new block every 100000 bytes
+                while (len > 0) {
+                    int n = Math.min(len, 100_000 - written);
+                    super.write(buf, off, n);
+                    off += n;
+                    len -= n;
+                    written += n;
+                    if (written == 100_000) {
+                        endBlock();
+                        written = 0;
+                    }
+                }
+            }
+        });
+    }
+
+    @Test
+    public void checkMultiBlockXZ() throws IOException {
+        checkAllModes(multiBlockXZ(), Compression.xz, 1);
+    }
+
+    /**
+     * with memory for a single block, files decompressed at the same time
+     * take turns, and a file closed early gives its memory back
+     */
+    @Test
+    public void checkDecodedMemoryLimit() throws Exception {
+        File file = multiBlockXZ();
+        try (Decompressor decompressor = new Decompressor(4, false,
+                100 << 10)) {
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                try (InputStream in = decompressor.open(file,
+                        Compression.xz)) {
+                    assertEquals(content[0], in.read());
+                }
+                Thread[] readers = new Thread[3];
+                byte[][] results = new byte[readers.length][];
+                for (int i = 0; i < readers.length; i++) {
+                    int reader = i;
+                    readers[i] = new Thread(() -> {
+                        try (InputStream in = decompressor.open(file,
+                                Compression.xz)) {
+                            results[reader] = in.readAllBytes();
+                        } catch (IOException e) {
+                            fail(e);
+                        }
+                    });
+                    readers[i].start();
+                }
+                for (int i = 0; i < readers.length; i++) {
+                    readers[i].join();
+                    check(results[i], 1, "reader " + i);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void checkMapped() throws IOException {
+        File file = compress(".xml", false, out -> out);
+        assertTrue(file.length() >= Decompressor.MIN_MAPPED);
+        try (Decompressor decompressor = new Decompressor(0, true);
+                InputStream in = decompressor.open(file, Compression.none)) {
+            assertTrue(in instanceof MappedInputStream);
+            assertEquals(content[0], in.read());
+            assertEquals(10, in.skip(10));
+            byte[] result = in.readAllBytes();
+            assertEquals(content.length - 11, result.length);
+            assertEquals(content[11], result[0]);
+            assertEquals(content[content.length - 1],
+                    result[result.length - 1]);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void checkGZip() throws IOException {
+        File file = compress(".gz", true, GZIPOutputStream::new);
+        checkAllModes(file, Compression.gzip, 2);
+    }
+
+    /**
+     * the first half of a compressed file
+     */
+    private static File truncate(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(),
+                Arrays.copyOf(bytes, bytes.length / 2));
+        return file;
+    }
+
+    private static void checkTruncated(File file, Compression compression) {
+        for (int threads : new int[] { 0, 1, 4 }) {
+            assertTimeoutPreemptively(Duration.ofSeconds(30),
+                    () -> assertThrows(IOException.class, () -> {
+                        try (Decompressor decompressor = new Decompressor(
+                                threads);
+                                InputStream in = decompressor.open(file,
+                                        compression)) {
+                            in.readAllBytes();
+                        }
+                    }), "truncated with " + threads + " threads");
+        }
+    }
+
+    @Test
+    public void checkTruncatedGZip() throws IOException {
+        checkTruncated(truncate(compress(".gz", false, GZIPOutputStream::new)),
+                Compression.gzip);
+    }
+
+    @Test
+    public void checkTruncatedBZip2() throws IOException {
+        checkTruncated(truncate(compress(".bz2", false,
+                out -> new BZip2CompressorOutputStream(out, 1))),
+                Compression.bzip2);
+    }
+
+    @Test
+    public void checkTruncatedXZ() throws IOException {
+        checkTruncated(truncate(compress(".xz", false,
+                out -> new XZOutputStream(out, new LZMA2Options(1)))),
+                Compression.xz);
+    }
+
+    @Test
+    public void checkFailureWithFullQueue() {
+        CountDownLatch full = new CountDownLatch(1);
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            try (InputStream in = new PipelinedInputStream("failing", null,
+                    2, 16, pipe -> {
+                        pipe.put(new byte[] { 1 });
+                        pipe.put(new byte[] { 2 });
+                        full.countDown();
+                        throw new IOException("broken");
+                    })) {
+                full.await();
+                // let the producer fail while the queue is full
+                Thread.sleep(100);
+                assertEquals(1, in.read());
+                assertEquals(2, in.read());
+                IOException e = assertThrows(IOException.class, in::read);
+                assertEquals("broken", e.getMessage());
+            }
+        });
+    }
+
+}
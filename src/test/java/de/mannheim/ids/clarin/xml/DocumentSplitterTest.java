@@ -0,0 +1,141 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class DocumentSplitterTest {
+
+    private static final String DTD = "<!DOCTYPE idsCorpus [\n"
+            + "<!ELEMENT idsCorpus (idsHeader, idsDoc+)>\n"
+            + "<!ELEMENT idsHeader (#PCDATA)>\n"
+            + "<!ATTLIST idsHeader id ID #IMPLIED ref IDREF #IMPLIED>\n"
+            + "<!ELEMENT idsDoc (idsText+)>\n"
+            + "<!ATTLIST idsDoc id ID #REQUIRED>\n"
+            + "<!ELEMENT idsText (p*)>\n"
+            + "<!ATTLIST idsText id ID #REQUIRED>\n"
+            + "<!ELEMENT p (#PCDATA)>\n"
+            + "<!ATTLIST p ref IDREF #IMPLIED>\n"
+            + "<!ENTITY bull \"&#x2022;\">\n"
+            + "]>\n";
+
+    /**
+     * a corpus with errors in various places: undeclared elements, an
+     * IDREF to another document, one to nowhere, duplicate IDs across
+     * documents, and non-ASCII characters before errors
+     */
+    private static byte[] corpus() {
+        StringBuilder xml = new StringBuilder(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append(DTD);
+        xml.append("<idsCorpus>\n  <idsHeader id=\"h\" ref=\"d7\">"
+                + "Kopf</idsHeader>");
+        for (int i = 0; i < 40; i++) {
+            xml.append(i % 3 == 0 ? "\n  " : " ");
+            xml.append("<idsDoc id=\"d").append(i).append("\">");
+            xml.append("<idsText id=\"t").append(i % 37).append("\">");
+            xml.append("<p ref=\"d").append((i * 7) % 45).append("\">")
+                    .append("Grüße &bull; 𝄞</p>");
+            if (i % 5 == 0)
+                xml.append("<q/>");
+            if (i % 11 == 0)
+                xml.append("\r\n<p>über</p><x>€</x>");
+            xml.append("</idsText></idsDoc>");
+        }
+        xml.append("\n</idsCorpus>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, ErrorInfo> validate(byte[] document,
+            ExecutorService executor, int fragmentSize)
+            throws IOException, ParserConfigurationException {
+        Map<String, ErrorInfo> errors = new HashMap<>();
+        I5Validator validator = new I5Validator(true);
+        validator.setReport(new ErrorReport() {
+            @Override
+            public void add(String fileName, boolean valid,
+                    Map<String, ErrorInfo> fileErrors) {
+                errors.putAll(fileErrors);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        if (executor != null)
+            validator.setSplitting(executor, 3, fragmentSize);
+        assertFalse(validator.validateWithDTDUsingSAX(
+                new ByteArrayInputStream(document), "corpus"));
+        return errors;
+    }
+
+    private static Map<String, String> positions(
+            Map<String, ErrorInfo> errors) {
+        Map<String, String> positions = new TreeMap<>();
+        errors.forEach((message, info) -> {
+            StringBuilder list = new StringBuilder();
+            list.append(info.getCount()).append(':');
+            for (int i = 0; i < info.size(); i++)
+                list.append(' ').append(info.getLine(i)).append(',')
+                        .append(info.getCol(i));
+            positions.put(message, list.toString());
+        });
+        return positions;
+    }
+
+    @Test
+    public void checkSameErrorsAsWhole()
+            throws IOException, ParserConfigurationException {
+        byte[] corpus = corpus();
+        Map<String, String> whole = positions(validate(corpus, null, 0));
+        assertTrue(whole.size() >= 4, whole.toString());
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int fragmentSize : new int[] { 0, 200, 1000, 1 << 20 }) {
+                assertEquals(whole, positions(validate(corpus, executor,
+                        fragmentSize)), "fragment size " + fragmentSize);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void checkFragments() throws IOException {
+        byte[] corpus = corpus();
+        DocumentSplitter splitter = new DocumentSplitter(
+                new ByteArrayInputStream(corpus),
+                DocumentSplitter.I5_ELEMENTS, 0);
+        assertTrue(splitter.split());
+        int length = splitter.getPrefix().length;
+        int count = 0;
+        DocumentSplitter.Fragment fragment;
+        while ((fragment = splitter.next()) != null) {
+            assertEquals(count++, fragment.index);
+            assertEquals('<', fragment.data[0]);
+            length += fragment.data.length;
+        }
+        assertEquals(40, count);
+        assertEquals(corpus.length, length);
+
+        DocumentSplitter plain = new DocumentSplitter(
+                new ByteArrayInputStream(
+                        "<doc><p/></doc>".getBytes(StandardCharsets.UTF_8)),
+                DocumentSplitter.I5_ELEMENTS, 0);
+        assertFalse(plain.split());
+        assertEquals("<doc><p/></doc>", new String(
+                plain.remainder().readAllBytes(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,47 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ErrorInfoTest {
+
+    @Test
+    public void checkCap() {
+        ErrorInfo info = new ErrorInfo(3);
+        for (int i = 1; i <= 1000; i++)
+            info.addOccurrence(i, i + 1);
+        assertEquals(3, info.size());
+        assertEquals(1000, info.getCount());
+        assertEquals(3, info.getLine(2));
+        assertEquals(4, info.getCol(2));
+        assertEquals(3, info.getOccurrences().size());
+    }
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        ErrorInfo info = new ErrorInfo(2);
+        info.addOccurrence(10, 5);
+        info.addOccurrence(11, 0);
+        info.addOccurrence(12, 7);
+        ObjectMapper mapper = new ObjectMapper();
+        String json = mapper.writeValueAsString(info);
+        JsonNode node = mapper.readTree(json);
+        assertEquals(3, node.get("count").asLong());
+        assertEquals(2, node.get("occurrences").size());
+        assertFalse(node.get("occurrences").get(1).has("col"));
+
+        ErrorInfo read = mapper.readValue(json, ErrorInfo.class);
+        assertEquals(2, read.size());
+        assertEquals(3, read.getCount());
+        assertEquals(11, read.getLine(1));
+        assertEquals(0, read.getCol(1));
+    }
+
+}
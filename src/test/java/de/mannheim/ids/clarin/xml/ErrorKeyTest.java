@@ -0,0 +1,81 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ErrorKeyTest {
+
+    private static InputStream document(String body) {
+        return new ByteArrayInputStream(("<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE doc [<!ELEMENT doc (p*)><!ELEMENT p EMPTY>]>\n"
+                + "<doc>" + body + "</doc>\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, ErrorInfo> errors(boolean dom, String body)
+            throws IOException, ParserConfigurationException {
+        Map<String, ErrorInfo> result = new HashMap<>();
+        I5Validator validator = new I5Validator(true);
+        validator.setReport(new ErrorReport() {
+            @Override
+            public void add(String fileName, boolean valid,
+                    Map<String, ErrorInfo> errors) {
+                result.putAll(errors);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        if (dom)
+            assertFalse(validator.validateWithDTDUsingDOM(document(body),
+                    "test", false));
+        else
+            assertFalse(validator.validateWithDTDUsingSAX(document(body),
+                    "test"));
+        return result;
+    }
+
+    @Test
+    public void checkGroupedByKeyAndArguments()
+            throws IOException, ParserConfigurationException {
+        for (boolean dom : new boolean[] { false, true }) {
+            Map<String, ErrorInfo> errors = errors(dom,
+                    "<p/><q/><q/><r/><p/>");
+            ErrorInfo q = errors
+                    .get("[ERROR] Element type \"q\" must be declared.");
+            assertNotNull(q, errors.keySet().toString());
+            assertEquals(2, q.getCount());
+            assertEquals("MSG_ELEMENT_NOT_DECLARED", q.getCode());
+            assertArrayEquals(new String[] { "q" }, q.getArguments());
+            ErrorInfo r = errors
+                    .get("[ERROR] Element type \"r\" must be declared.");
+            assertNotNull(r, errors.keySet().toString());
+            assertEquals(1, r.getCount());
+        }
+    }
+
+    @Test
+    public void checkEqualKeys() {
+        ErrorKey first = new ErrorKey("ERROR", "MSG", new Object[] { "a" },
+                null, null);
+        ErrorKey second = new ErrorKey("ERROR", "MSG",
+                new Object[] { new StringBuilder("a") }, null, null);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.intern().hashCode());
+        assertNotEquals(first, new ErrorKey("WARNING", "MSG",
+                new Object[] { "a" }, null, null));
+    }
+
+}
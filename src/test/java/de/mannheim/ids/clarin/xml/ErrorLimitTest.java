@@ -0,0 +1,93 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.jupiter.api.Test;
+
+import picocli.CommandLine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ErrorLimitTest {
+
+    private static InputStream document(String body) {
+        return new ByteArrayInputStream(("<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE doc [<!ELEMENT doc (p*)><!ELEMENT p EMPTY>]>\n"
+                + "<doc>" + body + "</doc>\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean validate(I5Validator validator, boolean dom,
+            String body) throws IOException, ParserConfigurationException {
+        return dom
+                ? validator.validateWithDTDUsingDOM(document(body), "test",
+                        false)
+                : validator.validateWithDTDUsingSAX(document(body), "test");
+    }
+
+    private static long count(Map<String, ErrorInfo> errors) {
+        return errors.values().stream().mapToLong(ErrorInfo::getCount).sum();
+    }
+
+    @Test
+    public void checkMaxErrors() throws IOException, ParserConfigurationException {
+        for (boolean dom : new boolean[] { false, true }) {
+            Map<String, ErrorInfo> errors = new HashMap<>();
+            I5Validator validator = new I5Validator(true);
+            validator.setMaxErrors(3);
+            validator.setReport(new ErrorReport() {
+                @Override
+                public void add(String fileName, boolean valid,
+                        Map<String, ErrorInfo> fileErrors) {
+                    errors.clear();
+                    errors.putAll(fileErrors);
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            assertFalse(validate(validator, dom, "<q/><q/><q/><q/><q/><q/>"));
+            assertEquals(3, count(errors));
+            // the parser can be used again
+            assertTrue(validate(validator, dom, "<p/>"));
+            assertEquals(0, count(errors));
+        }
+    }
+
+    @Test
+    public void checkValidityOnly() throws IOException, ParserConfigurationException {
+        for (boolean dom : new boolean[] { false, true }) {
+            I5Validator validator = new I5Validator(false);
+            validator.setValidityOnly(true);
+            assertFalse(validate(validator, dom, "<q/><q/>"));
+            assertFalse(validate(validator, dom, "<p>"));
+            assertTrue(validate(validator, dom, "<p/><p/>"));
+        }
+    }
+
+    @Test
+    public void checkOptionsOutOfRange() {
+        String[][] options = { { "-t", "0" }, { "--max-errors", "-1" },
+                { "--max-occurrences", "-1" }, { "--log-every", "-1" },
+                { "--prefetch", "2", "--prefetch-threads", "0" } };
+        for (String[] option : options) {
+            String[] args = new String[option.length + 1];
+            System.arraycopy(option, 0, args, 0, option.length);
+            args[option.length] = "missing.xml";
+            // a usage error, before any file is looked at
+            assertEquals(2,
+                    new CommandLine(new I5ValidatorRunner()).execute(args),
+                    String.join(" ", option));
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ErrorStatisticsTest {
+
+    private static ErrorInfo info(String code, long count) {
+        ErrorInfo info = new ErrorInfo(0, code, new String[0]);
+        for (long i = 0; i < count; i++)
+            info.addOccurrence(1, 1);
+        return info;
+    }
+
+    @Test
+    public void checkSpaceSaving() {
+        ErrorStatistics.SpaceSaving table = new ErrorStatistics.SpaceSaving(
+                50);
+        Map<String, Long> exact = new HashMap<>();
+        // ten frequent keys among many rare ones
+        for (int i = 0; i < 20_000; i++) {
+            String key = i % 4 == 0 ? "frequent" + (i / 4 % 10)
+                    : "rare" + i;
+            long weight = 1 + i % 3;
+            table.add(key, weight);
+            exact.merge(key, weight, Long::sum);
+        }
+        List<ErrorStatistics.SpaceSaving.Counter> top = table.top(10);
+        assertEquals(10, top.size());
+        for (ErrorStatistics.SpaceSaving.Counter counter : top) {
+            assertTrue(counter.key.startsWith("frequent"), counter.key);
+            long count = exact.get(counter.key);
+            assertTrue(counter.count >= count);
+            assertTrue(counter.count - counter.error <= count);
+        }
+        // counted from the start
+        assertTrue(table.isExact("frequent0"));
+        assertEquals(exact.get("frequent0"), table.get("frequent0").count);
+    }
+
+    @Test
+    public void checkCountMinSketch() {
+        ErrorStatistics.CountMinSketch sketch =
+                new ErrorStatistics.CountMinSketch(1 << 10, 4);
+        for (int i = 0; i < 5000; i++)
+            sketch.add("key" + (i % 500), 2);
+        for (int i = 0; i < 500; i++)
+            assertTrue(sketch.estimate("key" + i) >= 20);
+        assertThrows(IllegalArgumentException.class,
+                () -> new ErrorStatistics.CountMinSketch(1000, 4));
+    }
+
+    @Test
+    public void checkSummary() throws IOException {
+        File output = Files.createTempFile("statistics", ".json").toFile();
+        output.deleteOnExit();
+        try (ErrorStatistics statistics = new ErrorStatistics(output, 2)) {
+            for (int file = 0; file < 100; file++) {
+                Map<String, ErrorInfo> errors = new LinkedHashMap<>();
+                if (file % 2 == 0)
+                    errors.put("[ERROR] Element type \"q\" must be declared.",
+                            info("MSG_ELEMENT_NOT_DECLARED", 3));
+                if (file % 10 == 0)
+                    errors.put("[ERROR] Element type \"r" + file
+                            + "\" must be declared.",
+                            info("MSG_ELEMENT_NOT_DECLARED", 100));
+                if (file % 5 == 0)
+                    errors.put("[WARNING] something", info("WARN", 1));
+                statistics.add("f" + file, !errors.keySet().stream()
+                        .anyMatch(key -> key.startsWith("[ERROR]")), errors);
+            }
+        }
+        JsonNode summary = new ObjectMapper().readTree(output);
+        assertEquals(100, summary.get("files").asLong());
+        assertEquals(50, summary.get("invalid").asLong());
+        JsonNode errors = summary.get("severities").get("[ERROR]");
+        assertEquals(50 * 3 + 10 * 100, errors.get("occurrences").asLong());
+        assertEquals(50, errors.get("files").asLong());
+        assertEquals(20, summary.get("severities").get("[WARNING]")
+                .get("files").asLong());
+        JsonNode code = summary.get("codes").get(0);
+        assertEquals("[ERROR] MSG_ELEMENT_NOT_DECLARED",
+                code.get("code").asText());
+        assertEquals(50, code.get("files").asLong());
+
+        JsonNode byFiles = summary.get("topByFiles");
+        assertEquals(2, byFiles.size());
+        assertEquals("[ERROR] Element type \"q\" must be declared.",
+                byFiles.get(0).get("error").asText());
+        assertEquals(50, byFiles.get(0).get("files").asLong());
+        assertEquals(150, byFiles.get(0).get("occurrences").asLong());
+        assertTrue(byFiles.get(0).get("filesExact").asBoolean());
+        assertEquals("[WARNING] something",
+                byFiles.get(1).get("error").asText());
+        JsonNode byOccurrences = summary.get("topByOccurrences");
+        assertEquals("[ERROR] Element type \"q\" must be declared.",
+                byOccurrences.get(0).get("error").asText());
+        assertEquals("[ERROR] Element type \"r0\" must be declared.",
+                byOccurrences.get(1).get("error").asText());
+        assertEquals(100, byOccurrences.get(1).get("occurrences").asLong());
+    }
+}
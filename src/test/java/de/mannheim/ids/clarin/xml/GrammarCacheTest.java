@@ -0,0 +1,60 @@
+package de.mannheim.ids.clarin.xml;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class GrammarCacheTest {
+
+    private static final String DTD = "<!ELEMENT doc (p*)>\n"
+            + "<!ELEMENT p (#PCDATA)>\n"
+            + "<!ENTITY bull \"&#x2022;\">\n";
+
+    static String dtdLocation;
+
+    @BeforeAll
+    public static void writeDTD() throws IOException {
+        Path dtd = Files.createTempFile("doc", ".dtd");
+        dtd.toFile().deleteOnExit();
+        Files.writeString(dtd, DTD);
+        dtdLocation = dtd.toUri().toString();
+    }
+
+    private InputStream document(String body) {
+        return new ByteArrayInputStream(("<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE doc PUBLIC \"-//TEST//DTD doc//EN\" \""
+                + dtdLocation + "\">\n<doc>" + body + "</doc>\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void checkGrammarReusedWithSAX() throws IOException, ParserConfigurationException {
+        I5Validator validator = new I5Validator(false);
+        assertTrue(validator.validateWithDTDUsingSAX(document("<p>a</p>"), "first"));
+        assertTrue(validator.validateWithDTDUsingSAX(document("<p>&bull;</p>"), "second"));
+        assertFalse(validator.validateWithDTDUsingSAX(document("<q/>"), "third"));
+        assertEquals(1, validator.getGrammarCache().getMisses());
+        assertEquals(2, validator.getGrammarCache().getHits());
+    }
+
+    @Test
+    public void checkGrammarReusedWithDOM() throws IOException, ParserConfigurationException {
+        I5Validator validator = new I5Validator(false);
+        assertTrue(validator.validateWithDTDUsingDOM(document("<p>a</p>"), "first", false));
+        assertTrue(validator.validateWithDTDUsingDOM(document("<p>&bull;</p>"), "second", false));
+        assertFalse(validator.validateWithDTDUsingDOM(document("<p>&invalid;</p>"), "third", false));
+        assertEquals(1, validator.getGrammarCache().getMisses());
+        assertEquals(2, validator.getGrammarCache().getHits());
+    }
+
+}
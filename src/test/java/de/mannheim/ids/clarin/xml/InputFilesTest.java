@@ -0,0 +1,100 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+
+public class InputFilesTest {
+
+    private Path root;
+
+    @BeforeEach
+    public void createTree() throws IOException {
+        root = Files.createTempDirectory("inputs");
+        for (String name : new String[] { "a.i5.xml", "b.i5.xml.xz",
+                "notes.txt", "sub/c.i5.xml", "sub/deeper/d.i5.xml",
+                "old/e.i5.xml" }) {
+            Path file = root.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, "<doc/>");
+        }
+        try (var paths = Files.walk(root)) {
+            paths.forEach(path -> path.toFile().deleteOnExit());
+        }
+    }
+
+    private Set<String> found(List<String> includes, List<String> excludes,
+            File filesFrom, List<File> directories) {
+        Set<String> names = new TreeSet<>();
+        try (InputFiles files = new InputFiles(directories, filesFrom,
+                includes, excludes)) {
+            files.forEachRemaining(file -> names.add(root.relativize(
+                    file.toPath().toAbsolutePath()).toString()));
+        }
+        return names;
+    }
+
+    @Test
+    public void checkRecursive() {
+        List<File> directories = List.of(root.toFile());
+        assertEquals(6, found(List.of(), List.of(), null, directories).size());
+        assertEquals(Set.of("a.i5.xml", "b.i5.xml.xz", "sub/c.i5.xml",
+                "sub/deeper/d.i5.xml"),
+                found(List.of("*.i5.xml", "*.xz"), List.of("old/**"), null,
+                        directories));
+        assertEquals(Set.of("sub/c.i5.xml"), found(List.of("sub/*"),
+                List.of(), null, directories));
+    }
+
+    @Test
+    public void checkUnreadableDirectory() throws IOException {
+        Path locked = root.resolve("sub");
+        Files.setPosixFilePermissions(locked,
+                PosixFilePermissions.fromString("---------"));
+        try {
+            assumeFalse(Files.isReadable(locked), "permissions not enforced");
+            assertEquals(Set.of("a.i5.xml", "b.i5.xml.xz", "notes.txt",
+                    "old/e.i5.xml"), found(List.of(), List.of(), null,
+                            List.of(root.toFile())));
+        } finally {
+            Files.setPosixFilePermissions(locked,
+                    PosixFilePermissions.fromString("rwx------"));
+        }
+    }
+
+    @Test
+    public void checkFilesFrom() throws IOException {
+        Path list = Files.createTempFile("inputs", ".txt");
+        list.toFile().deleteOnExit();
+        List<String> lines = new ArrayList<>();
+        lines.add(root.resolve("a.i5.xml").toString());
+        lines.add("");
+        lines.add("  " + root.resolve("notes.txt") + "  ");
+        lines.add(root.resolve("sub/c.i5.xml").toString());
+        Files.write(list, lines);
+        assertEquals(Set.of("a.i5.xml", "sub/c.i5.xml"),
+                found(List.of(), List.of("*.txt"), list.toFile(), List.of()));
+        // directories first, then the list
+        List<File> order = new ArrayList<>();
+        try (InputFiles files = new InputFiles(
+                List.of(root.resolve("old").toFile()), list.toFile(),
+                List.of(), List.of())) {
+            files.forEachRemaining(order::add);
+        }
+        assertEquals(4, order.size());
+        assertEquals("e.i5.xml", order.get(0).getName());
+    }
+}
@@ -0,0 +1,74 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class JournalTest {
+
+    private static ByteArrayInputStream document(Path dtd, String body) {
+        return new ByteArrayInputStream(("<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE doc SYSTEM \"" + dtd.toUri() + "\">\n<doc>"
+                + body + "</doc>\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, Boolean> replay(File file) throws IOException {
+        Map<String, Boolean> results = new HashMap<>();
+        Set<String> names = Journal.replay(file, new ErrorReport() {
+            @Override
+            public void add(String fileName, boolean valid,
+                    Map<String, ErrorInfo> errors) {
+                results.put(fileName, valid);
+                assertEquals(valid, errors.isEmpty(), fileName);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        assertEquals(names, results.keySet());
+        return results;
+    }
+
+    @Test
+    public void checkResumeAfterCrash()
+            throws IOException, ParserConfigurationException {
+        Path dtd = Files.createTempFile("doc", ".dtd");
+        dtd.toFile().deleteOnExit();
+        Files.writeString(dtd, "<!ELEMENT doc (p*)>\n<!ELEMENT p (#PCDATA)>\n");
+        File file = File.createTempFile("run", ".journal");
+        file.deleteOnExit();
+
+        // errors are not kept, but still journaled
+        I5Validator validator = new I5Validator(false);
+        try (Journal journal = new Journal(file, false)) {
+            validator.setJournal(journal);
+            validator.validateWithDTDUsingSAX(document(dtd, "<p/>"), "a");
+            validator.validateWithDTDUsingSAX(document(dtd, "<q/>"), "b");
+        }
+        // a record cut short by a crash
+        Files.writeString(file.toPath(), "{\"file\":\"c\",\"val",
+                StandardOpenOption.APPEND);
+
+        assertEquals(Map.of("a", true, "b", false), replay(file));
+        try (Journal journal = new Journal(file, true)) {
+            validator.setJournal(journal);
+            validator.validateWithDTDUsingSAX(document(dtd, "<p/><p/>"), "c");
+        }
+        assertEquals(Map.of("a", true, "b", false, "c", true), replay(file));
+    }
+}
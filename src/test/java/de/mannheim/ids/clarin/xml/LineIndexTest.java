@@ -0,0 +1,48 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class LineIndexTest {
+
+    @Test
+    public void checkLineBreaks() throws IOException {
+        // LF, CR LF, CR, and CR LF split between reads
+        byte[] text = "a\nbb\r\nccc\rd\r\ne".getBytes(StandardCharsets.UTF_8);
+        LineIndex lines = new LineIndex(new ByteArrayInputStream(text));
+        byte[] buffer = new byte[text.length];
+        assertEquals(12, lines.read(buffer, 0, 12));
+        assertEquals('\r', buffer[11]);
+        assertEquals(10, lines.offset(4));
+        // until the LF is read
+        assertEquals(12, lines.offset(5));
+        assertEquals(-1, lines.offset(6));
+        while (lines.read() >= 0) {
+        }
+        assertEquals(0, lines.offset(1));
+        assertEquals(2, lines.offset(2));
+        assertEquals(6, lines.offset(3));
+        assertEquals(10, lines.offset(4));
+        assertEquals(13, lines.offset(5));
+        assertEquals(-1, lines.offset(6));
+    }
+
+    @Test
+    public void checkWindow() throws IOException {
+        int count = 3 * LineIndex.WINDOW;
+        LineIndex lines = new LineIndex(new ByteArrayInputStream(
+                "x\n".repeat(count).getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2L * count, lines.skip(Long.MAX_VALUE));
+        // the line after the last line break is empty
+        assertEquals(2L * count, lines.offset(count + 1));
+        assertEquals(2L * (count - 10), lines.offset(count - 9));
+        assertEquals(-1, lines.offset(count - LineIndex.WINDOW));
+        assertEquals(-1, lines.offset(1));
+    }
+}
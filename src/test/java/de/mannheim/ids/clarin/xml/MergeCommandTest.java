@@ -0,0 +1,78 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import picocli.CommandLine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class MergeCommandTest {
+
+    private static Map<String, ErrorInfo> errors(String severity) {
+        Map<String, ErrorInfo> errors = new LinkedHashMap<>();
+        if (severity != null) {
+            ErrorInfo info = new ErrorInfo(10, "code", new String[0]);
+            info.addOccurrence(3, 14);
+            errors.put("[" + severity + "] something", info);
+        }
+        return errors;
+    }
+
+    @Test
+    public void checkMerge() throws IOException {
+        Path directory = Files.createTempDirectory("merge");
+        directory.toFile().deleteOnExit();
+        // a shard written with -l
+        File object = directory.resolve("shard1.json").toFile();
+        object.deleteOnExit();
+        Map<String, Map<String, ErrorInfo>> map = new LinkedHashMap<>();
+        map.put("a.xml", errors(null));
+        map.put("b.xml", errors("ERROR"));
+        map.put("c.xml", errors("WARNING"));
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(object,
+                map);
+        // and one written with --stream-log, compressed
+        File lines = directory.resolve("shard2.ndjson.gz").toFile();
+        lines.deleteOnExit();
+        try (StreamingErrorReport report = new StreamingErrorReport(lines)) {
+            report.add("d.xml", false, errors("FATAL_ERROR"));
+            report.add("b.xml", false, errors("ERROR"));
+            report.add("e.xml", false, errors(null));
+        }
+
+        File merged = directory.resolve("merged.json").toFile();
+        merged.deleteOnExit();
+        int exitCode = new CommandLine(new I5ValidatorRunner()).execute(
+                "merge", "-L", merged.getPath(), object.getPath(),
+                lines.getPath());
+        // b, d and e; b only once
+        assertEquals(3, exitCode);
+        Map<String, Map<String, ErrorInfo>> result = new ObjectMapper()
+                .readValue(merged,
+                        new TypeReference<Map<String, Map<String, ErrorInfo>>>() {
+                        });
+        assertEquals(5, result.size());
+        assertEquals(14, result.get("d.xml").values().iterator().next()
+                .getCol(0));
+
+        // merging the merged report again changes nothing, but e, which
+        // the JSON object cannot tell is invalid
+        File again = directory.resolve("again.ndjson").toFile();
+        again.deleteOnExit();
+        assertEquals(2, new CommandLine(new I5ValidatorRunner()).execute(
+                "merge", "--stream-log", "-L", again.getPath(),
+                merged.getPath()));
+        assertEquals(5, Files.readAllLines(again.toPath()).size());
+    }
+}
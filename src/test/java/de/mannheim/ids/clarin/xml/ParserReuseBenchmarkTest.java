@@ -0,0 +1,98 @@
+package de.mannheim.ids.clarin.xml;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * per-file overhead of setting up a parser for every document (as
+ * {@link I5Validator} used to) compared with reusing one parser per thread
+ * <p>
+ * run with {@code mvn test -Dtest.excludedGroups=none
+ * -Dtest=ParserReuseBenchmarkTest}
+ */
+@Tag("slow")
+public class ParserReuseBenchmarkTest {
+
+    private static final int ROUNDS = 5;
+    private static final int FILES = 2000;
+
+    /**
+     * a small document with an internal DTD, so both variants parse the DTD
+     */
+    private static final byte[] DOCUMENT = ("<?xml version=\"1.0\"?>\n"
+            + "<!DOCTYPE doc [\n<!ELEMENT doc (p*)>\n"
+            + "<!ELEMENT p (#PCDATA)>\n]>\n"
+            + "<doc><p>a</p><p>b</p></doc>\n")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private interface Run {
+        void run() throws Exception;
+    }
+
+    private static double nanosPerFile(Run run) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < FILES; i++)
+            run.run();
+        return (System.nanoTime() - start) / (double) FILES;
+    }
+
+    /**
+     * the parser set-up that used to be done for every file
+     */
+    private static void parseWithNewParser() throws Exception {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setValidating(true);
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://xml.org/sax/features/namespaces", true);
+        factory.setFeature("http://xml.org/sax/features/validation", true);
+        factory.setFeature(
+                "http://apache.org/xml/features/nonvalidating/load-dtd-grammar",
+                true);
+        factory.setFeature(
+                "http://apache.org/xml/features/nonvalidating/load-external-dtd",
+                true);
+        factory.setFeature(
+                "http://xml.org/sax/features/external-general-entities", true);
+        factory.setFeature(
+                "http://xml.org/sax/features/external-parameter-entities",
+                true);
+        factory.setFeature("http://apache.org/xml/features/validation/schema",
+                true);
+        factory.setFeature(
+                "http://apache.org/xml/features/continue-after-fatal-error",
+                true);
+        factory.setXIncludeAware(true);
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setErrorHandler(new DefaultHandler());
+        reader.parse(new InputSource(new ByteArrayInputStream(DOCUMENT)));
+    }
+
+    @Test
+    public void comparePerFileOverhead() throws Exception {
+        I5Validator validator = new I5Validator(false);
+        double perFileNew = 0;
+        double perFileReused = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            perFileNew = nanosPerFile(
+                    ParserReuseBenchmarkTest::parseWithNewParser);
+            perFileReused = nanosPerFile(() -> assertTrue(
+                    validator.validateWithDTDUsingSAX(
+                            new ByteArrayInputStream(DOCUMENT), "doc")));
+        }
+        System.out.printf("new parser per file: %.1f us/file%n",
+                perFileNew / 1000);
+        System.out.printf("reused parser:       %.1f us/file%n",
+                perFileReused / 1000);
+    }
+
+}
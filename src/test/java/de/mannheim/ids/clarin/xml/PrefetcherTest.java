@@ -0,0 +1,67 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class PrefetcherTest {
+
+    private static File createFile(Path directory, String name,
+            String content) throws IOException {
+        Path file = directory.resolve(name);
+        Files.writeString(file, content);
+        file.toFile().deleteOnExit();
+        return file.toFile();
+    }
+
+    @Test
+    public void checkPrefetch() throws IOException {
+        Path directory = Files.createTempDirectory("prefetch");
+        directory.toFile().deleteOnExit();
+        List<ValidationTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            tasks.add(new ValidationTask(
+                    createFile(directory, "f" + i + ".xml", "<doc n='" + i
+                            + "'/>"),
+                    Compression.none, false, false));
+        // larger than the budget
+        tasks.add(new ValidationTask(
+                createFile(directory, "large.xml",
+                        "<doc>" + "x".repeat(100) + "</doc>"),
+                Compression.none, false, false));
+        tasks.add(new ValidationTask(new File(directory.toFile(),
+                "missing.xml"), Compression.none, false, false));
+        List<ValidationTask> taken = new ArrayList<>();
+        try (Prefetcher prefetcher = new Prefetcher(tasks.iterator(), 4, 40,
+                2)) {
+            prefetcher.forEachRemaining(taken::add);
+            assertEquals("read ahead: 10 files, 0.0 MiB; passed on: 2 files",
+                    prefetcher.getStatistics());
+        }
+        assertEquals(tasks.size(), taken.size());
+        Decompressor decompressor = new Decompressor(0, false);
+        for (int i = 0; i < 10; i++) {
+            ValidationTask task = taken.get(i);
+            assertEquals(tasks.get(i).name, task.name);
+            assertEquals(tasks.get(i).systemId, task.systemId);
+            assertNull(task.file);
+            assertNotNull(task.data);
+            try (InputStream in = task.open(decompressor)) {
+                assertEquals("<doc n='" + i + "'/>", new String(
+                        in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertSame(tasks.get(10), taken.get(10));
+        assertSame(tasks.get(11), taken.get(11));
+    }
+}
@@ -0,0 +1,138 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import picocli.CommandLine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ResultCacheTest {
+
+    private Path dir;
+    private Path dtd;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("results");
+        dir.toFile().deleteOnExit();
+    }
+
+    private File document(String name, String body) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, "<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE doc SYSTEM \"" + dtd.toUri() + "\">\n"
+                + "<doc>" + body + "</doc>\n");
+        return file.toFile();
+    }
+
+    /**
+     * validate a file with a fresh validator and cache, as in a new run
+     *
+     * @return the cache, for its statistics
+     */
+    private ResultCache run(File file, String options,
+            Map<String, ErrorInfo> errors) throws IOException {
+        return run(file, options, false, errors);
+    }
+
+    private ResultCache run(File file, String options, boolean offsets,
+            Map<String, ErrorInfo> errors) throws IOException {
+        CachingEntityResolver entityResolver = new CachingEntityResolver();
+        I5Validator validator = new I5Validator(true, entityResolver);
+        validator.setErrorOffsets(offsets);
+        validator.setReport(new ErrorReport() {
+            @Override
+            public void add(String fileName, boolean valid,
+                    Map<String, ErrorInfo> fileErrors) {
+                errors.clear();
+                errors.putAll(fileErrors);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        ResultCache cache = new ResultCache(dir.resolve("cache").toFile(),
+                entityResolver, options);
+        validator.setResultCache(cache);
+        try (Decompressor decompressor = new Decompressor(0)) {
+            I5ValidatorRunner.validate(validator, decompressor,
+                    new ValidationTask(file, Compression.none, false, false));
+        }
+        return cache;
+    }
+
+    @Test
+    public void checkUnchangedFilesAreSkipped() throws IOException {
+        dtd = dir.resolve("doc.dtd");
+        Files.writeString(dtd, "<!ELEMENT doc (p*)>\n<!ELEMENT p (#PCDATA)>\n");
+        File file = document("doc.xml", "<p>x</p><q/>");
+        Map<String, ErrorInfo> errors = new HashMap<>();
+
+        assertEquals(0, run(file, "a", errors).getHits());
+        Map<String, ErrorInfo> validated = new HashMap<>(errors);
+        assertFalse(validated.isEmpty());
+
+        ResultCache cache = run(file, "a", errors);
+        assertEquals(1, cache.getHits(), cache.getStatistics());
+        assertEquals(validated.keySet(), errors.keySet());
+        for (String error : validated.keySet())
+            assertEquals(validated.get(error).getCount(),
+                    errors.get(error).getCount(), error);
+
+        assertEquals(0, run(file, "b", errors).getHits(), "other options");
+
+        Files.writeString(dtd, "<!ELEMENT doc (p|q)*>\n"
+                + "<!ELEMENT p (#PCDATA)>\n<!ELEMENT q EMPTY>\n");
+        assertEquals(0, run(file, "a", errors).getHits(), "changed DTD");
+        assertTrue(errors.isEmpty(), errors.keySet().toString());
+
+        document("doc.xml", "<p>y</p><q/>");
+        assertEquals(0, run(file, "a", errors).getHits(), "changed file");
+        assertEquals(1, run(file, "a", errors).getHits(), "unchanged again");
+    }
+
+    /**
+     * @return the result options of a run with these arguments
+     */
+    private static String options(String... args) {
+        I5ValidatorRunner runner = new I5ValidatorRunner();
+        new CommandLine(runner).parseArgs(args);
+        return runner.resultOptions(true);
+    }
+
+    @Test
+    public void checkOffsetsAreNotTakenFromRunsWithout() throws IOException {
+        dtd = dir.resolve("doc.dtd");
+        Files.writeString(dtd, "<!ELEMENT doc (p*)>\n<!ELEMENT p (#PCDATA)>\n");
+        File file = document("doc.xml", "<p>x</p>\n<q/>");
+        Map<String, ErrorInfo> errors = new HashMap<>();
+        String without = options(file.toString());
+        String with = options("--offsets", file.toString());
+
+        assertEquals(0, run(file, without, false, errors).getHits());
+        assertEquals(1, run(file, without, false, errors).getHits());
+        assertEquals(0, run(file, with, true, errors).getHits(),
+                "cached without offsets");
+        assertOffsets(errors);
+        assertEquals(1, run(file, with, true, errors).getHits());
+        assertOffsets(errors);
+    }
+
+    private static void assertOffsets(Map<String, ErrorInfo> errors) {
+        assertFalse(errors.isEmpty());
+        errors.forEach((error, info) -> {
+            for (int i = 0; i < info.size(); i++)
+                assertTrue(info.getOffset(i) >= 0, error);
+        });
+    }
+}
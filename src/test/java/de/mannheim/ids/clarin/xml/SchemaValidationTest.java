@@ -0,0 +1,119 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class SchemaValidationTest {
+
+    private static Path schema;
+
+    @BeforeAll
+    public static void createSchema() throws IOException {
+        schema = Files.createTempFile("schema", ".xsd");
+        schema.toFile().deleteOnExit();
+        Files.writeString(schema, "<xs:schema "
+                + "xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">\n"
+                + "<xs:element name=\"doc\"><xs:complexType><xs:sequence>\n"
+                + "<xs:element name=\"p\" type=\"xs:string\" "
+                + "minOccurs=\"0\" maxOccurs=\"unbounded\"/>\n"
+                + "</xs:sequence></xs:complexType></xs:element>\n"
+                + "</xs:schema>\n");
+    }
+
+    private static InputStream document(String schemaLocation, String body) {
+        return new ByteArrayInputStream(("<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE doc [<!ENTITY e \"entity\">]>\n"
+                + "<doc xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+                + (schemaLocation == null ? ""
+                        : " xsi:noNamespaceSchemaLocation=\"" + schemaLocation
+                                + "\"")
+                + ">" + body + "</doc>\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static I5Validator validator(Map<String, ErrorInfo> errors) {
+        I5Validator validator = new I5Validator(true);
+        validator.setReport(new ErrorReport() {
+            @Override
+            public void add(String fileName, boolean valid,
+                    Map<String, ErrorInfo> fileErrors) {
+                errors.clear();
+                errors.putAll(fileErrors);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return validator;
+    }
+
+    @Test
+    public void checkStreamingValidation()
+            throws IOException, ParserConfigurationException {
+        Map<String, ErrorInfo> errors = new HashMap<>();
+        I5Validator validator = validator(errors);
+        String systemId = schema.resolveSibling("doc.xml").toUri().toString();
+        String location = schema.getFileName().toString();
+        assertTrue(validator.validateWithSchema(
+                document(location, "<p>&e;</p><p/>"), "valid", systemId));
+        assertTrue(errors.isEmpty());
+        assertFalse(validator.validateWithSchema(
+                document(location, "<p>x</p><q/>"), "invalid", systemId));
+        assertEquals(1, errors.size(), errors.keySet().toString());
+        assertTrue(errors.keySet().iterator().next().contains("'q'"),
+                errors.keySet().toString());
+        assertEquals("schema cache: 1 hits, 1 misses",
+                validator.getSchemaCache().getStatistics());
+    }
+
+    @Test
+    public void checkMissingSchema()
+            throws IOException, ParserConfigurationException {
+        Map<String, ErrorInfo> errors = new HashMap<>();
+        I5Validator validator = validator(errors);
+        assertFalse(validator.validateWithSchema(document(null, "<p/>"),
+                "no location", null));
+        assertEquals(1, errors.size());
+        String systemId = schema.resolveSibling("doc.xml").toUri().toString();
+        assertFalse(validator.validateWithSchema(
+                document("does-not-exist.xsd", "<p/>"), "missing",
+                systemId));
+        assertEquals(1, errors.size(), errors.keySet().toString());
+    }
+
+    @Test
+    public void checkUnreadableInclude()
+            throws IOException, ParserConfigurationException {
+        Path including = Files.createTempFile("including", ".xsd");
+        including.toFile().deleteOnExit();
+        Files.writeString(including, "<xs:schema "
+                + "xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">\n"
+                + "<xs:include schemaLocation=\"does-not-exist.xsd\"/>\n"
+                + "<xs:element name=\"doc\"/>\n"
+                + "</xs:schema>\n");
+        Map<String, ErrorInfo> errors = new HashMap<>();
+        I5Validator validator = validator(errors);
+        String systemId = including.resolveSibling("doc.xml").toUri()
+                .toString();
+        assertFalse(validator.validateWithSchema(
+                document(including.getFileName().toString(), "<p/>"),
+                "unreadable include", systemId));
+        assertEquals(1, errors.size(), errors.keySet().toString());
+        assertTrue(errors.keySet().iterator().next()
+                .contains("does-not-exist.xsd"), errors.keySet().toString());
+    }
+}
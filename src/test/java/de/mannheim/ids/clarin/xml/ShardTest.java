@@ -0,0 +1,66 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ShardTest {
+
+    private static ValidationTask task(String name, long size) {
+        return new ValidationTask(name, "file:/" + name, size, false,
+                decompressor -> null, false, false);
+    }
+
+    @Test
+    public void checkSelect() {
+        List<ValidationTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            tasks.add(task("f" + i, (i % 5 + 1) * 1000L));
+        tasks.add(task("huge", 20_000));
+        Set<String> all = new HashSet<>();
+        long[] bytes = new long[3];
+        for (int i = 0; i < 3; i++) {
+            for (ValidationTask task : Shard.parse((i + 1) + "/3")
+                    .select(tasks)) {
+                assertTrue(all.add(task.name), task.name);
+                bytes[i] += task.size;
+            }
+        }
+        assertEquals(tasks.size(), all.size());
+        // 80000 bytes in all: as even as the sizes allow
+        for (long b : bytes)
+            assertTrue(Math.abs(b - 80_000 / 3) <= 1000, b + " bytes");
+    }
+
+    @Test
+    public void checkContains() {
+        int[] counts = new int[4];
+        for (int i = 0; i < 4000; i++) {
+            String name = "corpus/dir" + i % 7 + "/file" + i + ".i5.xml";
+            int shards = 0;
+            for (int j = 0; j < 4; j++) {
+                if (new Shard(j, 4).contains(name)) {
+                    shards++;
+                    counts[j]++;
+                }
+            }
+            assertEquals(1, shards, name);
+        }
+        for (int count : counts)
+            assertTrue(count > 900 && count < 1100, count + " files");
+    }
+
+    @Test
+    public void checkParse() {
+        assertEquals("2/5", Shard.parse("2/5").toString());
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("0/5"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("6/5"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("2"));
+    }
+}
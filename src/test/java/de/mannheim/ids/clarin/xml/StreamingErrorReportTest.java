@@ -0,0 +1,110 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class StreamingErrorReportTest {
+
+    static String dtdLocation;
+
+    @BeforeAll
+    public static void writeDTD() throws IOException {
+        Path dtd = Files.createTempFile("doc", ".dtd");
+        dtd.toFile().deleteOnExit();
+        Files.writeString(dtd, "<!ELEMENT doc (p*)>\n"
+                + "<!ELEMENT p (#PCDATA)>\n");
+        dtdLocation = dtd.toUri().toString();
+    }
+
+    private InputStream document(String body) {
+        return new ByteArrayInputStream(("<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE doc SYSTEM \"" + dtdLocation + "\">\n<doc>"
+                + body + "</doc>\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void checkOneLinePerFile() throws IOException, ParserConfigurationException {
+        File file = File.createTempFile("report", ".ndjson.gz");
+        file.deleteOnExit();
+        I5Validator validator = new I5Validator(true);
+        try (ErrorReport report = new StreamingErrorReport(file)) {
+            validator.setReport(report);
+            assertTrue(validator.validateWithDTDUsingSAX(document("<p>a</p>"), "valid"));
+            assertFalse(validator.validateWithDTDUsingSAX(document("<q/>\n<q/>"), "invalid"));
+        }
+        List<String> lines;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)),
+                StandardCharsets.UTF_8))) {
+            lines = reader.lines().collect(Collectors.toList());
+        }
+        assertEquals(2, lines.size());
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode first = mapper.readTree(lines.get(0));
+        assertEquals("valid", first.get("file").asText());
+        assertTrue(first.get("valid").asBoolean());
+        assertEquals(0, first.get("errors").size());
+        JsonNode second = mapper.readTree(lines.get(1));
+        assertEquals("invalid", second.get("file").asText());
+        assertFalse(second.get("valid").asBoolean());
+        assertTrue(second.get("errors").size() > 0);
+    }
+
+    @Test
+    public void checkMetrics() throws IOException {
+        String body = "<p>a</p>".repeat(10_000);
+        byte[] content;
+        try (InputStream in = document(body)) {
+            content = in.readAllBytes();
+        }
+        File file = File.createTempFile("doc", ".xml.gz");
+        file.deleteOnExit();
+        try (OutputStream out = new GZIPOutputStream(
+                new FileOutputStream(file))) {
+            out.write(content);
+        }
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        I5Validator validator = new I5Validator(true);
+        validator.setReportMetrics(true);
+        try (ErrorReport streaming = new StreamingErrorReport(report);
+                Decompressor decompressor = new Decompressor(0)) {
+            validator.setReport(streaming);
+            assertTrue(I5ValidatorRunner.validate(validator, decompressor,
+                    new ValidationTask(file, Compression.none, false,
+                            false)));
+        }
+        JsonNode metrics = new ObjectMapper().readTree(report.toByteArray())
+                .get("metrics");
+        assertEquals(file.length(), metrics.get("storedBytes").asLong());
+        assertEquals(content.length, metrics.get("bytes").asLong());
+        assertTrue(metrics.get("ms").asLong() >= metrics.get("readMs")
+                .asLong(), metrics.toString());
+    }
+
+}
@@ -0,0 +1,77 @@
+package de.mannheim.ids.clarin.xml;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ValidationServerTest {
+
+    private static JsonNode post(HttpClient client, URI uri, String body)
+            throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri)
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode(), response.body());
+        return new ObjectMapper().readTree(response.body());
+    }
+
+    @Test
+    public void checkRequests() throws IOException, InterruptedException {
+        Path dtd = Files.createTempFile("doc", ".dtd");
+        dtd.toFile().deleteOnExit();
+        Files.writeString(dtd, "<!ELEMENT doc (p*)>\n<!ELEMENT p (#PCDATA)>\n");
+        String prolog = "<?xml version=\"1.0\"?>\n<!DOCTYPE doc SYSTEM \""
+                + dtd.toUri() + "\">\n";
+        Path file = Files.createTempFile("doc", ".xml");
+        file.toFile().deleteOnExit();
+        Files.writeString(file, prolog + "<doc><p/></doc>\n");
+
+        try (Decompressor decompressor = new Decompressor(0)) {
+            ValidationServer server = new ValidationServer(
+                    new I5Validator(true), decompressor, Compression.none,
+                    false, false, 0, 2);
+            server.start();
+            try {
+                HttpClient client = HttpClient.newHttpClient();
+                String base = "http://127.0.0.1:" + server.getPort();
+
+                JsonNode result = post(client,
+                        URI.create(base + "/validate?name=a.xml"),
+                        prolog + "<doc><q/></doc>\n");
+                assertEquals("a.xml", result.get("file").asText());
+                assertFalse(result.get("valid").asBoolean());
+                assertEquals(2, result.get("errors").size(),
+                        result.toString());
+
+                result = post(client, URI.create(base + "/validate?path="
+                        + URLEncoder.encode(file.toString(),
+                                StandardCharsets.UTF_8)), "");
+                assertTrue(result.get("valid").asBoolean(), result.toString());
+
+                HttpResponse<String> statistics = client.send(
+                        HttpRequest.newBuilder(
+                                URI.create(base + "/statistics")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                assertTrue(statistics.body()
+                        .contains("grammar cache: 1 hits, 1 misses"),
+                        statistics.body());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+}